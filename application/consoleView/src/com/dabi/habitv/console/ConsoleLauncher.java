@@ -15,6 +15,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.log4j.Logger;
 
 import com.dabi.habitv.api.plugin.api.PluginBaseInterface;
 import com.dabi.habitv.api.plugin.dto.CategoryDTO;
@@ -22,6 +23,9 @@ import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
 import com.dabi.habitv.core.config.UserConfig;
 import com.dabi.habitv.core.config.XMLUserConfig;
 import com.dabi.habitv.core.dao.GrabConfigDAO;
+import com.dabi.habitv.core.dao.GrabConfigDAO.LoadModeEnum;
+import com.dabi.habitv.core.dao.GrabConfigService;
+import com.dabi.habitv.core.dao.GrabConfigService.SelectionListener;
 import com.dabi.habitv.core.mgr.CoreManager;
 import com.dabi.habitv.framework.plugin.utils.DownloadUtils;
 import com.dabi.habitv.framework.plugin.utils.ProcessingThreads;
@@ -29,6 +33,9 @@ import com.dabi.habitv.framework.plugin.utils.RetrieverUtils;
 import com.dabi.habitv.utils.DirUtils;
 
 public final class ConsoleLauncher {
+
+	private static final Logger LOG = Logger.getLogger(ConsoleLauncher.class);
+
 	private static final String OPTION_RUN_EXPORT = "x";
 
 	private static final String OPTION_TEST_PLUGIN = "t";
@@ -47,6 +54,10 @@ public final class ConsoleLauncher {
 
 	private static final String OPTION_DAEMON = "d";
 
+	private static final String OPTION_COMPACT_INDEX = "ci";
+
+	private static final long INDEX_COMPACTION_PERIOD = 24 * 60 * 60 * 1000L;
+
 	private static final String OPTION_CATEGORY = "c";
 
 //	private static final String OPTION_EPISODE = "e";
@@ -91,6 +102,8 @@ public final class ConsoleLauncher {
 //					"Teste le plugin avec un téléchargement aléatoire.");
 			options.addOption(OPTION_RUN_EXPORT, "runExport", false,
 					"Reprise des exports en échec.");
+			options.addOption(OPTION_COMPACT_INDEX, "compactIndex", false,
+					"Vérifie et compacte les index des épisodes téléchargés.");
 
 			options.addOption(OptionBuilder
 					.withLongOpt("plugins")
@@ -161,6 +174,8 @@ public final class ConsoleLauncher {
 					testPlugin(pluginList);
 				} else if (line.hasOption(OPTION_RUN_EXPORT)) {
 					runExport(pluginList);
+				} else if (line.hasOption(OPTION_COMPACT_INDEX)) {
+					compactIndex();
 				} else {
 					usage(options);
 				}
@@ -191,8 +206,8 @@ public final class ConsoleLauncher {
 
 			@Override
 			public void run() {
-				info("Interrupted, closing all treatments");
-				coreManager.forceEnd();
+				info("Interrupted, finishing the running downloads");
+				coreManager.drain();
 				ProcessingThreads.killAllProcessing();
 			}
 
@@ -208,6 +223,36 @@ public final class ConsoleLauncher {
 		coreManager.reTryExport(pluginList);
 	}
 
+	private static void compactIndex() {
+		info("compactIndex");
+		final long reclaimed = coreManager.compactIndexes(grabConfigDAO
+				.load(LoadModeEnum.ALL));
+		info("Index compactés, " + reclaimed + " octets libérés");
+	}
+
+	private static void startIndexCompaction() {
+		final Thread compaction = new Thread("IndexCompaction") {
+
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(INDEX_COMPACTION_PERIOD);
+						try {
+							compactIndex();
+						} catch (final RuntimeException e) {
+							LOG.error("Index compaction failed", e);
+						}
+					}
+				} catch (final InterruptedException e) {
+					// stopped
+				}
+			}
+		};
+		compaction.setDaemon(true);
+		compaction.start();
+	}
+
 	private static void listPlugin() {
 		info("Plugin provider : ");
 		for (PluginBaseInterface pluginBaseInterface : coreManager
@@ -291,6 +336,7 @@ public final class ConsoleLauncher {
 	private static void checkAndDLMode(List<String> pluginList,
 			List<String> categoryList) {
 		info("checkAndDLMode" + pluginList + " / " + categoryList);
+		coreManager.resumeDownloads();
 		Map<String, CategoryDTO> plugins2Categories = grabConfigDAO.load();
 		for (Entry<String, CategoryDTO> pluginsCategories : plugins2Categories
 				.entrySet()) {
@@ -330,13 +376,25 @@ public final class ConsoleLauncher {
 
 	private static void daemonMode() throws InterruptedException {
 		info("daemonMode");
+		coreManager.resumeDownloads();
 		if (config.getDemonCheckTime() == null) {
 			coreManager.retreiveEpisode(grabConfigDAO.load());
 		} else {
 			final long demonTime = config.getDemonCheckTime() * 1000L;
+			startIndexCompaction();
+			final GrabConfigService grabConfigService = new GrabConfigService(
+					grabConfigDAO);
+			grabConfigService.start(new SelectionListener() {
+
+				@Override
+				public void onNewSelection(
+						Map<String, CategoryDTO> plugin2Categories) {
+					coreManager.retreiveEpisode(plugin2Categories);
+				}
+			});
 			// demon mode
 			while (true) {
-				coreManager.retreiveEpisode(grabConfigDAO.load());
+				coreManager.retreiveEpisode(grabConfigService.getCategories());
 				Thread.sleep(demonTime);
 			}
 		}
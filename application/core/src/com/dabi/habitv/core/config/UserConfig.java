@@ -29,6 +29,24 @@ public interface UserConfig {
 
 	Integer getMaxAttempts();
 
+	Integer getMaxDownloadPoolSize();
+
+	Integer getBandwidthLimit();
+
+	String getDownloadWindows();
+
+	Integer getOutOfWindowBandwidthLimit();
+
+	Integer getDrainTimeout();
+
+	Integer getDownloadErrorTtl();
+
+	Integer getIndexCommitDelay();
+
+	Boolean getIndexSync();
+
+	Integer getLargeIndexSize();
+
 	Integer getDemonCheckTime();
 
 	boolean updateOnStartup();
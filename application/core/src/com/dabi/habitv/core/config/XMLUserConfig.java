@@ -3,6 +3,8 @@ package com.dabi.habitv.core.config;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
@@ -11,12 +13,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import javax.xml.bind.PropertyException;
-import javax.xml.bind.Unmarshaller;
 
 import com.dabi.habitv.api.plugin.dto.ExportDTO;
 import com.dabi.habitv.api.plugin.dto.ProxyDTO;
@@ -40,9 +39,9 @@ import com.dabi.habitv.configuration.entities.Exporter.Subexporters;
 import com.dabi.habitv.configuration.entities.ObjectFactory;
 import com.dabi.habitv.configuration.entities.PluginSupport;
 import com.dabi.habitv.framework.FrameworkConf;
+import com.dabi.habitv.framework.plugin.utils.JAXBUtils;
 import com.dabi.habitv.framework.plugin.utils.OSUtils;
 import com.dabi.habitv.utils.DirUtils;
-import com.dabi.habitv.utils.FileUtils;
 import com.dabi.habitv.utils.XMLUtils;
 
 public class XMLUserConfig implements UserConfig {
@@ -51,6 +50,8 @@ public class XMLUserConfig implements UserConfig {
 
 	private static final int DEFAULT_CHECK_TIME = 1800;
 
+	private static final int DEFAULT_DRAIN_TIMEOUT = 300;
+
 	private static final int DEFAULT_CUT_SIZE = 40;
 
 	private static final String DEFAULT_DL_OUTPUT = FrameworkConf.USER_HOME
@@ -228,14 +229,10 @@ public class XMLUserConfig implements UserConfig {
 			throws JAXBException, UnsupportedEncodingException,
 			FileNotFoundException {
 		Config config;
-		final JAXBContext jaxbContext;
-		jaxbContext = JAXBContext.newInstance(Config.class.getPackage()
-				.getName());
-		final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-		FileUtils.setValidation(unmarshaller, OLD_CONF_XSD);
-		config = ((JAXBElement<Config>) unmarshaller
-				.unmarshal(new InputStreamReader(new FileInputStream(confFile),
-						HabitTvConf.ENCODING))).getValue();
+		config = ((JAXBElement<Config>) JAXBUtils.unmarshal(
+				new InputStreamReader(new FileInputStream(confFile),
+						HabitTvConf.ENCODING), Config.class.getPackage()
+						.getName(), null, OLD_CONF_XSD)).getValue();
 		return config;
 	}
 
@@ -243,13 +240,9 @@ public class XMLUserConfig implements UserConfig {
 			throws JAXBException, UnsupportedEncodingException,
 			FileNotFoundException {
 		Configuration config;
-		final JAXBContext jaxbContext;
-		jaxbContext = JAXBContext.newInstance(Configuration.class.getPackage()
-				.getName());
-		final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-		FileUtils.setValidation(unmarshaller, CONF_XSD);
-		config = (Configuration) unmarshaller.unmarshal(new InputStreamReader(
-				new FileInputStream(confFile), HabitTvConf.ENCODING));
+		config = (Configuration) JAXBUtils.unmarshal(new InputStreamReader(
+				new FileInputStream(confFile), HabitTvConf.ENCODING),
+				Configuration.class.getPackage().getName(), null, CONF_XSD);
 		return config;
 	}
 
@@ -267,12 +260,12 @@ public class XMLUserConfig implements UserConfig {
 
 	private static void saveConfig(final File file, final Configuration config)
 			throws JAXBException, PropertyException {
-		final JAXBContext jaxbContext = JAXBContext
-				.newInstance(Configuration.class.getPackage().getName());
-		final Marshaller marshaller = jaxbContext.createMarshaller();
-		marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-		FileUtils.setValidation(marshaller, CONF_XSD);
-		marshaller.marshal(config, file);
+		try (final FileOutputStream output = new FileOutputStream(file)) {
+			JAXBUtils.marshal(config, output, Configuration.class.getPackage()
+					.getName(), CONF_XSD, null);
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
 	}
 
 	private static Configuration buildDefaultConfig() {
@@ -456,6 +449,64 @@ public class XMLUserConfig implements UserConfig {
 				.getDownloadConfig().getMaxAttempts();
 	}
 
+	@Override
+	public Integer getMaxDownloadPoolSize() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().getMaxDownloadPoolSize();
+	}
+
+	@Override
+	public Integer getBandwidthLimit() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().getBandwidthLimit();
+	}
+
+	@Override
+	public String getDownloadWindows() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().getDownloadWindows();
+	}
+
+	@Override
+	public Integer getOutOfWindowBandwidthLimit() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().getOutOfWindowBandwidthLimit();
+	}
+
+	@Override
+	public Integer getDrainTimeout() {
+		if (config.getDownloadConfig() == null
+				|| config.getDownloadConfig().getDrainTimeout() == null) {
+			return DEFAULT_DRAIN_TIMEOUT;
+		} else {
+			return config.getDownloadConfig().getDrainTimeout();
+		}
+	}
+
+	@Override
+	public Integer getDownloadErrorTtl() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().getDownloadErrorTtl();
+	}
+
+	@Override
+	public Integer getIndexCommitDelay() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().getIndexCommitDelay();
+	}
+
+	@Override
+	public Boolean getIndexSync() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().isIndexSync();
+	}
+
+	@Override
+	public Integer getLargeIndexSize() {
+		return config.getDownloadConfig() == null ? null : config
+				.getDownloadConfig().getLargeIndexSize();
+	}
+
 	@Override
 	public Integer getDemonCheckTime() {
 		if (config.getDownloadConfig() == null
@@ -0,0 +1,94 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Set of names answering "surely absent" or "maybe present", about 10 bits
+ * per name for 1% of false positives.
+ */
+final class BloomFilter {
+
+	private static final int BITS_PER_NAME = 10;
+
+	private static final int HASH_COUNT = 7;
+
+	private static final int MIN_CAPACITY = 64;
+
+	private final long[] bits;
+
+	private final int capacity;
+
+	private int count = 0;
+
+	BloomFilter(final int expectedCount) {
+		this(Math.max(MIN_CAPACITY, expectedCount), 0, null);
+	}
+
+	private BloomFilter(final int capacity, final int count, final long[] bits) {
+		this.capacity = capacity;
+		this.count = count;
+		this.bits = bits == null ? new long[(capacity * BITS_PER_NAME + 63) / 64] : bits;
+	}
+
+	void add(final String name) {
+		final int hash1 = name.hashCode();
+		final int hash2 = secondHash(name);
+		final long bitCount = bits.length * 64L;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			final long bit = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % bitCount;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+		count++;
+	}
+
+	boolean mightContain(final String name) {
+		final int hash1 = name.hashCode();
+		final int hash2 = secondHash(name);
+		final long bitCount = bits.length * 64L;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			final long bit = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % bitCount;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if more names than planned have been added, the false
+	 *         positives become frequent
+	 */
+	boolean isFull() {
+		return count > capacity;
+	}
+
+	private static int secondHash(final String name) {
+		// FNV-1a, odd so that the probes don't cycle
+		int hash = 0x811C9DC5;
+		for (int i = 0; i < name.length(); i++) {
+			hash = (hash ^ name.charAt(i)) * 0x01000193;
+		}
+		return hash | 1;
+	}
+
+	void write(final DataOutputStream out) throws IOException {
+		out.writeInt(capacity);
+		out.writeInt(count);
+		out.writeInt(bits.length);
+		for (final long word : bits) {
+			out.writeLong(word);
+		}
+	}
+
+	static BloomFilter read(final DataInputStream in) throws IOException {
+		final int capacity = in.readInt();
+		final int count = in.readInt();
+		final long[] bits = new long[in.readInt()];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = in.readLong();
+		}
+		return new BloomFilter(capacity, count, bits);
+	}
+}
@@ -1,13 +1,15 @@
 package com.dabi.habitv.core.dao;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -17,63 +19,158 @@ import com.dabi.habitv.api.plugin.exception.TechnicalException;
 import com.dabi.habitv.core.config.HabitTvConf;
 import com.dabi.habitv.framework.FrameworkConf;
 
+/**
+ * Episodes which failed too many times, skipped by the searches until their
+ * error expires. The errors are kept in a journal of the application
+ * directory, the expired ones are dropped when the journal is rewritten.
+ */
 public class DlErrorDAO {
 
 	private static final Logger LOG = Logger.getLogger(DlErrorDAO.class);
 
-	public DlErrorDAO() {
-		super();
-	}
+	private static final String JOURNAL_FILE = "dlError.journal";
 
-	private String getErrorFile() {
-		return FrameworkConf.ERROR_FILE;
-	}
+	private static final String EXPORT_FILE = "dlError.txt";
 
-	public Set<String> findDownloadedErrorFiles() {
+	private static final long HOUR_MS = 60 * 60 * 1000L;
 
-		BufferedReader lecteurAvecBuffer = null;
-		String ligne;
+	private static final int DEFAULT_ERROR_TTL_HOURS = 7 * 24;
 
-		final Set<String> fileList = new HashSet<>();
-		try {
+	private static final int MAX_CAUSE_LENGTH = 500;
+
+	private final String appDir;
+
+	private final long errorTtl;
+
+	private final RecordJournal<String, DownloadError> journal;
+
+	/**
+	 * @param errorTtlHours
+	 *            time before a failed episode is searched again, 0 to never
+	 *            retry it, null for the default
+	 */
+	public DlErrorDAO(final String appDir, final Integer errorTtlHours) {
+		super();
+		this.appDir = appDir;
+		errorTtl = (errorTtlHours == null ? DEFAULT_ERROR_TTL_HOURS : errorTtlHours) * HOUR_MS;
+		journal = new RecordJournal<>(new File(appDir, JOURNAL_FILE), new RecordJournal.Expiry<DownloadError>() {
 
-			lecteurAvecBuffer = new BufferedReader(new InputStreamReader(
-					new FileInputStream(getErrorFile()), HabitTvConf.ENCODING));
-			while ((ligne = lecteurAvecBuffer.readLine()) != null) {
-				fileList.add(ligne);
+			@Override
+			public boolean isExpired(final DownloadError error, final long now) {
+				return DlErrorDAO.this.isExpired(error, now);
+			}
+		});
+		migrate(journal);
+	}
+
+	/**
+	 * Import the former list of names, their errors start now.
+	 */
+	private static void migrate(final RecordJournal<String, DownloadError> journal) {
+		final File legacyFile = new File(FrameworkConf.ERROR_FILE);
+		if (!legacyFile.exists()) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(legacyFile),
+				HabitTvConf.ENCODING))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (journal.get(line) == null) {
+					journal.put(line, new DownloadError(line, null, now, now, 1, false));
+				}
 			}
-		} catch (final FileNotFoundException exc) {
-			// will return null
-			LOG.debug("", exc);
 		} catch (final IOException e) {
 			throw new TechnicalException(e);
-		} finally {
-			if (lecteurAvecBuffer != null) {
-				try {
-					lecteurAvecBuffer.close();
-				} catch (final IOException e) {
-					throw new TechnicalException(e);
-				}
+		}
+		if (!legacyFile.delete()) {
+			LOG.warn("can't delete " + legacyFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * @return the names of the episodes still in error
+	 */
+	public Set<String> findDownloadedErrorFiles() {
+		final long now = System.currentTimeMillis();
+		final Set<String> fileList = new HashSet<>();
+		for (final DownloadError error : journal.getAll().values()) {
+			if (!isExpired(error, now)) {
+				fileList.add(error.getName());
 			}
 		}
 		return fileList;
 	}
 
-	public synchronized void addDownloadErrorFiles(final String... files) {
-		PrintWriter writer;
-		try {
-			writer = new PrintWriter(new OutputStreamWriter(
-					new FileOutputStream(getErrorFile(), true),
-					HabitTvConf.ENCODING));
-			Set<String> downloadedErrorFiles = findDownloadedErrorFiles();
-			for (final String file : files) {
-				if (!downloadedErrorFiles.contains(file)) {
-					writer.println(file);
-				}
+	public boolean isDownloadError(final String name) {
+		return isDownloadError(name, System.currentTimeMillis());
+	}
+
+	boolean isDownloadError(final String name, final long now) {
+		final DownloadError error = journal.get(name);
+		return error != null && !isExpired(error, now);
+	}
+
+	private boolean isExpired(final DownloadError error, final long now) {
+		return !error.isPermanent() && errorTtl > 0 && now - error.getLastTime() >= errorTtl;
+	}
+
+	public void addDownloadErrorFiles(final String... files) {
+		for (final String file : files) {
+			addDownloadError(file, null, false);
+		}
+	}
+
+	/**
+	 * @param permanent
+	 *            true if retrying won't help
+	 */
+	public void addDownloadError(final String name, final Throwable cause, final boolean permanent) {
+		final long now = System.currentTimeMillis();
+		String causeMessage = cause == null ? null : cause.toString();
+		if (causeMessage != null && causeMessage.length() > MAX_CAUSE_LENGTH) {
+			causeMessage = causeMessage.substring(0, MAX_CAUSE_LENGTH);
+		}
+		synchronized (journal) {
+			final DownloadError previous = journal.get(name);
+			if (previous == null) {
+				journal.put(name, new DownloadError(name, causeMessage, now, now, 1, permanent));
+			} else {
+				journal.put(name, new DownloadError(name, causeMessage, previous.getFirstTime(), now, previous.getAttempts() + 1,
+						permanent || previous.isPermanent()));
+			}
+		}
+	}
+
+	/**
+	 * Forget all the errors, the permanent ones included, the episodes are
+	 * searched again.
+	 */
+	public void clearErrors() {
+		journal.clear();
+		LOG.info("suppression des téléchargements en erreur");
+	}
+
+	/**
+	 * Write the errors in a text file to be read by the user, the changes
+	 * made to this file are ignored, the errors are forgotten with
+	 * {@link #clearErrors()}.
+	 *
+	 * @return path of the file
+	 */
+	public String exportErrors() {
+		final File file = new File(appDir, EXPORT_FILE);
+		final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		final long now = System.currentTimeMillis();
+		try (final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), HabitTvConf.ENCODING))) {
+			for (final DownloadError error : journal.getAll().values()) {
+				writer.println(error.getName() + "\t" + dateFormat.format(new Date(error.getLastTime())) + "\t"
+						+ error.getAttempts() + "\t" + (isExpired(error, now) ? "expired" : (error.isPermanent() ? "permanent" : ""))
+						+ "\t" + (error.getCause() == null ? "" : error.getCause()));
 			}
-			writer.close();
 		} catch (final IOException e) {
 			throw new TechnicalException(e);
 		}
+		return file.getAbsolutePath();
 	}
 }
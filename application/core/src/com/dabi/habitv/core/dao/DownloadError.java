@@ -0,0 +1,62 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.Serializable;
+
+public class DownloadError implements Serializable {
+
+	private static final long serialVersionUID = 3570983214626713458L;
+
+	private final String name;
+
+	private final String cause;
+
+	private final long firstTime;
+
+	private final long lastTime;
+
+	private final int attempts;
+
+	private final boolean permanent;
+
+	public DownloadError(final String name, final String cause, final long firstTime, final long lastTime, final int attempts,
+			final boolean permanent) {
+		super();
+		this.name = name;
+		this.cause = cause;
+		this.firstTime = firstTime;
+		this.lastTime = lastTime;
+		this.attempts = attempts;
+		this.permanent = permanent;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getCause() {
+		return cause;
+	}
+
+	public long getFirstTime() {
+		return firstTime;
+	}
+
+	public long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * @return number of times the episode has been set in error
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * @return true if the media doesn't exist, the error never expires
+	 */
+	public boolean isPermanent() {
+		return permanent;
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.Serializable;
+
+/**
+ * A download or an export of an episode, successful or not.
+ */
+public class DownloadHistory implements Serializable {
+
+	public static final String DOWNLOAD_STEP = "download";
+
+	private static final long serialVersionUID = -6415262788095612411L;
+
+	private final String episodeId;
+
+	private final String episodeName;
+
+	private final String provider;
+
+	private final String category;
+
+	private final String step;
+
+	private final String plugin;
+
+	private final long startTime;
+
+	private final long duration;
+
+	private final long bytes;
+
+	private final String error;
+
+	/**
+	 * @param step
+	 *            {@link #DOWNLOAD_STEP} or the name of the export
+	 * @param plugin
+	 *            downloader or exporter used
+	 * @param error
+	 *            cause of the failure, null if the step succeeded
+	 */
+	public DownloadHistory(final String episodeId, final String episodeName, final String provider, final String category,
+			final String step, final String plugin, final long startTime, final long duration, final long bytes,
+			final String error) {
+		super();
+		this.episodeId = episodeId;
+		this.episodeName = episodeName;
+		this.provider = provider;
+		this.category = category;
+		this.step = step;
+		this.plugin = plugin;
+		this.startTime = startTime;
+		this.duration = duration;
+		this.bytes = bytes;
+		this.error = error;
+	}
+
+	public String getEpisodeId() {
+		return episodeId;
+	}
+
+	public String getEpisodeName() {
+		return episodeName;
+	}
+
+	public String getProvider() {
+		return provider;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	public String getStep() {
+		return step;
+	}
+
+	public String getPlugin() {
+		return plugin;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return wall time in ms
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return average throughput in bytes per second, 0 if unknown
+	 */
+	public long getThroughput() {
+		return duration > 0 ? bytes * 1000 / duration : 0;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	public boolean isDownload() {
+		return DOWNLOAD_STEP.equals(step);
+	}
+
+}
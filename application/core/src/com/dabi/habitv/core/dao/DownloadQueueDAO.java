@@ -0,0 +1,56 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.File;
+import java.util.Collection;
+
+import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
+
+/**
+ * Downloads waiting or running, replayed at startup without searching the
+ * providers again.
+ */
+public class DownloadQueueDAO {
+
+	private final RecordJournal<String, QueuedDownload> journal;
+
+	public DownloadQueueDAO(final String appDir) {
+		journal = new RecordJournal<>(new File(appDir, "download.queue"));
+	}
+
+	public synchronized void addDownload(final EpisodeDTO episode, final int attempts, final boolean manual) {
+		final String key = buildKey(episode);
+		final QueuedDownload previous = journal.get(key);
+		final long enqueueTime = previous == null ? System.currentTimeMillis() : previous.getEnqueueTime();
+		journal.put(key, new QueuedDownload(episode, attempts, enqueueTime, manual, 0));
+	}
+
+	/**
+	 * Keep the attempts and the retry time of a download still in the queue.
+	 * 
+	 * @return false if the download is not in the queue anymore
+	 */
+	public synchronized boolean delayDownload(final EpisodeDTO episode, final int attempts, final long nextAttemptTime) {
+		final String key = buildKey(episode);
+		final QueuedDownload previous = journal.get(key);
+		if (previous != null) {
+			journal.put(key, new QueuedDownload(episode, attempts, previous.getEnqueueTime(), previous.isManual(), nextAttemptTime));
+		}
+		return previous != null;
+	}
+
+	public QueuedDownload getDownload(final EpisodeDTO episode) {
+		return journal.get(buildKey(episode));
+	}
+
+	public void removeDownload(final EpisodeDTO episode) {
+		journal.remove(buildKey(episode));
+	}
+
+	public Collection<QueuedDownload> loadDownloads() {
+		return journal.getAll().values();
+	}
+
+	private static String buildKey(final EpisodeDTO episode) {
+		return episode.getCategory().getPlugin() + "/" + episode.getCategory().getId() + "/" + episode.getId();
+	}
+}
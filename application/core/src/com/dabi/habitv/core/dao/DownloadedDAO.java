@@ -1,17 +1,19 @@
 package com.dabi.habitv.core.dao;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -22,121 +24,188 @@ import com.dabi.habitv.api.plugin.exception.TechnicalException;
 import com.dabi.habitv.core.config.HabitTvConf;
 import com.dabi.habitv.utils.FileUtils;
 
+/**
+ * Downloaded episodes of a category, the categories of a plugin share a store
+ * in a sub directory of the index directory, opened at the first use.
+ */
 public class DownloadedDAO {
 
 	private static final Logger LOG = Logger.getLogger(DownloadedDAO.class);
 
-	private final String indexDir;
+	private static final String EXPORT_DIR = "export";
 
-	private boolean indexExist;
+	private static final String EXPORT_EXT = ".txt";
 
-	private boolean manualIndexExist;
+	private final DownloadedStores stores;
 
-	private CategoryDTO category;
+	private final String plugin;
 
-	public DownloadedDAO(final CategoryDTO category, final String indexDir) {
+	private final String categoryKey;
+
+	private volatile DownloadedStore store = null;
+
+	public DownloadedDAO(final CategoryDTO category, final DownloadedStores stores) {
 		super();
-		this.indexDir = indexDir;
-		this.category = category;
-		final File indexDirectory = new File(indexDir);
-		if (indexDirectory.exists()) {
-			indexExist = new File(getFileIndex()).exists();
-			manualIndexExist = new File(getManualFileIndex()).exists();
-		} else {
-			indexExist = false;
-			manualIndexExist = false;
-			if (!indexDirectory.mkdir()) {
-				throw new TechnicalException("Folder can't be created"
-						+ indexDirectory.getAbsolutePath());
-			}
-		}
+		this.stores = stores;
+		this.plugin = category.getPlugin();
+		this.categoryKey = getCategoryKey(category);
 	}
 
-	private String getFileIndex() {
-		return getFileIndex(indexDir, category);//FIXME store this ! to many call
+	private static String getCategoryKey(final CategoryDTO category) {
+		return FileUtils.sanitizeFilename(category.getPlugin() + "_" + category.getName());
 	}
 
-	public static String getFileIndex(String indexDir, CategoryDTO category) {
-		return (indexDir + "/" + FileUtils.sanitizeFilename(category
-				.getPlugin() + "_" + category.getName() + ".index"));
+	private DownloadedStore getStore() {
+		if (store == null) {
+			store = stores.getStore(plugin);
+		}
+		return store;
 	}
 
-	private String getManualFileIndex() {
-		return (indexDir + "/" + FileUtils.sanitizeFilename(category
-				.getPlugin() + "_" + category.getName() + "_manual.index"));
+	/**
+	 * Move the categories of the store of the index directory, and the index
+	 * files it imports, to the stores of their plugins.
+	 *
+	 * @param plugins
+	 *            names of the providers, a category is given to the plugin
+	 *            whose name starts its key
+	 */
+	public static void migrateToShards(final DownloadedStores stores, final Collection<String> plugins) {
+		final File indexDirectory = new File(stores.getIndexDir());
+		if (!DownloadedStore.exists(indexDirectory)) {
+			return;
+		}
+		final DownloadedStore flatStore = new DownloadedStore(indexDirectory, stores.getConfig());
+		final Set<DownloadedStore> shardStores = new HashSet<>();
+		for (final String categoryKey : flatStore.getCategoryKeys()) {
+			String categoryPlugin = null;
+			for (final String plugin : plugins) {
+				if (categoryKey.startsWith(FileUtils.sanitizeFilename(plugin + "_"))
+						&& (categoryPlugin == null || plugin.length() > categoryPlugin.length())) {
+					categoryPlugin = plugin;
+				}
+			}
+			if (categoryPlugin == null) {
+				// plugin removed, best guess
+				categoryPlugin = categoryKey.contains("_") ? categoryKey.substring(0, categoryKey.indexOf('_')) : categoryKey;
+			}
+			final DownloadedStore shardStore = stores.getStore(categoryPlugin);
+			flatStore.copyCategory(categoryKey, shardStore);
+			shardStores.add(shardStore);
+		}
+		for (final DownloadedStore shardStore : shardStores) {
+			shardStore.commit();
+		}
+		flatStore.delete();
+		LOG.info("Index " + indexDirectory.getAbsolutePath() + " moved to " + shardStores.size() + " plugin directories");
 	}
 
-	public Set<String> findDownloadedFiles() {
-		Set<String> dlFiles = readFile(getFileIndex());
-		dlFiles.addAll(readFile(getManualFileIndex()));
-		return dlFiles;
+	/**
+	 * Check and compact the stores of all the plugins, the names of the
+	 * deleted categories are dropped. The stores not in use are only opened
+	 * for the compaction.
+	 *
+	 * @param plugin2Categories
+	 *            all the categories of the plugins, the deleted ones included
+	 * @return bytes reclaimed
+	 */
+	public static long compactIndexes(final DownloadedStores stores, final Map<String, CategoryDTO> plugin2Categories) {
+		final Map<String, Set<String>> shardDir2DeletedKeys = new HashMap<>();
+		for (final Entry<String, CategoryDTO> entry : plugin2Categories.entrySet()) {
+			final Set<String> deletedKeys = new HashSet<>();
+			findDeletedKeys(entry.getValue().getSubCategories(), deletedKeys);
+			shardDir2DeletedKeys.put(stores.getShardDir(entry.getKey()).getAbsolutePath(), deletedKeys);
+		}
+		long reclaimed = 0;
+		for (final File shardDir : stores.findShardDirs()) {
+			final Set<String> deletedKeys = shardDir2DeletedKeys.get(shardDir.getAbsolutePath());
+			final long storeReclaimed = stores.getStoreOrOpen(shardDir).checkAndCompact(
+					deletedKeys == null ? Collections.<String> emptySet() : deletedKeys);
+			LOG.info("Index " + shardDir.getName() + " compacted, " + storeReclaimed + " bytes reclaimed");
+			reclaimed += storeReclaimed;
+		}
+		return reclaimed;
 	}
 
-	private Set<String> readFile(String file) {
-		BufferedReader lecteurAvecBuffer = null;
-		String ligne;
-
-		final Set<String> fileList = new LinkedHashSet<>();
-		try {
-
-			lecteurAvecBuffer = new BufferedReader(new InputStreamReader(
-					new FileInputStream(file), HabitTvConf.ENCODING));
-			while ((ligne = lecteurAvecBuffer.readLine()) != null) {
-				fileList.add(ligne);
-			}
-		} catch (final FileNotFoundException exc) {
-			// will return empty
-			LOG.debug("", exc);
-		} catch (final IOException e) {
-			throw new TechnicalException(e);
-		} finally {
-			if (lecteurAvecBuffer != null) {
-				try {
-					lecteurAvecBuffer.close();
-				} catch (final IOException e) {
-					throw new TechnicalException(e);
-				}
+	private static void findDeletedKeys(final Collection<CategoryDTO> categories, final Set<String> deletedKeys) {
+		for (final CategoryDTO category : categories) {
+			if (category.isDeleted()) {
+				deletedKeys.add(getCategoryKey(category));
 			}
+			findDeletedKeys(category.getSubCategories(), deletedKeys);
 		}
-		return fileList;
 	}
 
-	public synchronized void addDownloadedFiles(boolean manual,
-			final EpisodeDTO... episodes) {
-		String file;
-		if (manual) {
-			if (isIndexCreated()) {
-				file = getFileIndex();
-			} else {
-				file = getManualFileIndex();
+	/**
+	 * Write the downloaded episodes of the category in a text file of the
+	 * export directory to be read by the user. The changes made to this file
+	 * are not read back, an episode is removed from the index with
+	 * {@link #removeDownloadedFiles(EpisodeDTO...)} and the whole index with
+	 * {@link #resetIndex()}.
+	 *
+	 * @return path of the file
+	 */
+	public static String exportIndex(final DownloadedStores stores, final CategoryDTO category) {
+		final DownloadedStore store = stores.getStore(category.getPlugin());
+		return exportCategory(getExportDir(stores.getIndexDir()), store, getCategoryKey(category)).getAbsolutePath();
+	}
+
+	/**
+	 * Write the downloaded episodes of all the categories in the text files of
+	 * the export directory, the files of the former exports are replaced.
+	 *
+	 * @return path of the export directory
+	 */
+	public static String exportIndexes(final DownloadedStores stores) {
+		final File exportDir = getExportDir(stores.getIndexDir());
+		final File[] formerExports = exportDir.listFiles();
+		if (formerExports != null) {
+			for (final File formerExport : formerExports) {
+				if (formerExport.getName().endsWith(EXPORT_EXT) && !formerExport.delete()) {
+					LOG.warn("can't delete " + formerExport.getAbsolutePath());
+				}
 			}
-		} else {
-			if (!isIndexCreated() && isManualIndexCreated()) {
-				addToFile(getFileIndex(), readFile(getManualFileIndex()));
-				initManualIndex();
+		}
+		for (final File shardDir : stores.findShardDirs()) {
+			final DownloadedStore store = stores.getStoreOrOpen(shardDir);
+			for (final String categoryKey : store.getCategoryKeys()) {
+				exportCategory(exportDir, store, categoryKey);
 			}
-			file = getFileIndex();
 		}
-		addToFile(file, episodes);
+		return exportDir.getAbsolutePath();
 	}
 
-	private void addToFile(String file, final EpisodeDTO... episodes) {
-		Collection<String> toAddList = convertEpisodesToNameList(episodes);
-		addToFile(file, toAddList);
+	private static File getExportDir(final String indexDir) {
+		final File exportDir = new File(indexDir, EXPORT_DIR);
+		if (!exportDir.exists() && !exportDir.mkdirs()) {
+			throw new TechnicalException("Folder can't be created" + exportDir.getAbsolutePath());
+		}
+		return exportDir;
 	}
 
-	private void addToFile(String file, Collection<String> toAddList) {
-		PrintWriter writer;
-		try {
-			writer = new PrintWriter(new OutputStreamWriter(
-					new FileOutputStream(file, true), HabitTvConf.ENCODING));
-			for (final String toAdd : toAddList) {
-				writer.println(toAdd);
+	private static File exportCategory(final File exportDir, final DownloadedStore store, final String categoryKey) {
+		final File file = new File(exportDir, categoryKey + EXPORT_EXT);
+		try (final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), HabitTvConf.ENCODING))) {
+			for (final String name : store.findDownloaded(categoryKey)) {
+				writer.println(name);
 			}
-			writer.close();
 		} catch (final IOException e) {
 			throw new TechnicalException(e);
 		}
+		return file;
+	}
+
+	/**
+	 * @return a view of the downloaded episodes, checking a name doesn't read
+	 *         all the names of the category
+	 */
+	public Set<String> findDownloadedFiles() {
+		return new DownloadedNames(getStore(), categoryKey);
+	}
+
+	public synchronized void addDownloadedFiles(boolean manual,
+			final EpisodeDTO... episodes) {
+		getStore().add(categoryKey, manual, convertEpisodesToNameList(episodes));
 	}
 
 	private Collection<String> convertEpisodesToNameList(
@@ -148,25 +217,70 @@ public class DownloadedDAO {
 		return toAddList;
 	}
 
+	/**
+	 * The episodes will be downloaded again if they are still available.
+	 */
+	public synchronized void removeDownloadedFiles(final EpisodeDTO... episodes) {
+		getStore().remove(categoryKey, convertEpisodesToNameList(episodes));
+		LOG.info("suppression de " + episodes.length + " épisode(s) de l'index " + categoryKey);
+	}
+
+	/**
+	 * The next search of the category creates the index again with the
+	 * available episodes, without downloading them.
+	 */
+	public synchronized void resetIndex() {
+		initIndex();
+		initManualIndex();
+	}
+
 	public boolean isIndexCreated() {
-		return indexExist;
+		return getStore().isIndexCreated(categoryKey);
 	}
 
 	public boolean isManualIndexCreated() {
-		return manualIndexExist;
+		return getStore().isManualIndexCreated(categoryKey);
 	}
 
 	void initIndex() {
-		final String fileIndex = getFileIndex();
-		(new File(fileIndex)).delete();
-		LOG.info("réinitialisation de l'index " + fileIndex);
-		indexExist = false;
+		getStore().initIndex(categoryKey);
+		LOG.info("réinitialisation de l'index " + categoryKey);
 	}
 
 	void initManualIndex() {
-		final String fileIndex = getManualFileIndex();
-		(new File(fileIndex)).delete();
-		LOG.info("réinitialisation de l'index " + fileIndex);
-		manualIndexExist = false;
+		getStore().initManualIndex(categoryKey);
+		LOG.info("réinitialisation de l'index manuel " + categoryKey);
+	}
+
+	private static final class DownloadedNames extends AbstractSet<String> {
+
+		private final DownloadedStore store;
+
+		private final String categoryKey;
+
+		private DownloadedNames(final DownloadedStore store, final String categoryKey) {
+			super();
+			this.store = store;
+			this.categoryKey = categoryKey;
+		}
+
+		@Override
+		public boolean contains(final Object name) {
+			return name instanceof String && store.contains(categoryKey, (String) name);
+		}
+
+		/**
+		 * Iterate a copy of the names taken at once, the store may change
+		 * meanwhile.
+		 */
+		@Override
+		public Iterator<String> iterator() {
+			return store.findDownloaded(categoryKey).iterator();
+		}
+
+		@Override
+		public int size() {
+			return store.count(categoryKey);
+		}
 	}
 }
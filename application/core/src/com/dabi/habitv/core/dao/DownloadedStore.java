@@ -0,0 +1,1120 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+import com.dabi.habitv.core.config.HabitTvConf;
+import com.dabi.habitv.core.dao.DownloadedStoreJournal.RecordHandler;
+
+/**
+ * Downloaded episodes of all the categories of a directory in a single append
+ * only file, each record being an operation on the index of a category. In
+ * memory a category only keeps the offsets of its records and a bloom filter
+ * of its names, which are read from the file for a possible hit and cached
+ * for the recently used categories ; the offsets and the filters are saved in
+ * a side file so that a start only reads the records appended since. The
+ * appends of all the threads are flushed together after a short delay, under
+ * a file lock taken against the other processes, whose own records are read
+ * first. When most of the records are obsolete the file is compacted, and the
+ * names of the large categories are then moved to a table of their hashes,
+ * sorted and memory mapped for a binary search. The text index files of the
+ * former versions are imported at the first start. The settings are given by
+ * the {@link DownloadedStores} opening the store.
+ */
+public final class DownloadedStore {
+
+	private static final Logger LOG = Logger.getLogger(DownloadedStore.class);
+
+	static final String STORE_FILE = "downloaded.store";
+
+	private static final String SIDE_FILE = "downloaded.bloom";
+
+	private static final String LOCK_FILE = "downloaded.lock";
+
+	private static final int SIDE_FILE_VERSION = 2;
+
+	// names added to a table category before it is compacted again
+	private static final int MAX_APPENDED_NAMES = 4096;
+
+	private static final String LEGACY_INDEX_EXT = ".index";
+
+	private static final String LEGACY_MANUAL_INDEX_EXT = "_manual.index";
+
+	private static final int MIN_COMPACTION_RECORDS = 1024;
+
+	private static final int MAX_CACHED_CATEGORIES = 512;
+
+	private static final int COMMIT_BUFFER_SIZE = 64 * 1024;
+
+	private static final byte ADD = 0;
+
+	private static final byte ADD_MANUAL = 1;
+
+	private static final byte CREATE_INDEX = 2;
+
+	private static final byte INIT_INDEX = 3;
+
+	private static final byte INIT_MANUAL_INDEX = 4;
+
+	// first record of a file, identify the file described by the side file
+	static final byte STORE_ID = 5;
+
+	// the stores of a directory opened by this process, tests open several
+	private static final Map<String, Semaphore> dir2Lock = new HashMap<>();
+
+	private static final Random RANDOM = new Random();
+
+	private static final ScheduledExecutorService COMMITTER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "DownloadedStoreCommitter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final DownloadedStoreConfig config;
+
+	private final File directory;
+
+	private final File file;
+
+	private final DownloadedStoreJournal journal;
+
+	private final File sideFile;
+
+	private final File lockFile;
+
+	private final Semaphore dirLock;
+
+	private FileChannel lockChannel = null;
+
+	private FileLock fileLock = null;
+
+	private Map<String, CategoryIndex> key2Index = new HashMap<>();
+
+	private final LinkedHashMap<String, CategoryNames> key2Names = new LinkedHashMap<String, CategoryNames>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 2437312806124851346L;
+
+		@Override
+		protected boolean removeEldestEntry(final Entry<String, CategoryNames> eldest) {
+			return size() > MAX_CACHED_CATEGORIES;
+		}
+	};
+
+	private volatile boolean commitScheduled = false;
+
+	private long storeId = 0;
+
+	private long length = 0;
+
+	private int recordCount = 0;
+
+	private int liveCount = 0;
+
+	private DownloadedStoreTable table = null;
+
+	private boolean compactionWanted = false;
+
+	DownloadedStore(final File indexDirectory, final DownloadedStoreConfig config) {
+		super();
+		if (!indexDirectory.exists() && !indexDirectory.mkdirs()) {
+			throw new TechnicalException("Folder can't be created" + indexDirectory.getAbsolutePath());
+		}
+		this.config = config;
+		directory = indexDirectory;
+		file = new File(indexDirectory, STORE_FILE);
+		journal = new DownloadedStoreJournal(file, config.isSyncOnCommit());
+		sideFile = new File(indexDirectory, SIDE_FILE);
+		lockFile = new File(indexDirectory, LOCK_FILE);
+		dirLock = getDirLock(indexDirectory);
+		if (lock(false)) {
+			try {
+				migrate(indexDirectory);
+				if (compactionWanted) {
+					compactLocked();
+				}
+				DownloadedStoreTable.deleteStale(directory, storeId);
+			} finally {
+				release();
+			}
+		} else {
+			// another process is writing, it repairs and compacts the store
+			load(false);
+		}
+	}
+
+	private static synchronized Semaphore getDirLock(final File indexDirectory) {
+		final String path = indexDirectory.getAbsolutePath();
+		Semaphore dirLock = dir2Lock.get(path);
+		if (dirLock == null) {
+			dirLock = new Semaphore(1);
+			dir2Lock.put(path, dirLock);
+		}
+		return dirLock;
+	}
+
+	File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return true if the directory holds a store or index files to import
+	 */
+	static boolean exists(final File indexDirectory) {
+		final String[] legacyFiles = indexDirectory.list(new FilenameFilter() {
+
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(LEGACY_INDEX_EXT);
+			}
+		});
+		return new File(indexDirectory, STORE_FILE).exists() || legacyFiles != null && legacyFiles.length > 0;
+	}
+
+	synchronized Set<String> getCategoryKeys() {
+		return new LinkedHashSet<>(key2Index.keySet());
+	}
+
+	/**
+	 * Add the names of a category to another store, the state of its indexes
+	 * is kept.
+	 */
+	synchronized void copyCategory(final String categoryKey, final DownloadedStore target) {
+		final CategoryNames categoryNames = key2Names.containsKey(categoryKey) ? key2Names.get(categoryKey)
+				: readNames(categoryKey);
+		if (categoryNames.created) {
+			target.add(categoryKey, false, categoryNames.names);
+		}
+		if (!categoryNames.manualNames.isEmpty()) {
+			target.add(categoryKey, true, categoryNames.manualNames);
+		}
+	}
+
+	/**
+	 * Delete the files of the store, it can't be used anymore.
+	 */
+	synchronized void delete() {
+		lock(true);
+		try {
+			journal.close();
+			for (final File storeFile : new File[] { file, sideFile, DownloadedStoreTable.getFile(directory, storeId) }) {
+				if (storeFile.exists() && !storeFile.delete()) {
+					LOG.warn("can't delete " + storeFile.getAbsolutePath());
+				}
+			}
+			clear();
+		} finally {
+			release();
+		}
+	}
+
+	public synchronized Set<String> findDownloaded(final String categoryKey) {
+		final Set<String> names = new LinkedHashSet<>();
+		if (key2Index.containsKey(categoryKey)) {
+			final CategoryNames categoryNames = getNames(categoryKey);
+			names.addAll(categoryNames.names);
+			names.addAll(categoryNames.manualNames);
+		}
+		return names;
+	}
+
+	/**
+	 * @return the number of names of the category, without copying them
+	 */
+	public synchronized int count(final String categoryKey) {
+		if (!key2Index.containsKey(categoryKey)) {
+			return 0;
+		}
+		final CategoryNames categoryNames = getNames(categoryKey);
+		return categoryNames.names.size() + categoryNames.manualNames.size();
+	}
+
+	/**
+	 * The names of the category are only read if the filter can't tell the
+	 * name is absent, a category with a table only reads the record of the
+	 * name.
+	 */
+	public synchronized boolean contains(final String categoryKey, final String name) {
+		final CategoryIndex index = key2Index.get(categoryKey);
+		if (index == null || !index.bloom.mightContain(name)) {
+			return false;
+		}
+		if (index.hasTable() && !key2Names.containsKey(categoryKey)) {
+			return getAppendedNames(index).contains(name) || tableContains(index, name);
+		}
+		final CategoryNames categoryNames = getNames(categoryKey);
+		return categoryNames.names.contains(name) || categoryNames.manualNames.contains(name);
+	}
+
+	public synchronized boolean isIndexCreated(final String categoryKey) {
+		final CategoryIndex index = key2Index.get(categoryKey);
+		return index != null && index.created;
+	}
+
+	public synchronized boolean isManualIndexCreated(final String categoryKey) {
+		final CategoryIndex index = key2Index.get(categoryKey);
+		return index != null && index.manualCount > 0;
+	}
+
+	/**
+	 * A manual download doesn't create the index of the category, the first
+	 * automatic one creates it with the manual downloads.
+	 */
+	public synchronized void add(final String categoryKey, final boolean manual, final Collection<String> names) {
+		lock(true);
+		if (!manual && !isIndexCreated(categoryKey)) {
+			write(CREATE_INDEX, categoryKey, "");
+		}
+		for (final String name : names) {
+			write(manual ? ADD_MANUAL : ADD, categoryKey, name);
+		}
+		groupCommit();
+	}
+
+	/**
+	 * Rewrite the indexes of the category without the given names, the state
+	 * of its indexes is kept.
+	 */
+	public synchronized void remove(final String categoryKey, final Collection<String> names) {
+		lock(true);
+		if (!key2Index.containsKey(categoryKey)) {
+			groupCommit();
+			return;
+		}
+		final CategoryNames categoryNames = getNames(categoryKey);
+		final boolean created = categoryNames.created;
+		final Set<String> remainingNames = new LinkedHashSet<>(categoryNames.names);
+		final Set<String> remainingManualNames = new LinkedHashSet<>(categoryNames.manualNames);
+		if (!remainingNames.removeAll(names) & !remainingManualNames.removeAll(names)) {
+			groupCommit();
+			return;
+		}
+		write(INIT_INDEX, categoryKey, "");
+		write(INIT_MANUAL_INDEX, categoryKey, "");
+		if (created) {
+			write(CREATE_INDEX, categoryKey, "");
+		}
+		for (final String name : remainingNames) {
+			write(ADD, categoryKey, name);
+		}
+		for (final String name : remainingManualNames) {
+			write(ADD_MANUAL, categoryKey, name);
+		}
+		groupCommit();
+	}
+
+	public synchronized void initIndex(final String categoryKey) {
+		write(INIT_INDEX, categoryKey, "");
+		groupCommit();
+	}
+
+	public synchronized void initManualIndex(final String categoryKey) {
+		write(INIT_MANUAL_INDEX, categoryKey, "");
+		groupCommit();
+	}
+
+	/**
+	 * Rewrite the file with the live records only.
+	 */
+	public synchronized void compact() {
+		lock(true);
+		try {
+			compactLocked();
+		} finally {
+			release();
+		}
+	}
+
+	private void compactLocked() {
+		journal.close();
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final Map<String, CategoryIndex> newKey2Index = new HashMap<>();
+		final long newStoreId = RANDOM.nextLong();
+		final File tmpTableFile = new File(DownloadedStoreTable.getFile(directory, newStoreId).getPath() + ".tmp");
+		boolean hasTable = false;
+		long newLength = 0;
+		try {
+			try (final DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+					final DataOutputStream tableOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+							tmpTableFile)))) {
+				newLength += DownloadedStoreJournal.write(tmpOut, STORE_ID, "", formatStoreId(newStoreId));
+				tableOut.writeLong(newStoreId);
+				long tableLength = DownloadedStoreTable.HEADER_SIZE;
+				for (final String categoryKey : key2Index.keySet()) {
+					final CategoryNames categoryNames = key2Names.containsKey(categoryKey) ? key2Names.get(categoryKey)
+							: readNames(categoryKey);
+					final int nameCount = categoryNames.names.size() + categoryNames.manualNames.size();
+					final CategoryIndex index = new CategoryIndex(nameCount);
+					final boolean large = config.getLargeCategorySize() > 0 && nameCount >= config.getLargeCategorySize();
+					final Offsets tableOffsets = large ? new Offsets() : index.offsets;
+					final long[] hashes = large ? new long[nameCount] : null;
+					if (categoryNames.created) {
+						index.offsets.add(newLength);
+						index.apply(CREATE_INDEX, "");
+						newLength += DownloadedStoreJournal.write(tmpOut, CREATE_INDEX, categoryKey, "");
+					}
+					for (final String name : categoryNames.names) {
+						if (large) {
+							hashes[tableOffsets.size] = DownloadedStoreTable.hash(name);
+						}
+						tableOffsets.add(newLength);
+						index.apply(ADD, name);
+						newLength += DownloadedStoreJournal.write(tmpOut, ADD, categoryKey, name);
+					}
+					for (final String name : categoryNames.manualNames) {
+						if (large) {
+							hashes[tableOffsets.size] = DownloadedStoreTable.hash(name);
+						}
+						tableOffsets.add(newLength);
+						index.apply(ADD_MANUAL, name);
+						newLength += DownloadedStoreJournal.write(tmpOut, ADD_MANUAL, categoryKey, name);
+					}
+					if (large) {
+						index.tableStart = tableLength;
+						index.tableCount = nameCount;
+						index.appendedNames = new HashSet<>();
+						tableLength += DownloadedStoreTable.writeEntries(tableOut, hashes, tableOffsets.values);
+						hasTable = true;
+					}
+					newKey2Index.put(categoryKey, index);
+				}
+			}
+			replace(tmpFile, file);
+			if (hasTable) {
+				replace(tmpTableFile, DownloadedStoreTable.getFile(directory, newStoreId));
+			} else {
+				Files.delete(tmpTableFile.toPath());
+			}
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+		key2Index = newKey2Index;
+		storeId = newStoreId;
+		length = newLength;
+		recordCount = 1;
+		liveCount = 0;
+		for (final CategoryIndex index : key2Index.values()) {
+			recordCount += index.offsets.size + index.tableCount;
+			liveCount += index.size();
+		}
+		table = hasTable ? DownloadedStoreTable.map(directory, storeId) : null;
+		compactionWanted = false;
+		if (hasTable && table == null) {
+			throw new TechnicalException("can't read " + DownloadedStoreTable.getFile(directory, storeId).getAbsolutePath());
+		}
+		saveSideFile();
+		DownloadedStoreTable.deleteStale(directory, storeId);
+	}
+
+	/**
+	 * Read all the records again, dropping a truncated tail, then rewrite the
+	 * store without the given categories and the duplicated names.
+	 *
+	 * @return bytes reclaimed
+	 */
+	public synchronized long checkAndCompact(final Collection<String> droppedCategoryKeys) {
+		lock(true);
+		try {
+			journal.close();
+			final long sizeBefore = getFilesSize();
+			// the side file isn't trusted
+			if (sideFile.exists() && !sideFile.delete()) {
+				throw new TechnicalException("can't delete " + sideFile.getAbsolutePath());
+			}
+			clear();
+			load(true);
+			for (final String categoryKey : droppedCategoryKeys) {
+				key2Index.remove(categoryKey);
+				key2Names.remove(categoryKey);
+			}
+			compactLocked();
+			return sizeBefore - getFilesSize();
+		} finally {
+			release();
+		}
+	}
+
+	private void clear() {
+		key2Index = new HashMap<>();
+		key2Names.clear();
+		table = null;
+		storeId = 0;
+		recordCount = 0;
+		liveCount = 0;
+		length = 0;
+	}
+
+	/**
+	 * Fixed width so that a compaction without obsolete records keeps the
+	 * size of the file.
+	 */
+	private static String formatStoreId(final long id) {
+		return String.format("%016x", id);
+	}
+
+	private long getFilesSize() {
+		return file.length() + sideFile.length() + DownloadedStoreTable.getFile(directory, storeId).length();
+	}
+
+	/**
+	 * Binary search of the hash of the name, the records with the same hash
+	 * are read to compare the names.
+	 */
+	private boolean tableContains(final CategoryIndex index, final String name) {
+		final long nameHash = DownloadedStoreTable.hash(name);
+		final int first = table.findFirst(index.tableStart, index.tableCount, nameHash);
+		if (first < 0) {
+			return false;
+		}
+		for (int i = first; i < index.tableCount && table.getHash(index.tableStart, i) == nameHash; i++) {
+			if (name.equals(journal.readName(table.getOffset(index.tableStart, i)))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The names added to a table category since its table, read from their
+	 * records the first time.
+	 */
+	private Set<String> getAppendedNames(final CategoryIndex index) {
+		if (index.appendedNames == null) {
+			final Set<String> appendedNames = new HashSet<>();
+			journal.read(index.offsets.values, index.offsets.size, new RecordHandler() {
+
+				@Override
+				public void apply(final byte op, final String categoryKey, final String name, final long offset) {
+					if (op == ADD || op == ADD_MANUAL) {
+						appendedNames.add(name);
+					}
+				}
+			});
+			index.appendedNames = appendedNames;
+		}
+		return index.appendedNames;
+	}
+
+	private static void replace(final File source, final File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Lock the store against the other processes until the next flush, the
+	 * records they appended are read first.
+	 *
+	 * @param wait
+	 *            false to give up if the store is locked
+	 * @return false if the store is locked by another process
+	 */
+	private boolean lock(final boolean wait) {
+		if (fileLock != null) {
+			return true;
+		}
+		if (wait) {
+			dirLock.acquireUninterruptibly();
+		} else if (!dirLock.tryAcquire()) {
+			return false;
+		}
+		try {
+			lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			fileLock = wait ? lockChannel.lock() : lockChannel.tryLock();
+		} catch (final IOException e) {
+			release();
+			throw new TechnicalException(e);
+		}
+		if (fileLock == null) {
+			release();
+			return false;
+		}
+		try {
+			sync(true);
+		} catch (final RuntimeException e) {
+			release();
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Flush the appends and let the other processes write.
+	 */
+	private void release() {
+		try {
+			journal.close();
+		} finally {
+			if (lockChannel != null) {
+				try {
+					// closing the channel releases the lock
+					lockChannel.close();
+				} catch (final IOException e) {
+					LOG.warn("Can't unlock " + lockFile.getAbsolutePath(), e);
+				}
+				lockChannel = null;
+				fileLock = null;
+				dirLock.release();
+			}
+		}
+	}
+
+	/**
+	 * Read the records appended by another process, or the whole store if it
+	 * has been rewritten.
+	 *
+	 * @param repair
+	 *            true if the store is locked
+	 */
+	private void sync(final boolean repair) {
+		if (!file.exists()) {
+			if (length > 0) {
+				clear();
+			}
+			return;
+		}
+		final long fileLength = file.length();
+		if (length > 0 && fileLength >= length && journal.readStoreId() == storeId) {
+			if (fileLength > length) {
+				scan(length, repair);
+			}
+		} else if (length > 0 || fileLength > 0) {
+			if (length > 0) {
+				LOG.info("Reloading " + file.getAbsolutePath() + " rewritten by another process");
+			}
+			clear();
+			load(repair);
+		}
+	}
+
+	private void write(final byte op, final String categoryKey, final String name) {
+		lock(true);
+		try {
+			if (length == 0) {
+				storeId = RANDOM.nextLong();
+				length += journal.append(STORE_ID, "", formatStoreId(storeId));
+				recordCount++;
+			}
+			final long offset = length;
+			length += journal.append(op, categoryKey, name);
+			apply(op, categoryKey, name, offset);
+		} catch (final IOException e) {
+			release();
+			throw new TechnicalException(e);
+		}
+	}
+
+	/**
+	 * Flush now if enough appends are buffered, otherwise let the committer
+	 * flush them with the appends of the other threads.
+	 */
+	private void groupCommit() {
+		if (config.getCommitDelay() <= 0 || journal.getPendingBytes() >= COMMIT_BUFFER_SIZE) {
+			flush();
+		} else if (!commitScheduled) {
+			commitScheduled = true;
+			COMMITTER.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						// already flushed if not scheduled anymore
+						if (commitScheduled) {
+							commit();
+						}
+					} catch (final TechnicalException e) {
+						LOG.error("Can't flush " + file.getAbsolutePath(), e);
+					}
+				}
+			}, config.getCommitDelay(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void commit() {
+		flush();
+	}
+
+	private void flush() {
+		commitScheduled = false;
+		try {
+			journal.flush();
+			// a compaction wanted while reading the records of another
+			// process waits for the next write of this one
+			if (fileLock != null
+					&& (compactionWanted || recordCount >= MIN_COMPACTION_RECORDS && recordCount >= 2 * liveCount)) {
+				compactLocked();
+			}
+		} finally {
+			release();
+		}
+	}
+
+	private void apply(final byte op, final String categoryKey, final String name, final long offset) {
+		recordCount++;
+		if (op == STORE_ID) {
+			storeId = Long.parseUnsignedLong(name, 16);
+			return;
+		}
+		CategoryIndex index = key2Index.get(categoryKey);
+		if (index == null) {
+			index = new CategoryIndex(0);
+			key2Index.put(categoryKey, index);
+		}
+		index.offsets.add(offset);
+		liveCount -= index.size();
+		index.apply(op, name);
+		liveCount += index.size();
+		if (index.hasTable()) {
+			if (op == INIT_INDEX || op == INIT_MANUAL_INDEX) {
+				// the table is only read with the records following it
+				index.tableShadowed = true;
+				index.appendedNames = null;
+				compactionWanted = true;
+			} else if (index.appendedNames != null && (op == ADD || op == ADD_MANUAL)) {
+				index.appendedNames.add(name);
+			}
+			compactionWanted |= index.offsets.size > MAX_APPENDED_NAMES;
+		} else if (config.getLargeCategorySize() > 0 && index.tableCount == 0
+				&& index.autoCount + index.manualCount >= config.getLargeCategorySize()) {
+			compactionWanted = true;
+		}
+		final CategoryNames categoryNames = key2Names.get(categoryKey);
+		if (categoryNames != null) {
+			categoryNames.apply(op, name);
+		}
+		if (index.bloom.isFull()) {
+			// a filter twice bigger
+			journal.flush();
+			getNames(categoryKey);
+		}
+	}
+
+	private CategoryNames getNames(final String categoryKey) {
+		CategoryNames categoryNames = key2Names.get(categoryKey);
+		if (categoryNames == null) {
+			categoryNames = readNames(categoryKey);
+			key2Names.put(categoryKey, categoryNames);
+		}
+		final CategoryIndex index = key2Index.get(categoryKey);
+		if (index != null && (index.bloomStale || index.bloom.isFull())) {
+			liveCount -= index.size();
+			index.rebuild(categoryNames);
+			liveCount += index.size();
+		}
+		return categoryNames;
+	}
+
+	/**
+	 * Replay the records of a category.
+	 */
+	private CategoryNames readNames(final String categoryKey) {
+		final CategoryNames categoryNames = new CategoryNames();
+		final CategoryIndex index = key2Index.get(categoryKey);
+		if (index == null || index.offsets.size + index.tableCount == 0) {
+			return categoryNames;
+		}
+		// the records of the table precede the others
+		final long[] offsets = new long[index.tableCount + index.offsets.size];
+		for (int i = 0; i < index.tableCount; i++) {
+			offsets[i] = table.getOffset(index.tableStart, i);
+		}
+		Arrays.sort(offsets, 0, index.tableCount);
+		System.arraycopy(index.offsets.values, 0, offsets, index.tableCount, index.offsets.size);
+		journal.read(offsets, offsets.length, new RecordHandler() {
+
+			@Override
+			public void apply(final byte op, final String recordKey, final String name, final long offset) {
+				categoryNames.apply(op, name);
+			}
+		});
+		return categoryNames;
+	}
+
+	/**
+	 * Read the side file then the records appended since.
+	 *
+	 * @param repair
+	 *            true to drop a record truncated by a crash, false if another
+	 *            process may be writing it
+	 */
+	private void load(final boolean repair) {
+		if (!file.exists()) {
+			return;
+		}
+		scan(loadSideFile(file.length()) ? length : 0, repair);
+	}
+
+	/**
+	 * Read the records from the given offset.
+	 */
+	private void scan(final long scanStart, final boolean repair) {
+		final long fileLength = file.length();
+		final long validLength = journal.scan(scanStart, new RecordHandler() {
+
+			@Override
+			public void apply(final byte op, final String categoryKey, final String name, final long offset) {
+				DownloadedStore.this.apply(op, categoryKey, name, offset);
+			}
+		});
+		length = validLength;
+		if (repair && validLength < fileLength) {
+			journal.truncate(validLength);
+		}
+		if (repair && validLength > scanStart) {
+			saveSideFile();
+		}
+	}
+
+	/**
+	 * @return true if the side file describes the beginning of the store
+	 */
+	private boolean loadSideFile(final long fileLength) {
+		if (!sideFile.exists()) {
+			return false;
+		}
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sideFile)))) {
+			if (in.readInt() != SIDE_FILE_VERSION) {
+				return false;
+			}
+			final long sideStoreId = in.readLong();
+			final long sideLength = in.readLong();
+			if (sideStoreId != journal.readStoreId() || sideLength > fileLength) {
+				return false;
+			}
+			final int sideRecordCount = in.readInt();
+			final int categoryCount = in.readInt();
+			final Map<String, CategoryIndex> sideKey2Index = new HashMap<>(categoryCount * 2);
+			int sideLiveCount = 0;
+			boolean hasTable = false;
+			for (int i = 0; i < categoryCount; i++) {
+				final String categoryKey = in.readUTF();
+				final CategoryIndex index = CategoryIndex.read(in);
+				sideKey2Index.put(categoryKey, index);
+				sideLiveCount += index.size();
+				hasTable |= index.tableCount > 0;
+			}
+			table = hasTable ? DownloadedStoreTable.map(directory, sideStoreId) : null;
+			if (hasTable && table == null) {
+				// without the table the records of its categories are unknown
+				return false;
+			}
+			key2Index = sideKey2Index;
+			storeId = sideStoreId;
+			length = sideLength;
+			recordCount = sideRecordCount;
+			liveCount = sideLiveCount;
+			return true;
+		} catch (final IOException e) {
+			LOG.warn("Ignoring the corrupted file " + sideFile.getAbsolutePath(), e);
+			return false;
+		}
+	}
+
+	private void saveSideFile() {
+		final File tmpFile = new File(sideFile.getPath() + ".tmp");
+		try {
+			try (final DataOutputStream sideOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				sideOut.writeInt(SIDE_FILE_VERSION);
+				sideOut.writeLong(storeId);
+				sideOut.writeLong(length);
+				sideOut.writeInt(recordCount);
+				sideOut.writeInt(key2Index.size());
+				for (final Entry<String, CategoryIndex> entry : key2Index.entrySet()) {
+					sideOut.writeUTF(entry.getKey());
+					entry.getValue().write(sideOut);
+				}
+			}
+			replace(tmpFile, sideFile);
+		} catch (final IOException e) {
+			LOG.warn("Can't save " + sideFile.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Read the changes of another process, the records appended while this
+	 * store is locked are its own.
+	 */
+	synchronized void reloadIfChanged() {
+		if (fileLock == null) {
+			sync(false);
+		}
+	}
+
+	/**
+	 * Import the text index files, one per category and per manual index of a
+	 * category. Importing twice is harmless.
+	 */
+	private void migrate(final File indexDirectory) {
+		final File[] legacyFiles = indexDirectory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(LEGACY_INDEX_EXT);
+			}
+		});
+		if (legacyFiles == null || legacyFiles.length == 0) {
+			return;
+		}
+		LOG.info("Importing " + legacyFiles.length + " index files in " + file.getAbsolutePath());
+		for (final File legacyFile : legacyFiles) {
+			final String fileName = legacyFile.getName();
+			if (!fileName.endsWith(LEGACY_MANUAL_INDEX_EXT)) {
+				final String categoryKey = fileName.substring(0, fileName.length() - LEGACY_INDEX_EXT.length());
+				write(CREATE_INDEX, categoryKey, "");
+				for (final String name : readLegacyFile(legacyFile)) {
+					write(ADD, categoryKey, name);
+				}
+			}
+		}
+		for (final File legacyFile : legacyFiles) {
+			final String fileName = legacyFile.getName();
+			if (fileName.endsWith(LEGACY_MANUAL_INDEX_EXT)) {
+				final String categoryKey = fileName.substring(0, fileName.length() - LEGACY_MANUAL_INDEX_EXT.length());
+				for (final String name : readLegacyFile(legacyFile)) {
+					write(ADD_MANUAL, categoryKey, name);
+				}
+			}
+		}
+		compactLocked();
+		for (final File legacyFile : legacyFiles) {
+			if (!legacyFile.delete()) {
+				LOG.warn("can't delete " + legacyFile.getAbsolutePath());
+			}
+		}
+	}
+
+	private static Set<String> readLegacyFile(final File legacyFile) {
+		final Set<String> names = new LinkedHashSet<>();
+		try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(legacyFile),
+				HabitTvConf.ENCODING))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				names.add(line);
+			}
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+		return names;
+	}
+
+	/**
+	 * Kept for every category, the counts include the duplicated records until
+	 * the names are read.
+	 */
+	private static final class CategoryIndex {
+
+		private boolean created = false;
+
+		private int autoCount = 0;
+
+		private int manualCount = 0;
+
+		private BloomFilter bloom;
+
+		// names removed, the filter is rebuilt with the names
+		private boolean bloomStale = false;
+
+		// records not in the table
+		private final Offsets offsets;
+
+		// position of the entries of the category in the table
+		private long tableStart = 0;
+
+		private int tableCount = 0;
+
+		// an init follows the table, the names are read with the records
+		private boolean tableShadowed = false;
+
+		private Set<String> appendedNames = null;
+
+		private CategoryIndex(final int expectedCount) {
+			this(new BloomFilter(expectedCount * 2), new Offsets());
+		}
+
+		private CategoryIndex(final BloomFilter bloom, final Offsets offsets) {
+			this.bloom = bloom;
+			this.offsets = offsets;
+		}
+
+		private void apply(final byte op, final String name) {
+			switch (op) {
+			case ADD:
+				autoCount++;
+				bloom.add(name);
+				break;
+			case ADD_MANUAL:
+				if (created) {
+					autoCount++;
+				} else {
+					manualCount++;
+				}
+				bloom.add(name);
+				break;
+			case CREATE_INDEX:
+				created = true;
+				autoCount += manualCount;
+				manualCount = 0;
+				break;
+			case INIT_INDEX:
+				created = false;
+				autoCount = 0;
+				bloomStale = true;
+				break;
+			case INIT_MANUAL_INDEX:
+				manualCount = 0;
+				bloomStale = true;
+				break;
+			default:
+				throw new TechnicalException("unknown operation " + op);
+			}
+		}
+
+		private void rebuild(final CategoryNames categoryNames) {
+			autoCount = categoryNames.names.size();
+			manualCount = categoryNames.manualNames.size();
+			bloom = new BloomFilter((autoCount + manualCount) * 2);
+			for (final String name : categoryNames.names) {
+				bloom.add(name);
+			}
+			for (final String name : categoryNames.manualNames) {
+				bloom.add(name);
+			}
+			bloomStale = false;
+		}
+
+		private int size() {
+			return (created ? 1 : 0) + autoCount + manualCount;
+		}
+
+		private boolean hasTable() {
+			return tableCount > 0 && !tableShadowed;
+		}
+
+		private void write(final DataOutputStream out) throws IOException {
+			out.writeBoolean(created);
+			out.writeInt(autoCount);
+			out.writeInt(manualCount);
+			out.writeBoolean(bloomStale);
+			bloom.write(out);
+			out.writeInt(offsets.size);
+			for (int i = 0; i < offsets.size; i++) {
+				out.writeLong(offsets.values[i]);
+			}
+			out.writeLong(tableStart);
+			out.writeInt(tableCount);
+			out.writeBoolean(tableShadowed);
+		}
+
+		private static CategoryIndex read(final DataInputStream in) throws IOException {
+			final boolean created = in.readBoolean();
+			final int autoCount = in.readInt();
+			final int manualCount = in.readInt();
+			final boolean bloomStale = in.readBoolean();
+			final BloomFilter bloom = BloomFilter.read(in);
+			final Offsets offsets = new Offsets();
+			final int offsetCount = in.readInt();
+			for (int i = 0; i < offsetCount; i++) {
+				offsets.add(in.readLong());
+			}
+			final CategoryIndex index = new CategoryIndex(bloom, offsets);
+			index.created = created;
+			index.autoCount = autoCount;
+			index.manualCount = manualCount;
+			index.bloomStale = bloomStale;
+			index.tableStart = in.readLong();
+			index.tableCount = in.readInt();
+			index.tableShadowed = in.readBoolean();
+			return index;
+		}
+	}
+
+	private static final class Offsets {
+
+		private long[] values = new long[4];
+
+		private int size = 0;
+
+		private void add(final long offset) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = offset;
+		}
+	}
+
+	private static final class CategoryNames {
+
+		private boolean created = false;
+
+		private final Set<String> names = new LinkedHashSet<>();
+
+		private final Set<String> manualNames = new LinkedHashSet<>();
+
+		private void apply(final byte op, final String name) {
+			switch (op) {
+			case ADD:
+				names.add(name);
+				break;
+			case ADD_MANUAL:
+				if (created) {
+					names.add(name);
+				} else {
+					manualNames.add(name);
+				}
+				break;
+			case CREATE_INDEX:
+				created = true;
+				names.addAll(manualNames);
+				manualNames.clear();
+				break;
+			case INIT_INDEX:
+				created = false;
+				names.clear();
+				break;
+			case INIT_MANUAL_INDEX:
+				manualNames.clear();
+				break;
+			default:
+				throw new TechnicalException("unknown operation " + op);
+			}
+		}
+	}
+}
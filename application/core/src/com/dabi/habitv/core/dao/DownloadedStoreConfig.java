@@ -0,0 +1,49 @@
+package com.dabi.habitv.core.dao;
+
+/**
+ * Settings of the downloaded stores, given to each store when it is opened.
+ */
+public final class DownloadedStoreConfig {
+
+	private static final int DEFAULT_COMMIT_DELAY = 200;
+
+	private static final int DEFAULT_LARGE_CATEGORY_SIZE = 10000;
+
+	public static final DownloadedStoreConfig DEFAULT = new DownloadedStoreConfig(null, null, null);
+
+	private final int commitDelay;
+
+	private final boolean syncOnCommit;
+
+	private final int largeCategorySize;
+
+	/**
+	 * @param commitDelayMs
+	 *            time the appends wait to be flushed with the following
+	 *            ones, 0 to flush each append, null for the default
+	 * @param sync
+	 *            true to force each flush to the disk
+	 * @param largeCategorySize
+	 *            number of names from which the names of a category are
+	 *            written in a table, 0 to keep them all in the store, null for
+	 *            the default
+	 */
+	public DownloadedStoreConfig(final Integer commitDelayMs, final Boolean sync, final Integer largeCategorySize) {
+		super();
+		this.commitDelay = commitDelayMs == null ? DEFAULT_COMMIT_DELAY : commitDelayMs;
+		this.syncOnCommit = sync != null && sync;
+		this.largeCategorySize = largeCategorySize == null ? DEFAULT_LARGE_CATEGORY_SIZE : largeCategorySize;
+	}
+
+	public int getCommitDelay() {
+		return commitDelay;
+	}
+
+	public boolean isSyncOnCommit() {
+		return syncOnCommit;
+	}
+
+	public int getLargeCategorySize() {
+		return largeCategorySize;
+	}
+}
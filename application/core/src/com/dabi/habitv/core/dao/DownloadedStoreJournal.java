@@ -0,0 +1,210 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+
+/**
+ * Append only file of a downloaded store, each record is an operation on the
+ * index of a category preceded by its length. The appends are buffered until
+ * the store flushes them.
+ */
+final class DownloadedStoreJournal {
+
+	private static final Logger LOG = Logger.getLogger(DownloadedStoreJournal.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	interface RecordHandler {
+
+		void apply(byte op, String categoryKey, String name, long offset);
+	}
+
+	private final File file;
+
+	private final boolean syncOnFlush;
+
+	private FileOutputStream fileOut = null;
+
+	private DataOutputStream out = null;
+
+	private int pendingBytes = 0;
+
+	DownloadedStoreJournal(final File file, final boolean syncOnFlush) {
+		super();
+		this.file = file;
+		this.syncOnFlush = syncOnFlush;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	int getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * @return size of the record in the file
+	 */
+	int append(final byte op, final String categoryKey, final String name) throws IOException {
+		if (out == null) {
+			fileOut = new FileOutputStream(file, true);
+			out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+		}
+		final int size = write(out, op, categoryKey, name);
+		pendingBytes += size;
+		return size;
+	}
+
+	void flush() {
+		if (out == null || pendingBytes == 0) {
+			return;
+		}
+		try {
+			out.flush();
+			if (syncOnFlush) {
+				fileOut.getFD().sync();
+			}
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+		pendingBytes = 0;
+	}
+
+	void close() {
+		if (out != null) {
+			try {
+				flush();
+				out.close();
+			} catch (final IOException e) {
+				throw new TechnicalException(e);
+			} finally {
+				out = null;
+				fileOut = null;
+				pendingBytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return size of the record in the file
+	 */
+	static int write(final DataOutputStream dataOut, final byte op, final String categoryKey, final String name)
+			throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream record = new DataOutputStream(bytes);
+		record.writeByte(op);
+		record.writeUTF(categoryKey);
+		record.writeUTF(name);
+		dataOut.writeInt(bytes.size());
+		bytes.writeTo(dataOut);
+		return 4 + bytes.size();
+	}
+
+	/**
+	 * Read the records from the given offset, a truncated or corrupted tail
+	 * is ignored.
+	 *
+	 * @return offset following the last valid record
+	 */
+	long scan(final long scanStart, final RecordHandler handler) {
+		final long fileLength = file.length();
+		long validLength = scanStart;
+		try (final FileInputStream fileIn = new FileInputStream(file)) {
+			fileIn.getChannel().position(scanStart);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
+			while (true) {
+				final int recordLength = in.readInt();
+				if (recordLength < 0 || recordLength > fileLength - validLength - 4) {
+					// record truncated by a crash
+					throw new EOFException();
+				}
+				final byte[] bytes = new byte[recordLength];
+				in.readFully(bytes);
+				final DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+				handler.apply(record.readByte(), record.readUTF(), record.readUTF(), validLength);
+				validLength += 4 + recordLength;
+			}
+		} catch (final EOFException e) {
+			// end of the store
+		} catch (final IOException | IllegalArgumentException | TechnicalException e) {
+			LOG.warn("Corrupted store " + file.getAbsolutePath() + ", dropping its tail", e);
+		}
+		return validLength;
+	}
+
+	void truncate(final long length) {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	/**
+	 * Read the records at the given offsets, the buffered appends are flushed
+	 * first.
+	 */
+	void read(final long[] offsets, final int count, final RecordHandler handler) {
+		flush();
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			for (int i = 0; i < count; i++) {
+				raf.seek(offsets[i]);
+				final byte[] bytes = new byte[raf.readInt()];
+				raf.readFully(bytes);
+				final DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+				handler.apply(record.readByte(), record.readUTF(), record.readUTF(), offsets[i]);
+			}
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	String readName(final long offset) {
+		final String[] name = new String[1];
+		read(new long[] { offset }, 1, new RecordHandler() {
+
+			@Override
+			public void apply(final byte op, final String categoryKey, final String recordName, final long recordOffset) {
+				name[0] = recordName;
+			}
+		});
+		return name[0];
+	}
+
+	/**
+	 * @return the id written in the first record, 0 if there is none
+	 */
+	long readStoreId() {
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			final int recordLength = in.readInt();
+			if (recordLength < 0 || recordLength > file.length()) {
+				return 0;
+			}
+			final byte[] bytes = new byte[recordLength];
+			in.readFully(bytes);
+			final DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+			if (record.readByte() != DownloadedStore.STORE_ID) {
+				return 0;
+			}
+			record.readUTF();
+			return Long.parseUnsignedLong(record.readUTF(), 16);
+		} catch (final IOException | IllegalArgumentException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hashes of the names of the large categories of a store with the offsets of
+ * their records, written at the compaction. The entries of a category are
+ * sorted by hash and the file is memory mapped for a binary search, by
+ * chunks so that it can be read past 2 GB.
+ */
+final class DownloadedStoreTable {
+
+	private static final Logger LOG = Logger.getLogger(DownloadedStoreTable.class);
+
+	private static final String FILE_PREFIX = "downloaded.";
+
+	private static final String FILE_EXT = ".names";
+
+	// id of the store
+	static final int HEADER_SIZE = 8;
+
+	// hash of the name and offset of its record
+	private static final int ENTRY_SIZE = 16;
+
+	// a long never spans two chunks
+	private static final int CHUNK_BITS = 30;
+
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+	private final MappedByteBuffer[] chunks;
+
+	private DownloadedStoreTable(final MappedByteBuffer[] chunks) {
+		super();
+		this.chunks = chunks;
+	}
+
+	static File getFile(final File directory, final long storeId) {
+		return new File(directory, FILE_PREFIX + Long.toHexString(storeId) + FILE_EXT);
+	}
+
+	/**
+	 * @return null if the table of the store can't be read
+	 */
+	static DownloadedStoreTable map(final File directory, final long storeId) {
+		final File tableFile = getFile(directory, storeId);
+		if (!tableFile.exists()) {
+			return null;
+		}
+		try (final RandomAccessFile raf = new RandomAccessFile(tableFile, "r")) {
+			final long tableLength = raf.length();
+			final MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((tableLength + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++) {
+				final long chunkStart = (long) i << CHUNK_BITS;
+				chunks[i] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, chunkStart,
+						Math.min(CHUNK_SIZE, tableLength - chunkStart));
+			}
+			final DownloadedStoreTable table = new DownloadedStoreTable(chunks);
+			return tableLength >= HEADER_SIZE && table.getLong(0) == storeId ? table : null;
+		} catch (final IOException e) {
+			LOG.warn("Can't read " + tableFile.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * The tables of the former stores, a table still mapped by another
+	 * process can't be deleted on some systems, it is deleted later.
+	 */
+	static void deleteStale(final File directory, final long storeId) {
+		final String currentName = getFile(directory, storeId).getName();
+		final File[] tableFiles = directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_EXT) && !name.equals(currentName);
+			}
+		});
+		if (tableFiles != null) {
+			for (final File tableFile : tableFiles) {
+				if (!tableFile.delete()) {
+					LOG.debug("can't delete " + tableFile.getAbsolutePath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the entries of a category sorted by hash.
+	 *
+	 * @return size of the entries
+	 */
+	static long writeEntries(final DataOutputStream tableOut, final long[] hashes, final long[] offsets) throws IOException {
+		final Integer[] order = new Integer[hashes.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer i1, final Integer i2) {
+				return Long.compare(hashes[i1], hashes[i2]);
+			}
+		});
+		for (final Integer i : order) {
+			tableOut.writeLong(hashes[i]);
+			tableOut.writeLong(offsets[i]);
+		}
+		return (long) hashes.length * ENTRY_SIZE;
+	}
+
+	/**
+	 * Binary search of a hash in the entries of a category.
+	 *
+	 * @return index of the first entry with this hash, -1 if there is none
+	 */
+	int findFirst(final long tableStart, final int count, final long hash) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final long middleHash = getHash(tableStart, middle);
+			if (middleHash < hash) {
+				low = middle + 1;
+			} else if (middleHash > hash) {
+				high = middle - 1;
+			} else {
+				int first = middle;
+				while (first > 0 && getHash(tableStart, first - 1) == hash) {
+					first--;
+				}
+				return first;
+			}
+		}
+		return -1;
+	}
+
+	long getHash(final long tableStart, final int i) {
+		return getLong(tableStart + (long) i * ENTRY_SIZE);
+	}
+
+	long getOffset(final long tableStart, final int i) {
+		return getLong(tableStart + (long) i * ENTRY_SIZE + 8);
+	}
+
+	private long getLong(final long position) {
+		return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & (CHUNK_SIZE - 1)));
+	}
+
+	/**
+	 * 64 bits FNV-1a of the name.
+	 */
+	static long hash(final String name) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,99 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+
+/**
+ * Reload the stores changed by the other processes, the directories of the
+ * stores are watched by a single thread started with the first store.
+ */
+final class DownloadedStoreWatcher {
+
+	private static final Logger LOG = Logger.getLogger(DownloadedStoreWatcher.class);
+
+	private final Map<WatchKey, DownloadedStore> key2Store = new HashMap<>();
+
+	private WatchService watchService = null;
+
+	synchronized void watch(final DownloadedStore store) {
+		final Path directory = store.getDirectory().toPath();
+		try {
+			if (watchService == null) {
+				watchService = FileSystems.getDefault().newWatchService();
+				start(watchService);
+			}
+			key2Store.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY), store);
+		} catch (final IOException | UnsupportedOperationException e) {
+			LOG.warn("Can't watch " + directory + ", changes of other processes are ignored", e);
+		}
+	}
+
+	synchronized void close() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (final IOException e) {
+				throw new TechnicalException(e);
+			}
+			watchService = null;
+			key2Store.clear();
+		}
+	}
+
+	private synchronized DownloadedStore getStore(final WatchKey key) {
+		return key2Store.get(key);
+	}
+
+	private synchronized void remove(final WatchKey key) {
+		key2Store.remove(key);
+	}
+
+	private void start(final WatchService service) {
+		final Thread watcher = new Thread("DownloadedStoreWatcher") {
+
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final WatchKey key = service.take();
+						boolean changed = false;
+						for (final WatchEvent<?> event : key.pollEvents()) {
+							changed |= event.context() instanceof Path
+									&& DownloadedStore.STORE_FILE.equals(((Path) event.context()).toString());
+						}
+						final DownloadedStore store = getStore(key);
+						if (changed && store != null) {
+							try {
+								store.reloadIfChanged();
+							} catch (final TechnicalException e) {
+								LOG.error("Can't reload the store of " + store.getDirectory().getAbsolutePath(), e);
+							}
+						}
+						if (!key.reset()) {
+							remove(key);
+						}
+					}
+				} catch (final InterruptedException | ClosedWatchServiceException e) {
+					// stopped
+				} catch (final RuntimeException e) {
+					LOG.error("Watch of the indexes stopped", e);
+				}
+			}
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+}
@@ -0,0 +1,116 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dabi.habitv.utils.FileUtils;
+
+/**
+ * Downloaded stores of an index directory, one by plugin in a sub directory,
+ * opened at the first use with the settings of the process and shared by its
+ * DAO.
+ */
+public final class DownloadedStores {
+
+	private final String indexDir;
+
+	private final DownloadedStoreConfig config;
+
+	private final Map<String, DownloadedStore> dir2Store = new HashMap<>();
+
+	private final DownloadedStoreWatcher watcher = new DownloadedStoreWatcher();
+
+	public DownloadedStores(final String indexDir, final DownloadedStoreConfig config) {
+		super();
+		this.indexDir = indexDir;
+		this.config = config;
+	}
+
+	public String getIndexDir() {
+		return indexDir;
+	}
+
+	DownloadedStoreConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * The plugins are spread in 256 directories so that none of them gets too
+	 * big.
+	 */
+	File getShardDir(final String plugin) {
+		final String shard = String.format("%02x", plugin.hashCode() & 0xFF);
+		return new File(new File(indexDir, shard), FileUtils.sanitizeFilename(plugin)).getAbsoluteFile();
+	}
+
+	synchronized DownloadedStore getStore(final String plugin) {
+		final File shardDir = getShardDir(plugin);
+		DownloadedStore store = dir2Store.get(shardDir.getPath());
+		if (store == null) {
+			store = new DownloadedStore(shardDir, config);
+			watcher.watch(store);
+			dir2Store.put(shardDir.getPath(), store);
+		}
+		return store;
+	}
+
+	/**
+	 * @return the store of the directory if it is in use, otherwise a store
+	 *         neither shared nor watched, to be dropped after a single use
+	 */
+	DownloadedStore getStoreOrOpen(final File shardDir) {
+		final DownloadedStore store;
+		synchronized (this) {
+			store = dir2Store.get(shardDir.getAbsolutePath());
+		}
+		return store == null ? new DownloadedStore(shardDir.getAbsoluteFile(), config) : store;
+	}
+
+	/**
+	 * @return the plugin directories holding a store
+	 */
+	List<File> findShardDirs() {
+		final List<File> storeDirs = new ArrayList<>();
+		final File[] shards = new File(indexDir).listFiles();
+		if (shards != null) {
+			for (final File shard : shards) {
+				final File[] shardDirs = shard.listFiles();
+				if (shardDirs == null) {
+					continue;
+				}
+				for (final File shardDir : shardDirs) {
+					if (shardDir.isDirectory() && DownloadedStore.exists(shardDir)) {
+						storeDirs.add(shardDir);
+					}
+				}
+			}
+		}
+		return storeDirs;
+	}
+
+	/**
+	 * Flush the appends still waiting in all the stores, to be called before
+	 * the process stops.
+	 */
+	public void commitAll() {
+		final Collection<DownloadedStore> stores;
+		synchronized (this) {
+			stores = new ArrayList<>(dir2Store.values());
+		}
+		for (final DownloadedStore store : stores) {
+			store.commit();
+		}
+	}
+
+	/**
+	 * Flush the stores and stop watching them.
+	 */
+	public void close() {
+		commitAll();
+		watcher.close();
+	}
+}
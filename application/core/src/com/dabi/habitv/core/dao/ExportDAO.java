@@ -2,115 +2,101 @@ package com.dabi.habitv.core.dao;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
 import com.dabi.habitv.api.plugin.exception.TechnicalException;
 
+/**
+ * Export steps not finished yet, replayed by the next start. Each step added
+ * or removed is appended to a journal instead of rewriting the whole index,
+ * with only the keys of its episode.
+ */
 public class ExportDAO {
 
-	private String appDir;
+	private static final Logger LOG = Logger.getLogger(ExportDAO.class);
+
+	private final String appDir;
+
+	private final RecordJournal<String, QueuedExport> journal;
 
 	public ExportDAO(String appDir) {
 		this.appDir = appDir;
+		journal = new RecordJournal<>(new File(appDir, "export.steps"));
+		migrate();
+		migrateJournal();
 	}
 
-	public synchronized void addExportStep(
-			final EpisodeExportState episodeExportState) {
-		final EpisodeExportIndexRoot root = loadEpisodeExportIndexRoot();
-		if (!root.getEpisodeExportStates().contains(episodeExportState)) {
-			root.addEpisodeExportStates(episodeExportState);
-			saveExportIndex(root);
+	/**
+	 * Import the steps of the former serialized index.
+	 */
+	private void migrate() {
+		final File legacyIndex = new File(appDir, "export.index");
+		if (!legacyIndex.exists()) {
+			return;
 		}
-	}
-
-	private void saveExportIndex(final EpisodeExportIndexRoot root) {
-		FileOutputStream fichier = null;
-		ObjectOutputStream oos = null;
-		try {
-			fichier = new FileOutputStream(getExportIndexFileName(), false);
-			oos = new ObjectOutputStream(fichier);
-			oos.writeObject(root);
-			oos.flush();
-		} catch (final java.io.IOException e) {
-			throw new TechnicalException(e);
-		} finally {
-			if (fichier != null) {
-				try {
-					fichier.close();
-				} catch (final IOException e) {
-					throw new TechnicalException(e);
-				}
-			}
-			if (oos != null) {
-				try {
-					oos.close();
-				} catch (final IOException e) {
-					throw new TechnicalException(e);
-				}
+		try (final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacyIndex))) {
+			final EpisodeExportIndexRoot root = (EpisodeExportIndexRoot) ois.readObject();
+			for (final EpisodeExportState episodeExportState : root.getEpisodeExportStates()) {
+				journal.put(buildKey(episodeExportState), new QueuedExport(episodeExportState));
 			}
+		} catch (IOException | ClassNotFoundException e) {
+			LOG.warn("can't read " + legacyIndex.getAbsolutePath() + ", the exports won't be resumed", e);
+		}
+		if (!legacyIndex.delete()) {
+			throw new TechnicalException("can't delete " + legacyIndex.getAbsolutePath());
 		}
 	}
 
-	private EpisodeExportIndexRoot loadEpisodeExportIndexRoot() {
-		final File index = new File(getExportIndexFileName());
-		final EpisodeExportIndexRoot root;
-		if (!index.exists()) {
-			root = new EpisodeExportIndexRoot();
-		} else {
-			FileInputStream fichier = null;
-			ObjectInputStream ois = null;
-			try {
-				fichier = new FileInputStream(index);
-				ois = new ObjectInputStream(fichier);
-				root = (EpisodeExportIndexRoot) ois.readObject();
-				return root;
-			} catch (java.io.IOException | ClassNotFoundException e) {
-				throw new TechnicalException(e);
-			} finally {
-				if (ois != null) {
-					try {
-						ois.close();
-					} catch (final IOException e) {
-						throw new TechnicalException(e);
-					}
-				}
-				if (fichier != null) {
-					try {
-						fichier.close();
-					} catch (final IOException e) {
-						throw new TechnicalException(e);
-					}
-				}
-			}
+	/**
+	 * Import the steps of the former journal holding the whole episodes.
+	 */
+	private void migrateJournal() {
+		final File legacyJournal = new File(appDir, "export.journal");
+		if (!legacyJournal.exists()) {
+			return;
 		}
-		return root;
+		final RecordJournal<String, EpisodeExportState> legacySteps = new RecordJournal<>(legacyJournal);
+		for (final EpisodeExportState episodeExportState : legacySteps.getAll().values()) {
+			journal.put(buildKey(episodeExportState), new QueuedExport(episodeExportState));
+		}
+		legacySteps.clear();
 	}
 
-	private String getExportIndexFileName() {
-		return appDir + "/export.index";
+	public void addExportStep(final EpisodeExportState episodeExportState) {
+		final String key = buildKey(episodeExportState);
+		synchronized (journal) {
+			if (journal.get(key) == null) {
+				journal.put(key, new QueuedExport(episodeExportState));
+			}
+		}
 	}
 
 	public Collection<EpisodeExportState> loadExportStep() {
-		return loadEpisodeExportIndexRoot().getEpisodeExportStates();
+		final List<EpisodeExportState> exportSteps = new ArrayList<>();
+		for (final QueuedExport queuedExport : journal.getAll().values()) {
+			exportSteps.add(queuedExport.getEpisodeExportState());
+		}
+		return exportSteps;
 	}
 
 	public void init() {
-		final File index = new File(getExportIndexFileName());
-		if (index.exists()) {
-			if (!index.delete()) {
-				throw new TechnicalException("can't delete");
-			}
-		}
+		journal.clear();
+	}
+
+	public void removeExportStep(final EpisodeExportState episodeExportState) {
+		journal.remove(buildKey(episodeExportState));
 	}
 
-	public synchronized void removeExportStep(
-			final EpisodeExportState episodeExportState) {
-		final EpisodeExportIndexRoot root = loadEpisodeExportIndexRoot();
-		root.removeEpisodeExportStates(episodeExportState);
-		saveExportIndex(root);
+	private static String buildKey(final EpisodeExportState episodeExportState) {
+		final EpisodeDTO episode = episodeExportState.getEpisode();
+		return episode.getCategory().getPlugin() + "/" + episode.getCategory().getId() + "/" + episode.getId() + "/"
+				+ episodeExportState.getState();
 	}
 }
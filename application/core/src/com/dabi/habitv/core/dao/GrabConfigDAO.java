@@ -6,7 +6,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -17,16 +17,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
+import org.apache.log4j.Logger;
 
 import com.dabi.habitv.api.plugin.dto.CategoryDTO;
 import com.dabi.habitv.api.plugin.dto.StatusEnum;
 import com.dabi.habitv.api.plugin.exception.TechnicalException;
 import com.dabi.habitv.core.config.HabitTvConf;
+import com.dabi.habitv.framework.plugin.utils.JAXBUtils;
 import com.dabi.habitv.grabconfig.entities.Category;
 import com.dabi.habitv.grabconfig.entities.CategoryType;
 import com.dabi.habitv.grabconfig.entities.CategoryType.Configuration;
@@ -39,24 +41,112 @@ import com.dabi.habitv.grabconfig.entities.GrabConfig.Plugins;
 import com.dabi.habitv.grabconfig.entities.Parameter;
 import com.dabi.habitv.grabconfig.entities.Plugin;
 import com.dabi.habitv.grabconfig.entities.Plugin.Categories;
-import com.dabi.habitv.utils.FileUtils;
 import com.dabi.habitv.utils.XMLUtils;
 
 public class GrabConfigDAO {
 
+	private static final Logger LOG = Logger.getLogger(GrabConfigDAO.class);
+
 	private static final String GRAB_CONF_XSD = "grab-config.xsd";
 
+	private static final long SAVE_DELAY = 500;
+
+	private static final ScheduledExecutorService SAVER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "GrabConfigSaver");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
 	private final String grabConfigFile;
 
+	private final Map<String, PluginSection> plugin2Section = new HashMap<>();
+
+	private List<byte[]> pendingContents = null;
+
+	private boolean saveScheduled = false;
+
 	public GrabConfigDAO(final String grabConfigFile) {
 		super();
 		this.grabConfigFile = grabConfigFile;
 	}
 
+	public String getGrabConfigFile() {
+		return grabConfigFile;
+	}
+
+	/**
+	 * The plugins with a changed category are serialized again by the caller,
+	 * only the write of the file is delayed and coalesced. The first save
+	 * creating the file is written at once.
+	 */
 	public void saveGrabConfig(Map<String, CategoryDTO> categories) {
-		final GrabConfig config = new GrabConfig();
-		addPlugins(categories, config);
-		marshal(config);
+		synchronized (this) {
+			pendingContents = serialize(categories);
+			if (!(new File(grabConfigFile)).exists()) {
+				flush();
+			} else if (!saveScheduled) {
+				saveScheduled = true;
+				SAVER.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							flush();
+						} catch (final TechnicalException e) {
+							LOG.error("Can't save " + grabConfigFile, e);
+						}
+					}
+				}, SAVE_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Write the pending save now.
+	 */
+	public synchronized void flush() {
+		saveScheduled = false;
+		if (pendingContents == null) {
+			return;
+		}
+		final List<byte[]> contents = pendingContents;
+		pendingContents = null;
+		try {
+			GrabConfigWriter.writeFile(new File(grabConfigFile), contents);
+		} catch (final TechnicalException e) {
+			if (pendingContents == null) {
+				pendingContents = contents;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the plugin sections, the unchanged ones are reused
+	 */
+	private List<byte[]> serialize(final Map<String, CategoryDTO> categories) {
+		final Map<String, PluginSection> sections = new HashMap<>();
+		final List<byte[]> contents = new ArrayList<>(categories.size());
+		for (final CategoryDTO categoryPlugin : categories.values()) {
+			PluginSection section = plugin2Section.get(categoryPlugin
+					.getName());
+			if (section == null || section.categoryPlugin != categoryPlugin
+					|| categoryPlugin.hasDirtyCategory()) {
+				// cleared first so that a change made meanwhile stays dirty
+				categoryPlugin.clearDirty();
+				section = new PluginSection(categoryPlugin,
+						GrabConfigWriter.writePlugin(categoryPlugin));
+			}
+			sections.put(categoryPlugin.getName(), section);
+			contents.add(section.content);
+		}
+		plugin2Section.clear();
+		plugin2Section.putAll(sections);
+		return contents;
 	}
 
 	private void addPlugins(final Map<String, CategoryDTO> categoriesDTO,
@@ -146,20 +236,14 @@ public class GrabConfigDAO {
 		return category;
 	}
 
-	public void marshal(final GrabConfig config) {
-		final JAXBContext jaxbContext;
+	public synchronized void marshal(final GrabConfig config) {
+		plugin2Section.clear();
 		FileOutputStream outputFile = null;
 		try {
-			jaxbContext = JAXBContext.newInstance(GrabConfig.class.getPackage()
-					.getName());
-			final Marshaller marshaller = jaxbContext.createMarshaller();
-			marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT,
-					Boolean.TRUE);
-			marshaller.setProperty(Marshaller.JAXB_ENCODING,
-					HabitTvConf.ENCODING);
 			outputFile = new FileOutputStream(grabConfigFile);
-			marshaller.marshal(config, outputFile);
-		} catch (JAXBException | FileNotFoundException e) {
+			JAXBUtils.marshal(config, outputFile, GrabConfig.class.getPackage()
+					.getName(), null, HabitTvConf.ENCODING);
+		} catch (final FileNotFoundException e) {
 			throw new TechnicalException(e);
 		} finally {
 			if (outputFile != null) {
@@ -247,23 +331,17 @@ public class GrabConfigDAO {
 	}
 
 	public GrabConfig unmarshal() {
+		flush();
 		GrabConfig grabConfig = null;
-		try {
-			final JAXBContext jaxbContext = JAXBContext
-					.newInstance(GrabConfig.class.getPackage().getName());
-			final Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
-			FileUtils.setValidation(unmarshaller, GRAB_CONF_XSD);
-			grabConfig = ((GrabConfig) unmarshaller
-					.unmarshal(new InputStreamReader(new FileInputStream(
-							grabConfigFile), HabitTvConf.ENCODING)));
+		try (final InputStreamReader input = new InputStreamReader(
+				new FileInputStream(grabConfigFile), HabitTvConf.ENCODING)) {
+			grabConfig = (GrabConfig) JAXBUtils.unmarshal(input,
+					GrabConfig.class.getPackage().getName(), null,
+					GRAB_CONF_XSD);
 			if (!grabConfig.getChannel().isEmpty()) {
 				grabConfig = convertOldGrabconfig(grabConfig);
 			}
-		} catch (final JAXBException e) {
-			throw new TechnicalException(e);
-		} catch (final UnsupportedEncodingException e) {
-			throw new TechnicalException(e);
-		} catch (final FileNotFoundException e) {
+		} catch (final IOException e) {
 			throw new TechnicalException(e);
 		}
 		return grabConfig;
@@ -364,6 +442,7 @@ public class GrabConfigDAO {
 						categoryPlugin.setState(StatusEnum.valueOf(plugin
 								.getStatus()));
 					}
+					categoryPlugin.clearDirty();
 					channel2Category.put(plugin.getName(), categoryPlugin);
 				}
 			}
@@ -371,20 +450,52 @@ public class GrabConfigDAO {
 		return channel2Category;
 	}
 
+	private static final class PluginSection {
+
+		private final CategoryDTO categoryPlugin;
+
+		private final byte[] content;
+
+		private PluginSection(final CategoryDTO categoryPlugin,
+				final byte[] content) {
+			this.categoryPlugin = categoryPlugin;
+			this.content = content;
+		}
+	}
+
 	public enum LoadModeEnum {
 		ALL, TO_DOWNLOAD_ONLY;
 	}
 
+	/**
+	 * Read the binary snapshot of the grab config if it is up to date, else
+	 * stream the grab config and write the snapshot. JAXB is only used to
+	 * convert an old one.
+	 */
 	public Map<String, CategoryDTO> load(final LoadModeEnum loadMode) {
-		return buildCategoryDTO(unmarshal(), loadMode);
+		flush();
+		final File file = new File(grabConfigFile);
+		final GrabConfigSnapshot.SourceKey key = GrabConfigSnapshot
+				.getKey(file);
+		Map<String, CategoryDTO> channel2Category = GrabConfigSnapshot.read(
+				file, loadMode, key);
+		if (channel2Category == null) {
+			channel2Category = new GrabConfigReader(loadMode).read(file);
+			if (channel2Category == null) {
+				channel2Category = buildCategoryDTO(unmarshal(), loadMode);
+			}
+			GrabConfigSnapshot.write(file, loadMode, key, channel2Category);
+		}
+		return channel2Category;
 	}
 
 	public Map<String, CategoryDTO> load() {
-		return buildCategoryDTO(unmarshal(), LoadModeEnum.TO_DOWNLOAD_ONLY);
+		return load(LoadModeEnum.TO_DOWNLOAD_ONLY);
 	}
 
-	public boolean exist() {
-		return (new File(grabConfigFile)).exists();
+	public synchronized boolean exist() {
+		return pendingContents != null
+				|| (new File(grabConfigFile)).exists();
 	}
 
 	public void updateGrabConfig(final Map<String, CategoryDTO> channel2Category) {
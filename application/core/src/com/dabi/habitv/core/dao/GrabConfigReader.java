@@ -0,0 +1,272 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.dto.StatusEnum;
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+import com.dabi.habitv.core.config.HabitTvConf;
+import com.dabi.habitv.core.dao.GrabConfigDAO.LoadModeEnum;
+
+/**
+ * Streaming reader of the grab config building the categories straight from
+ * the StAX events, without the JAXB tree. A category not needed by the load
+ * mode is dropped at its end tag, only its sub categories to download are
+ * kept with it.
+ */
+class GrabConfigReader {
+
+	private static final XMLInputFactory FACTORY = buildFactory();
+
+	private final LoadModeEnum loadMode;
+
+	private boolean unsupported = false;
+
+	GrabConfigReader(final LoadModeEnum loadMode) {
+		super();
+		this.loadMode = loadMode;
+	}
+
+	private static XMLInputFactory buildFactory() {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	/**
+	 * @return the categories by plugin, null if the file has to go through
+	 *         JAXB : old grab config to convert or plugin name written after
+	 *         its categories
+	 */
+	Map<String, CategoryDTO> read(final File file) {
+		try (final InputStream input = new BufferedInputStream(
+				new FileInputStream(file))) {
+			final XMLStreamReader reader = FACTORY.createXMLStreamReader(
+					input, HabitTvConf.ENCODING);
+			try {
+				final Map<String, CategoryDTO> channel2Category = readGrabConfig(reader);
+				return unsupported ? null : channel2Category;
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException | XMLStreamException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	private Map<String, CategoryDTO> readGrabConfig(
+			final XMLStreamReader reader) throws XMLStreamException {
+		final Map<String, CategoryDTO> channel2Category = new HashMap<>();
+		reader.nextTag();
+		while (!unsupported && nextElement(reader)) {
+			if ("plugins".equals(reader.getLocalName())) {
+				while (nextElement(reader)) {
+					final CategoryDTO categoryPlugin = readPlugin(reader);
+					if (categoryPlugin != null) {
+						channel2Category.put(categoryPlugin.getName(),
+								categoryPlugin);
+					}
+				}
+			} else if ("channel".equals(reader.getLocalName())) {
+				unsupported = true;
+			} else {
+				skip(reader);
+			}
+		}
+		return channel2Category;
+	}
+
+	private CategoryDTO readPlugin(final XMLStreamReader reader)
+			throws XMLStreamException {
+		String name = null;
+		String status = null;
+		boolean deleted = false;
+		final Set<CategoryDTO> categories = new LinkedHashSet<>();
+		while (nextElement(reader)) {
+			final String tag = reader.getLocalName();
+			if ("name".equals(tag)) {
+				name = reader.getElementText();
+			} else if ("categories".equals(tag) && name != null) {
+				readCategories(reader, name, categories);
+			} else if ("categories".equals(tag)) {
+				unsupported = true;
+				skip(reader);
+			} else if ("status".equals(tag)) {
+				status = reader.getElementText();
+			} else if ("deleted".equals(tag)) {
+				deleted = readBoolean(reader);
+			} else {
+				skip(reader);
+			}
+		}
+		if (categories.isEmpty()) {
+			return null;
+		}
+		final CategoryDTO categoryPlugin = new CategoryDTO(name, categories);
+		categoryPlugin.setDownloadable(false);
+		categoryPlugin.setDeleted(deleted);
+		if (status != null) {
+			categoryPlugin.setState(StatusEnum.valueOf(status));
+		}
+		categoryPlugin.clearDirty();
+		return categoryPlugin;
+	}
+
+	private void readCategories(final XMLStreamReader reader,
+			final String channelName, final Set<CategoryDTO> categoryDTOs)
+			throws XMLStreamException {
+		while (nextElement(reader)) {
+			if ("category".equals(reader.getLocalName())) {
+				final CategoryDTO categoryDTO = readCategory(reader,
+						channelName);
+				if (categoryDTO != null) {
+					categoryDTOs.add(categoryDTO);
+				}
+			} else {
+				skip(reader);
+			}
+		}
+	}
+
+	private CategoryDTO readCategory(final XMLStreamReader reader,
+			final String channelName) throws XMLStreamException {
+		String id = null;
+		String name = null;
+		String extension = null;
+		String status = null;
+		Boolean download = null;
+		boolean downloadable = true;
+		boolean template = false;
+		boolean deleted = false;
+		final List<String> include = new LinkedList<>();
+		final List<String> exclude = new LinkedList<>();
+		final Set<CategoryDTO> subCategoriesDTO = new LinkedHashSet<>();
+		final Map<String, String> parameters = new HashMap<>();
+		while (nextElement(reader)) {
+			final String tag = reader.getLocalName();
+			if ("id".equals(tag)) {
+				id = reader.getElementText();
+			} else if ("name".equals(tag)) {
+				name = reader.getElementText();
+			} else if ("download".equals(tag)) {
+				download = readBoolean(reader);
+			} else if ("downloadable".equals(tag)) {
+				downloadable = readBoolean(reader);
+			} else if ("template".equals(tag)) {
+				template = readBoolean(reader);
+			} else if ("includes".equals(tag)) {
+				readValues(reader, include);
+			} else if ("excludes".equals(tag)) {
+				readValues(reader, exclude);
+			} else if ("subcategories".equals(tag)) {
+				readCategories(reader, channelName, subCategoriesDTO);
+			} else if ("extension".equals(tag)) {
+				extension = reader.getElementText();
+			} else if ("status".equals(tag)) {
+				status = reader.getElementText();
+			} else if ("configuration".equals(tag)) {
+				while (nextElement(reader)) {
+					parameters.put(reader.getLocalName(), readText(reader));
+				}
+			} else if ("deleted".equals(tag)) {
+				deleted = readBoolean(reader);
+			} else {
+				skip(reader);
+			}
+		}
+
+		if (download != null && !download && subCategoriesDTO.isEmpty()
+				&& !loadMode.equals(LoadModeEnum.ALL)) {
+			return null;
+		}
+
+		final CategoryDTO categoryDTO = new CategoryDTO(channelName, name, id,
+				include, exclude, extension);
+		categoryDTO.setSelected(download != null && download);
+		categoryDTO.setTemplate(template);
+		categoryDTO.setDownloadable(downloadable);
+		categoryDTO.setDeleted(deleted);
+		categoryDTO.setState(status == null ? StatusEnum.EXIST : StatusEnum
+				.valueOf(status));
+		categoryDTO.addSubCategories(subCategoriesDTO);
+		for (final Entry<String, String> parameter : parameters.entrySet()) {
+			categoryDTO.addParameter(parameter.getKey(), parameter.getValue());
+		}
+		return categoryDTO;
+	}
+
+	private static void readValues(final XMLStreamReader reader,
+			final List<String> values) throws XMLStreamException {
+		while (nextElement(reader)) {
+			values.add(reader.getElementText());
+		}
+	}
+
+	private static boolean readBoolean(final XMLStreamReader reader)
+			throws XMLStreamException {
+		final String value = reader.getElementText().trim();
+		return "true".equals(value) || "1".equals(value);
+	}
+
+	/**
+	 * @return true if positioned on a child start tag, false on the end tag
+	 *         of the current element
+	 */
+	private static boolean nextElement(final XMLStreamReader reader)
+			throws XMLStreamException {
+		return reader.nextTag() == XMLStreamConstants.START_ELEMENT;
+	}
+
+	/**
+	 * @return the text of the current element and its children, as read by
+	 *         the JAXB any elements
+	 */
+	private static String readText(final XMLStreamReader reader)
+			throws XMLStreamException {
+		final StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.CHARACTERS
+					|| event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE) {
+				text.append(reader.getText());
+			}
+		}
+		return text.toString();
+	}
+
+	private static void skip(final XMLStreamReader reader)
+			throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+import com.dabi.habitv.core.dao.GrabConfigDAO.LoadModeEnum;
+
+/**
+ * Categories to download kept in memory for the daemon mode, the grab config
+ * is loaded again only when it has changed. The file is watched : an edit is
+ * loaded at once and the categories it selects are given to the listener
+ * without waiting for the next cycle.
+ */
+public class GrabConfigService {
+
+	private static final Logger LOG = Logger.getLogger(GrabConfigService.class);
+
+	/**
+	 * Time let to an editor to finish writing the file.
+	 */
+	private static final long SETTLE_DELAY = 200;
+
+	public interface SelectionListener {
+
+		/**
+		 * @param plugin2Categories
+		 *            plugins with only the newly selected categories as sub
+		 *            categories
+		 */
+		void onNewSelection(Map<String, CategoryDTO> plugin2Categories);
+	}
+
+	private final GrabConfigDAO grabConfigDAO;
+
+	private final File file;
+
+	private Map<String, CategoryDTO> categories = null;
+
+	private long lastModified;
+
+	private long length;
+
+	private WatchService watchService = null;
+
+	public GrabConfigService(final GrabConfigDAO grabConfigDAO) {
+		super();
+		this.grabConfigDAO = grabConfigDAO;
+		this.file = new File(grabConfigDAO.getGrabConfigFile());
+	}
+
+	/**
+	 * @return the categories to download, loaded again if the file has
+	 *         changed since the last load
+	 */
+	public synchronized Map<String, CategoryDTO> getCategories() {
+		if (categories == null) {
+			reload();
+		} else if (file.lastModified() != lastModified
+				|| file.length() != length) {
+			try {
+				reload();
+			} catch (final TechnicalException e) {
+				LOG.warn("Can't load " + file.getAbsolutePath()
+						+ ", the previous categories are kept", e);
+			}
+		}
+		return categories;
+	}
+
+	/**
+	 * Watch the grab config, the listener is called from the watching
+	 * thread. Does nothing if already watching.
+	 */
+	public void start(final SelectionListener listener) {
+		getCategories();
+		final Path directory = file.getAbsoluteFile().getParentFile().toPath();
+		final String fileName = file.getName();
+		synchronized (this) {
+			if (watchService != null) {
+				return;
+			}
+			try {
+				watchService = FileSystems.getDefault().newWatchService();
+				directory.register(watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (final IOException | UnsupportedOperationException e) {
+				LOG.warn("Can't watch " + directory
+						+ ", the edits are loaded at the next cycle", e);
+				return;
+			}
+		}
+		final WatchService service = watchService;
+		final Thread watcher = new Thread("GrabConfigWatcher") {
+
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final WatchKey key = service.take();
+						boolean changed = false;
+						for (final WatchEvent<?> event : key.pollEvents()) {
+							changed |= event.context() instanceof Path
+									&& fileName.equals(((Path) event.context())
+											.toString());
+						}
+						if (changed) {
+							Thread.sleep(SETTLE_DELAY);
+							key.pollEvents();
+							refresh(listener);
+						}
+						if (!key.reset()) {
+							break;
+						}
+					}
+				} catch (final InterruptedException
+						| ClosedWatchServiceException e) {
+					// stopped
+				} catch (final RuntimeException e) {
+					LOG.error("Watch of " + file.getAbsolutePath() + " stopped",
+							e);
+				}
+			}
+		};
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	public synchronized void stop() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (final IOException e) {
+				throw new TechnicalException(e);
+			}
+			watchService = null;
+		}
+	}
+
+	private void refresh(final SelectionListener listener) {
+		final Map<String, CategoryDTO> newSelection;
+		synchronized (this) {
+			final Map<String, CategoryDTO> previous = categories;
+			try {
+				reload();
+			} catch (final TechnicalException e) {
+				LOG.warn("Can't load " + file.getAbsolutePath()
+						+ ", waiting for the next change", e);
+				return;
+			}
+			newSelection = findNewSelection(previous, categories);
+		}
+		if (!newSelection.isEmpty()) {
+			LOG.info("Categories selected in " + file.getName() + " : "
+					+ newSelection.keySet());
+			listener.onNewSelection(newSelection);
+		}
+	}
+
+	private void reload() {
+		final long newLastModified = file.lastModified();
+		final long newLength = file.length();
+		categories = grabConfigDAO.load(LoadModeEnum.TO_DOWNLOAD_ONLY);
+		lastModified = newLastModified;
+		length = newLength;
+	}
+
+	/**
+	 * @return the plugins having categories selected in the new tree and not
+	 *         in the previous one, with these categories only
+	 */
+	static Map<String, CategoryDTO> findNewSelection(
+			final Map<String, CategoryDTO> previous,
+			final Map<String, CategoryDTO> current) {
+		final Map<String, CategoryDTO> plugin2Categories = new HashMap<>();
+		for (final CategoryDTO categoryPlugin : current.values()) {
+			final CategoryDTO previousPlugin = previous == null ? null
+					: previous.get(categoryPlugin.getName());
+			// added without changing the father of the categories
+			final CategoryDTO selectionPlugin = new CategoryDTO(
+					categoryPlugin.getName(), categoryPlugin.getName(),
+					categoryPlugin.getName(), null);
+			addNewSelection(previousPlugin, categoryPlugin.getSubCategories(),
+					selectionPlugin.getSubCategories());
+			if (!selectionPlugin.getSubCategories().isEmpty()) {
+				plugin2Categories.put(categoryPlugin.getName(), selectionPlugin);
+			}
+		}
+		return plugin2Categories;
+	}
+
+	private static void addNewSelection(final CategoryDTO previousFather,
+			final Collection<CategoryDTO> categories,
+			final Collection<CategoryDTO> newSelection) {
+		for (final CategoryDTO category : categories) {
+			final CategoryDTO previousCategory = previousFather == null ? null
+					: previousFather.findSubCategorieById(category.getId());
+			if (category.isSelected()
+					&& (previousCategory == null || !previousCategory
+							.isSelected())) {
+				newSelection.add(category);
+			} else {
+				addNewSelection(previousCategory, category.getSubCategories(),
+						newSelection);
+			}
+		}
+	}
+}
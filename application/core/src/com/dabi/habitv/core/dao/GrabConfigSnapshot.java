@@ -0,0 +1,287 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.dto.StatusEnum;
+import com.dabi.habitv.core.dao.GrabConfigDAO.LoadModeEnum;
+
+/**
+ * Binary copy of the categories loaded from the grab config, one by load
+ * mode, to skip the XML parsing at startup. A snapshot is used only if its
+ * version and the modification time, length and CRC of the grab config it
+ * was built from still match.
+ */
+final class GrabConfigSnapshot {
+
+	private static final Logger LOG = Logger.getLogger(GrabConfigSnapshot.class);
+
+	private static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private GrabConfigSnapshot() {
+
+	}
+
+	/**
+	 * Key of the grab config, to take before parsing it.
+	 */
+	static final class SourceKey {
+
+		private final long lastModified;
+
+		private final long length;
+
+		private final long crc;
+
+		private SourceKey(final long lastModified, final long length,
+				final long crc) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.crc = crc;
+		}
+
+		private boolean matches(final long otherLastModified,
+				final long otherLength, final long otherCrc) {
+			return lastModified == otherLastModified && length == otherLength
+					&& crc == otherCrc;
+		}
+	}
+
+	/**
+	 * @return null if the grab config can't be read
+	 */
+	static SourceKey getKey(final File grabConfigFile) {
+		final long lastModified = grabConfigFile.lastModified();
+		final long length = grabConfigFile.length();
+		final CRC32 crc = new CRC32();
+		try (final InputStream input = new FileInputStream(grabConfigFile)) {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		} catch (final IOException e) {
+			return null;
+		}
+		return new SourceKey(lastModified, length, crc.getValue());
+	}
+
+	static File getSnapshotFile(final File grabConfigFile,
+			final LoadModeEnum loadMode) {
+		return new File(grabConfigFile.getPath() + "."
+				+ loadMode.name().toLowerCase() + ".snapshot");
+	}
+
+	/**
+	 * @return the categories by plugin, null if there is no snapshot up to
+	 *         date with the grab config
+	 */
+	static Map<String, CategoryDTO> read(final File grabConfigFile,
+			final LoadModeEnum loadMode, final SourceKey key) {
+		final File snapshotFile = getSnapshotFile(grabConfigFile, loadMode);
+		if (key == null || !snapshotFile.exists()) {
+			return null;
+		}
+		try (final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(snapshotFile),
+						BUFFER_SIZE))) {
+			if (in.readInt() != VERSION
+					|| !key.matches(in.readLong(), in.readLong(),
+							in.readLong())) {
+				return null;
+			}
+			final int pluginCount = in.readInt();
+			final Map<String, CategoryDTO> channel2Category = new HashMap<>(
+					pluginCount * 2);
+			for (int i = 0; i < pluginCount; i++) {
+				final CategoryDTO categoryPlugin = readPlugin(in);
+				categoryPlugin.clearDirty();
+				channel2Category.put(categoryPlugin.getName(), categoryPlugin);
+			}
+			return channel2Category;
+		} catch (final IOException | RuntimeException e) {
+			LOG.warn("Can't read " + snapshotFile.getAbsolutePath()
+					+ ", the grab config is parsed", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write the snapshot of the categories loaded from the grab config having
+	 * the given key, a failure is only logged.
+	 */
+	static void write(final File grabConfigFile, final LoadModeEnum loadMode,
+			final SourceKey key, final Map<String, CategoryDTO> channel2Category) {
+		if (key == null) {
+			return;
+		}
+		final File snapshotFile = getSnapshotFile(grabConfigFile, loadMode);
+		final File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+		try {
+			try (final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmpFile),
+							BUFFER_SIZE))) {
+				out.writeInt(VERSION);
+				out.writeLong(key.lastModified);
+				out.writeLong(key.length);
+				out.writeLong(key.crc);
+				out.writeInt(channel2Category.size());
+				for (final CategoryDTO categoryPlugin : channel2Category
+						.values()) {
+					writePlugin(out, categoryPlugin);
+				}
+			}
+			try {
+				Files.move(tmpFile.toPath(), snapshotFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), snapshotFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (final IOException e) {
+			LOG.warn("Can't write " + snapshotFile.getAbsolutePath(), e);
+			tmpFile.delete();
+		}
+	}
+
+	private static void writePlugin(final DataOutputStream out,
+			final CategoryDTO categoryPlugin) throws IOException {
+		out.writeUTF(categoryPlugin.getName());
+		out.writeBoolean(categoryPlugin.isDeleted());
+		writeState(out, categoryPlugin.getState());
+		writeCategories(out, categoryPlugin.getSubCategories());
+	}
+
+	private static CategoryDTO readPlugin(final DataInputStream in)
+			throws IOException {
+		final String name = in.readUTF();
+		final boolean deleted = in.readBoolean();
+		final StatusEnum state = readState(in);
+		final CategoryDTO categoryPlugin = new CategoryDTO(name, readCategories(
+				in, name));
+		categoryPlugin.setDownloadable(false);
+		categoryPlugin.setDeleted(deleted);
+		categoryPlugin.setState(state);
+		return categoryPlugin;
+	}
+
+	private static void writeCategories(final DataOutputStream out,
+			final Set<CategoryDTO> categories) throws IOException {
+		out.writeInt(categories.size());
+		for (final CategoryDTO categoryDTO : categories) {
+			writeString(out, categoryDTO.getId());
+			writeString(out, categoryDTO.getName());
+			writeString(out, categoryDTO.getExtension());
+			out.writeBoolean(categoryDTO.isSelected());
+			out.writeBoolean(categoryDTO.isTemplate());
+			out.writeBoolean(categoryDTO.isDownloadable());
+			out.writeBoolean(categoryDTO.isDeleted());
+			writeState(out, categoryDTO.getState());
+			writeStrings(out, categoryDTO.getInclude());
+			writeStrings(out, categoryDTO.getExclude());
+			out.writeInt(categoryDTO.getParameters().size());
+			for (final Entry<String, String> parameter : categoryDTO
+					.getParameters().entrySet()) {
+				writeString(out, parameter.getKey());
+				writeString(out, parameter.getValue());
+			}
+			writeCategories(out, categoryDTO.getSubCategories());
+		}
+	}
+
+	private static Set<CategoryDTO> readCategories(final DataInputStream in,
+			final String channelName) throws IOException {
+		final int count = in.readInt();
+		final Set<CategoryDTO> categories = new LinkedHashSet<>(count * 2);
+		for (int i = 0; i < count; i++) {
+			final String id = readString(in);
+			final String name = readString(in);
+			final String extension = readString(in);
+			final boolean selected = in.readBoolean();
+			final boolean template = in.readBoolean();
+			final boolean downloadable = in.readBoolean();
+			final boolean deleted = in.readBoolean();
+			final StatusEnum state = readState(in);
+			final CategoryDTO categoryDTO = new CategoryDTO(channelName, name,
+					id, readStrings(in), readStrings(in), extension);
+			categoryDTO.setSelected(selected);
+			categoryDTO.setTemplate(template);
+			categoryDTO.setDownloadable(downloadable);
+			categoryDTO.setDeleted(deleted);
+			categoryDTO.setState(state);
+			final int parameterCount = in.readInt();
+			for (int j = 0; j < parameterCount; j++) {
+				categoryDTO.addParameter(readString(in), readString(in));
+			}
+			categoryDTO.addSubCategories(readCategories(in, channelName));
+			categories.add(categoryDTO);
+		}
+		return categories;
+	}
+
+	private static void writeState(final DataOutputStream out,
+			final StatusEnum state) throws IOException {
+		writeString(out, state == null ? null : state.name());
+	}
+
+	private static StatusEnum readState(final DataInputStream in)
+			throws IOException {
+		final String state = readString(in);
+		return state == null ? null : StatusEnum.valueOf(state);
+	}
+
+	private static void writeStrings(final DataOutputStream out,
+			final List<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (final String value : values) {
+			writeString(out, value);
+		}
+	}
+
+	private static List<String> readStrings(final DataInputStream in)
+			throws IOException {
+		final int count = in.readInt();
+		final List<String> values = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			values.add(readString(in));
+		}
+		return values;
+	}
+
+	private static void writeString(final DataOutputStream out,
+			final String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(final DataInputStream in)
+			throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
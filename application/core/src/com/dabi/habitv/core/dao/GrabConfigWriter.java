@@ -0,0 +1,200 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map.Entry;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.dto.StatusEnum;
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+import com.dabi.habitv.core.config.HabitTvConf;
+
+/**
+ * Writes the grab config with StAX, each plugin section is serialized on its
+ * own so that the sections of the unchanged plugins can be reused as they
+ * are. The output is the one of the JAXB marshaller.
+ */
+final class GrabConfigWriter {
+
+	private static final String NAMESPACE = "http://www.dabi.com/habitv/grabconfig/entities";
+
+	private static final String INDENT = "    ";
+
+	private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+
+	private GrabConfigWriter() {
+
+	}
+
+	/**
+	 * @return the plugin element, to be written in the plugins element
+	 */
+	static byte[] writePlugin(final CategoryDTO categoryPlugin) {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			final XMLStreamWriter writer = FACTORY.createXMLStreamWriter(
+					output, HabitTvConf.ENCODING);
+			start(writer, "plugin", 2);
+			element(writer, "name", categoryPlugin.getName(), 3);
+			start(writer, "categories", 3);
+			boolean empty = true;
+			for (final CategoryDTO categoryDTO : categoryPlugin
+					.getSubCategories()) {
+				if (categoryDTO.check()) {
+					writeCategory(writer, categoryDTO, 4);
+					empty = false;
+				}
+			}
+			end(writer, 3, empty);
+			element(writer, "status",
+					categoryPlugin.getState() == null ? StatusEnum.NEW.name()
+							: categoryPlugin.getState().name(), 3);
+			if (categoryPlugin.isDeleted()) {
+				element(writer, "deleted", Boolean.TRUE.toString(), 3);
+			}
+			end(writer, 2, false);
+			writer.close();
+		} catch (final XMLStreamException e) {
+			throw new TechnicalException(e);
+		}
+		return output.toByteArray();
+	}
+
+	private static void writeCategory(final XMLStreamWriter writer,
+			final CategoryDTO categoryDTO, final int depth)
+			throws XMLStreamException {
+		start(writer, "category", depth);
+		element(writer, "id", categoryDTO.getId(), depth + 1);
+		element(writer, "name", categoryDTO.getName(), depth + 1);
+		element(writer, "download", String.valueOf(categoryDTO.isSelected()),
+				depth + 1);
+		if (!categoryDTO.isDownloadable()) {
+			element(writer, "downloadable", Boolean.FALSE.toString(),
+					depth + 1);
+		}
+		if (categoryDTO.isTemplate()) {
+			element(writer, "template", Boolean.TRUE.toString(), depth + 1);
+		}
+		if (!categoryDTO.getInclude().isEmpty()) {
+			start(writer, "includes", depth + 1);
+			for (final String include : categoryDTO.getInclude()) {
+				element(writer, "include", include, depth + 2);
+			}
+			end(writer, depth + 1, false);
+		}
+		if (!categoryDTO.getExclude().isEmpty()) {
+			start(writer, "excludes", depth + 1);
+			for (final String exclude : categoryDTO.getExclude()) {
+				element(writer, "exclude", exclude, depth + 2);
+			}
+			end(writer, depth + 1, false);
+		}
+		start(writer, "subcategories", depth + 1);
+		for (final CategoryDTO subCategoryDTO : categoryDTO.getSubCategories()) {
+			writeCategory(writer, subCategoryDTO, depth + 2);
+		}
+		end(writer, depth + 1, categoryDTO.getSubCategories().isEmpty());
+		element(writer, "extension", categoryDTO.getExtension(), depth + 1);
+		if (categoryDTO.getState() != null) {
+			element(writer, "status", categoryDTO.getState().name(),
+					depth + 1);
+		}
+		if (categoryDTO.getParameters() != null
+				&& !categoryDTO.getParameters().isEmpty()) {
+			start(writer, "configuration", depth + 1);
+			for (final Entry<String, String> entry : categoryDTO
+					.getParameters().entrySet()) {
+				element(writer, entry.getKey(), entry.getValue(), depth + 2);
+			}
+			end(writer, depth + 1, false);
+		}
+		if (categoryDTO.isDeleted()) {
+			element(writer, "deleted", Boolean.TRUE.toString(), depth + 1);
+		}
+		end(writer, depth, false);
+	}
+
+	/**
+	 * Write the file from the plugin sections through a temporary file, the
+	 * previous file is kept if the write fails.
+	 */
+	static void writeFile(final File file, final Collection<byte[]> plugins) {
+		final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		try (final OutputStream output = new FileOutputStream(tempFile)) {
+			output.write(getBytes("<?xml version=\"1.0\" encoding=\""
+					+ HabitTvConf.ENCODING + "\" standalone=\"yes\"?>\n"
+					+ "<tns:grabConfig xmlns:tns=\"" + NAMESPACE + "\">\n"
+					+ INDENT + "<plugins>"));
+			for (final byte[] plugin : plugins) {
+				output.write(plugin);
+			}
+			output.write(getBytes("\n" + INDENT + "</plugins>\n</tns:grabConfig>\n"));
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+		try {
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	private static byte[] getBytes(final String text) {
+		try {
+			return text.getBytes(HabitTvConf.ENCODING);
+		} catch (final UnsupportedEncodingException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	private static void start(final XMLStreamWriter writer, final String tag,
+			final int depth) throws XMLStreamException {
+		indent(writer, depth);
+		writer.writeStartElement(tag);
+	}
+
+	/**
+	 * @param empty
+	 *            true if the element has no child, it is then closed on the
+	 *            same line
+	 */
+	private static void end(final XMLStreamWriter writer, final int depth,
+			final boolean empty) throws XMLStreamException {
+		if (!empty) {
+			indent(writer, depth);
+		}
+		writer.writeEndElement();
+	}
+
+	private static void element(final XMLStreamWriter writer,
+			final String tag, final String value, final int depth)
+			throws XMLStreamException {
+		if (value != null) {
+			indent(writer, depth);
+			writer.writeStartElement(tag);
+			writer.writeCharacters(value);
+			writer.writeEndElement();
+		}
+	}
+
+	private static void indent(final XMLStreamWriter writer, final int depth)
+			throws XMLStreamException {
+		final StringBuilder indent = new StringBuilder("\n");
+		for (int i = 0; i < depth; i++) {
+			indent.append(INDENT);
+		}
+		writer.writeCharacters(indent.toString());
+	}
+}
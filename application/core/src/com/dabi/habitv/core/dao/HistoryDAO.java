@@ -0,0 +1,167 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Downloads and exports done, with their durations and sizes, to find the
+ * slow providers and downloaders. The history is loaded at the first use and
+ * indexed by start time and by provider, the entries older than a year are
+ * dropped at load and when an entry is added.
+ */
+public class HistoryDAO {
+
+	private static final long RETENTION = 365 * 24 * 60 * 60 * 1000L;
+
+	private final RecordJournal<String, DownloadHistory> journal;
+
+	private TreeMap<Long, List<DownloadHistory>> time2History = null;
+
+	private Map<String, TreeMap<Long, List<DownloadHistory>>> provider2History;
+
+	public HistoryDAO(final String appDir) {
+		super();
+		journal = new RecordJournal<>(new File(appDir, "history.journal"));
+	}
+
+	private void load() {
+		if (time2History != null) {
+			return;
+		}
+		time2History = new TreeMap<>();
+		provider2History = new HashMap<>();
+		for (final DownloadHistory history : journal.getAll().values()) {
+			index(history);
+		}
+		dropExpired(System.currentTimeMillis());
+	}
+
+	/**
+	 * Remove the entries started before the retention period.
+	 */
+	private void dropExpired(final long now) {
+		final Iterator<List<DownloadHistory>> expired = time2History.headMap(now - RETENTION).values().iterator();
+		while (expired.hasNext()) {
+			for (final DownloadHistory history : expired.next()) {
+				journal.remove(buildKey(history));
+				// the entries of the provider at that time are all expired
+				final TreeMap<Long, List<DownloadHistory>> providerHistory = provider2History.get(history.getProvider());
+				if (providerHistory != null && providerHistory.remove(history.getStartTime()) != null
+						&& providerHistory.isEmpty()) {
+					provider2History.remove(history.getProvider());
+				}
+			}
+			expired.remove();
+		}
+	}
+
+	private void index(final DownloadHistory history) {
+		addToIndex(time2History, history);
+		TreeMap<Long, List<DownloadHistory>> providerHistory = provider2History.get(history.getProvider());
+		if (providerHistory == null) {
+			providerHistory = new TreeMap<>();
+			provider2History.put(history.getProvider(), providerHistory);
+		}
+		addToIndex(providerHistory, history);
+	}
+
+	private static void addToIndex(final TreeMap<Long, List<DownloadHistory>> time2Entries, final DownloadHistory history) {
+		List<DownloadHistory> entries = time2Entries.get(history.getStartTime());
+		if (entries == null) {
+			entries = new ArrayList<>(1);
+			time2Entries.put(history.getStartTime(), entries);
+		}
+		entries.add(history);
+	}
+
+	public synchronized void addHistory(final DownloadHistory history) {
+		load();
+		final String key = buildKey(history);
+		if (journal.get(key) == null) {
+			journal.put(key, history);
+			index(history);
+		}
+		dropExpired(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the steps started between from included and to excluded, by
+	 *         start time
+	 */
+	public synchronized List<DownloadHistory> findHistory(final long from, final long to) {
+		load();
+		return flatten(time2History.subMap(from, to).values());
+	}
+
+	/**
+	 * @return the steps of the provider started between from included and to
+	 *         excluded, by start time
+	 */
+	public synchronized List<DownloadHistory> findHistory(final String provider, final long from, final long to) {
+		load();
+		final TreeMap<Long, List<DownloadHistory>> providerHistory = provider2History.get(provider);
+		if (providerHistory == null) {
+			return new ArrayList<>();
+		}
+		return flatten(providerHistory.subMap(from, to).values());
+	}
+
+	/**
+	 * @return average throughput in bytes per second of the successful
+	 *         downloads by provider
+	 */
+	public Map<String, Long> getThroughputByProvider(final long from, final long to) {
+		return getThroughput(findHistory(from, to), true);
+	}
+
+	/**
+	 * @return average throughput in bytes per second of the successful
+	 *         downloads by downloader
+	 */
+	public Map<String, Long> getThroughputByDownloader(final long from, final long to) {
+		return getThroughput(findHistory(from, to), false);
+	}
+
+	private static Map<String, Long> getThroughput(final List<DownloadHistory> histories, final boolean byProvider) {
+		final Map<String, long[]> key2Totals = new LinkedHashMap<>();
+		for (final DownloadHistory history : histories) {
+			if (history.isDownload() && history.isSuccess()) {
+				final String key = byProvider ? history.getProvider() : history.getPlugin();
+				long[] totals = key2Totals.get(key);
+				if (totals == null) {
+					totals = new long[2];
+					key2Totals.put(key, totals);
+				}
+				totals[0] += history.getBytes();
+				totals[1] += history.getDuration();
+			}
+		}
+		final Map<String, Long> key2Throughput = new LinkedHashMap<>();
+		for (final Entry<String, long[]> entry : key2Totals.entrySet()) {
+			final long[] totals = entry.getValue();
+			key2Throughput.put(entry.getKey(), totals[1] > 0 ? totals[0] * 1000 / totals[1] : 0);
+		}
+		return key2Throughput;
+	}
+
+	private static List<DownloadHistory> flatten(final Collection<List<DownloadHistory>> entriesList) {
+		final List<DownloadHistory> histories = new ArrayList<>();
+		for (final List<DownloadHistory> entries : entriesList) {
+			histories.addAll(entries);
+		}
+		return histories;
+	}
+
+	private static String buildKey(final DownloadHistory history) {
+		return history.getProvider() + "/" + history.getCategory() + "/" + history.getEpisodeId() + "/" + history.getStep()
+				+ "/" + history.getStartTime();
+	}
+}
@@ -0,0 +1,99 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
+
+/**
+ * Download of the queue, only the keys of the episode and of its category
+ * are kept : the episode is built again from them on resume.
+ */
+public class QueuedDownload implements Serializable {
+
+	private static final long serialVersionUID = 4113093655186436702L;
+
+	private final String plugin;
+
+	private final String categoryId;
+
+	private final String categoryName;
+
+	private final String extension;
+
+	private final HashMap<String, String> parameters;
+
+	private final String episodeName;
+
+	private final String episodeId;
+
+	private final int num;
+
+	private final int attempts;
+
+	private final long enqueueTime;
+
+	private final boolean manual;
+
+	private final long nextAttemptTime;
+
+	private transient EpisodeDTO episode;
+
+	public QueuedDownload(final EpisodeDTO episode, final int attempts, final long enqueueTime, final boolean manual,
+			final long nextAttemptTime) {
+		super();
+		final CategoryDTO category = episode.getCategory();
+		this.plugin = category.getPlugin();
+		this.categoryId = category.getId();
+		this.categoryName = category.getName();
+		this.extension = category.getExtension();
+		this.parameters = new HashMap<>(category.getParameters());
+		this.episodeName = episode.getName();
+		this.episodeId = episode.getId();
+		this.num = episode.getNum();
+		this.attempts = attempts;
+		this.enqueueTime = enqueueTime;
+		this.manual = manual;
+		this.nextAttemptTime = nextAttemptTime;
+		this.episode = episode;
+	}
+
+	/**
+	 * @return the episode, built again from its keys after a restart
+	 */
+	public synchronized EpisodeDTO getEpisode() {
+		if (episode == null) {
+			final CategoryDTO category = new CategoryDTO(plugin, categoryName, categoryId, extension);
+			category.getParameters().putAll(parameters);
+			episode = new EpisodeDTO(category, episodeName, episodeId);
+			episode.setNum(num);
+		}
+		return episode;
+	}
+
+	public String getPlugin() {
+		return plugin;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public long getEnqueueTime() {
+		return enqueueTime;
+	}
+
+	public boolean isManual() {
+		return manual;
+	}
+
+	/**
+	 * @return time before which the download must not be retried, 0 if not
+	 *         delayed
+	 */
+	public long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+
+}
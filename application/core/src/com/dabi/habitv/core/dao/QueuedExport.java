@@ -0,0 +1,61 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
+
+/**
+ * Export step of the journal, only the keys of the episode and of its
+ * category are kept : the episode is built again from them on resume.
+ */
+public class QueuedExport implements Serializable {
+
+	private static final long serialVersionUID = -6411382437502863571L;
+
+	private final String plugin;
+
+	private final String categoryId;
+
+	private final String categoryName;
+
+	private final String extension;
+
+	private final HashMap<String, String> parameters;
+
+	private final String episodeName;
+
+	private final String episodeId;
+
+	private final int num;
+
+	private final Integer state;
+
+	public QueuedExport(final EpisodeExportState episodeExportState) {
+		super();
+		final EpisodeDTO episode = episodeExportState.getEpisode();
+		final CategoryDTO category = episode.getCategory();
+		this.plugin = category.getPlugin();
+		this.categoryId = category.getId();
+		this.categoryName = category.getName();
+		this.extension = category.getExtension();
+		this.parameters = new HashMap<>(category.getParameters());
+		this.episodeName = episode.getName();
+		this.episodeId = episode.getId();
+		this.num = episode.getNum();
+		this.state = episodeExportState.getState();
+	}
+
+	/**
+	 * @return the export step, with the episode built again from its keys
+	 */
+	public EpisodeExportState getEpisodeExportState() {
+		final CategoryDTO category = new CategoryDTO(plugin, categoryName, categoryId, extension);
+		category.getParameters().putAll(parameters);
+		final EpisodeDTO episode = new EpisodeDTO(category, episodeName, episodeId);
+		episode.setNum(num);
+		return new EpisodeExportState(episode, state);
+	}
+
+}
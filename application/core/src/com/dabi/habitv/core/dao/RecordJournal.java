@@ -0,0 +1,220 @@
+package com.dabi.habitv.core.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+
+/**
+ * Key/value map persisted as an append only file of length prefixed
+ * serialized records, a put or a remove only appends a record. The file is
+ * rewritten with the live records when most of its records are obsolete, the
+ * expired values are dropped then. A record truncated by a crash is dropped
+ * at load.
+ */
+public class RecordJournal<K extends Serializable, V extends Serializable> {
+
+	private static final Logger LOG = Logger.getLogger(RecordJournal.class);
+
+	private static final int MIN_CHECKPOINT_RECORDS = 64;
+
+	public interface Expiry<V> {
+
+		/**
+		 * @return true if the value can be dropped at the next checkpoint
+		 */
+		boolean isExpired(V value, long now);
+	}
+
+	private final File file;
+
+	private final Expiry<V> expiry;
+
+	private Map<K, V> key2Value = null;
+
+	private int recordCount = 0;
+
+	public RecordJournal(final File file) {
+		this(file, null);
+	}
+
+	public RecordJournal(final File file, final Expiry<V> expiry) {
+		this.file = file;
+		this.expiry = expiry;
+	}
+
+	public synchronized void put(final K key, final V value) {
+		load();
+		key2Value.put(key, value);
+		append(new Record(key, value));
+	}
+
+	public synchronized void remove(final K key) {
+		load();
+		if (key2Value.containsKey(key)) {
+			key2Value.remove(key);
+			append(new Record(key, null));
+		}
+	}
+
+	public synchronized V get(final K key) {
+		load();
+		return key2Value.get(key);
+	}
+
+	/**
+	 * @return the live values in insertion order
+	 */
+	public synchronized Map<K, V> getAll() {
+		load();
+		return new LinkedHashMap<>(key2Value);
+	}
+
+	public synchronized void clear() {
+		key2Value = new LinkedHashMap<>();
+		recordCount = 0;
+		if (file.exists() && !file.delete()) {
+			throw new TechnicalException("can't delete " + file.getAbsolutePath());
+		}
+	}
+
+	private void append(final Record record) {
+		if (recordCount >= MIN_CHECKPOINT_RECORDS && recordCount >= 2 * key2Value.size()) {
+			checkpoint();
+		} else {
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+				writeRecord(out, record);
+			} catch (final IOException e) {
+				throw new TechnicalException(e);
+			}
+			recordCount++;
+		}
+	}
+
+	/**
+	 * Rewrite the file with the live records only.
+	 */
+	private void checkpoint() {
+		if (expiry != null) {
+			final long now = System.currentTimeMillis();
+			final Iterator<V> values = key2Value.values().iterator();
+			while (values.hasNext()) {
+				if (expiry.isExpired(values.next(), now)) {
+					values.remove();
+				}
+			}
+		}
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+				for (final Entry<K, V> entry : key2Value.entrySet()) {
+					writeRecord(out, new Record(entry.getKey(), entry.getValue()));
+				}
+			}
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+		recordCount = key2Value.size();
+	}
+
+	private void writeRecord(final DataOutputStream out, final Record record) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(record);
+		}
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void load() {
+		if (key2Value != null) {
+			return;
+		}
+		key2Value = new LinkedHashMap<>();
+		recordCount = 0;
+		if (!file.exists()) {
+			return;
+		}
+		final long fileLength = file.length();
+		long validLength = 0;
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				final int length = in.readInt();
+				if (length < 0 || length > fileLength - validLength - 4) {
+					// record truncated by a crash
+					throw new EOFException();
+				}
+				final byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				final Record record;
+				try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					record = (Record) ois.readObject();
+				}
+				if (record.value == null) {
+					key2Value.remove(record.key);
+				} else {
+					key2Value.put((K) record.key, (V) record.value);
+				}
+				recordCount++;
+				validLength += 4 + length;
+			}
+		} catch (final EOFException e) {
+			// end of the journal
+		} catch (final IOException | ClassNotFoundException | ClassCastException e) {
+			LOG.warn("Corrupted journal " + file.getAbsolutePath() + ", dropping its tail", e);
+		}
+		if (validLength < fileLength) {
+			truncate(validLength);
+		}
+	}
+
+	private void truncate(final long length) {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		} catch (final IOException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	private static final class Record implements Serializable {
+
+		private static final long serialVersionUID = 5437628514925486104L;
+
+		private final Serializable key;
+
+		private final Serializable value;
+
+		private Record(final Serializable key, final Serializable value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
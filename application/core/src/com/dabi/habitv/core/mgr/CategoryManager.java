@@ -21,6 +21,7 @@ import com.dabi.habitv.core.task.SearchCategoryResult;
 import com.dabi.habitv.core.task.SearchCategoryTask;
 import com.dabi.habitv.core.task.TaskMgr;
 import com.dabi.habitv.core.task.TaskMgrListener;
+import com.dabi.habitv.core.task.TaskRegistry;
 import com.dabi.habitv.core.task.TaskTypeEnum;
 import com.dabi.habitv.utils.DirUtils;
 
@@ -120,4 +121,8 @@ public class CategoryManager extends AbstractManager {
 		searchCategoryMgr.shutdownNow();
 	}
 
+	TaskRegistry<SearchCategoryTask> getTaskRegistry() {
+		return searchCategoryMgr.getRegistry();
+	}
+
 }
@@ -1,5 +1,6 @@
 package com.dabi.habitv.core.mgr;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -7,12 +8,18 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import com.dabi.habitv.api.plugin.api.PluginProviderInterface;
 import com.dabi.habitv.api.plugin.dto.CategoryDTO;
 import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
 import com.dabi.habitv.api.plugin.dto.ProxyDTO;
 import com.dabi.habitv.api.plugin.dto.ProxyDTO.ProtocolEnum;
 import com.dabi.habitv.core.config.HabitTvConf;
 import com.dabi.habitv.core.config.UserConfig;
+import com.dabi.habitv.core.dao.DownloadedDAO;
+import com.dabi.habitv.core.dao.DownloadedStoreConfig;
+import com.dabi.habitv.core.dao.DownloadedStores;
+import com.dabi.habitv.core.task.TaskRegistry;
+import com.dabi.habitv.core.task.TaskTypeEnum;
 import com.dabi.habitv.core.token.TokenReplacer;
 import com.dabi.habitv.framework.FWKProperties;
 import com.dabi.habitv.framework.plugin.utils.RetrieverUtils;
@@ -30,14 +37,24 @@ public final class CoreManager {
 
 	private final PluginManager pluginManager;
 
+	private final int drainTimeout;
+
+	private final DownloadedStores downloadedStores;
+
 	public CoreManager(final UserConfig config) {
 		stat();
 		LOG.info("habitv version " + FWKProperties.getVersion());
 		taskName2PoolSizeMap = config.getTaskDefinition();
+		drainTimeout = config.getDrainTimeout();
+		downloadedStores = new DownloadedStores(config.getIndexDir(), new DownloadedStoreConfig(config.getIndexCommitDelay(),
+				config.getIndexSync(), config.getLargeIndexSize()));
 		TokenReplacer.setCutSize(config.getFileNameCutSize());
 		pluginManager = new PluginManager(config);
+		migrateIndex();
 		episodeManager = new EpisodeManager(pluginManager.getDownloadersHolder(), pluginManager.getExportersHolder(),
-		        pluginManager.getProvidersHolder(), taskName2PoolSizeMap, config.getMaxAttempts(), DirUtils.getAppDir());
+		        pluginManager.getProvidersHolder(), taskName2PoolSizeMap, config.getMaxAttempts(), config.getMaxDownloadPoolSize(),
+		        config.getBandwidthLimit(), config.getDownloadWindows(), config.getOutOfWindowBandwidthLimit(),
+		        config.getDownloadErrorTtl(), downloadedStores, DirUtils.getAppDir());
 		categoryManager = new CategoryManager(pluginManager.getProvidersHolder(), taskName2PoolSizeMap);
 
 		setProxy(config);
@@ -86,6 +103,14 @@ public final class CoreManager {
 		getEpisodeManager().retreiveEpisode(categoriesToGrab);
 	}
 
+	private void migrateIndex() {
+		final List<String> providerNames = new ArrayList<>();
+		for (final PluginProviderInterface provider : pluginManager.getProvidersHolder().getPlugins()) {
+			providerNames.add(provider.getName());
+		}
+		DownloadedDAO.migrateToShards(downloadedStores, providerNames);
+	}
+
 	public Map<String, CategoryDTO> findCategory() {
 		return getCategoryManager().findCategory();
 	}
@@ -101,6 +126,45 @@ public final class CoreManager {
 		if (categoryManager != null) {
 			categoryManager.forceEnd();
 		}
+		downloadedStores.commitAll();
+	}
+
+	/**
+	 * Graceful stop : the running downloads are finished until the drain
+	 * timeout, the others are resumed at the next start.
+	 */
+	public void drain() {
+		if (categoryManager != null) {
+			categoryManager.forceEnd();
+		}
+		if (episodeManager != null && !episodeManager.drain(drainTimeout * 1000L)) {
+			LOG.info("Drain timeout reached, the interrupted downloads will be resumed at the next start");
+		}
+		downloadedStores.commitAll();
+	}
+
+	/**
+	 * Check and compact the downloaded indexes, the deleted categories are
+	 * dropped.
+	 * 
+	 * @return bytes reclaimed
+	 */
+	public long compactIndexes(final Map<String, CategoryDTO> plugin2Categories) {
+		return DownloadedDAO.compactIndexes(downloadedStores, plugin2Categories);
+	}
+
+	/**
+	 * @return path of the directory of the exported indexes
+	 */
+	public String exportIndexes() {
+		return DownloadedDAO.exportIndexes(downloadedStores);
+	}
+
+	/**
+	 * @return path of the exported index of the category
+	 */
+	public String exportIndex(final CategoryDTO category) {
+		return DownloadedDAO.exportIndex(downloadedStores, category);
 	}
 
 	public void reTryExport() {
@@ -111,6 +175,10 @@ public final class CoreManager {
 		episodeManager.reTryExport(pluginList);
 	}
 
+	public void resumeDownloads() {
+		episodeManager.resumeDownloads();
+	}
+
 	public boolean hasExportToResume() {
 		return episodeManager.hasExportToResume();
 	}
@@ -131,6 +199,22 @@ public final class CoreManager {
 		episodeManager.setDownloaded(episode);
 	}
 
+	public void setNotDownloaded(EpisodeDTO episode) {
+		episodeManager.setNotDownloaded(episode);
+	}
+
+	public void resetIndex(CategoryDTO category) {
+		episodeManager.resetIndex(category);
+	}
+
+	public void clearErrors() {
+		episodeManager.clearErrors();
+	}
+
+	public String exportErrors() {
+		return episodeManager.exportErrors();
+	}
+
 	public void restart(EpisodeDTO episode, boolean exportOnly) {
 		episodeManager.restart(episode, exportOnly);
 	}
@@ -147,4 +231,15 @@ public final class CoreManager {
 		episodeManager.cancelTask(episode);
 	}
 
+	/**
+	 * @return the tasks and the queued/running/failed counters of a task
+	 *         type, cheap enough to be polled by the views
+	 */
+	public TaskRegistry<?> getTaskRegistry(final TaskTypeEnum taskType) {
+		if (taskType == TaskTypeEnum.category) {
+			return categoryManager.getTaskRegistry();
+		}
+		return episodeManager.getTaskRegistry(taskType);
+	}
+
 }
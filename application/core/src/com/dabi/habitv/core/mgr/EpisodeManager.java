@@ -2,12 +2,12 @@ package com.dabi.habitv.core.mgr;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
+
 import com.dabi.habitv.api.plugin.api.PluginProviderInterface;
 import com.dabi.habitv.api.plugin.dto.CategoryDTO;
 import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
@@ -16,27 +16,40 @@ import com.dabi.habitv.api.plugin.holder.ExporterPluginHolder;
 import com.dabi.habitv.api.plugin.holder.ProviderPluginHolder;
 import com.dabi.habitv.api.plugin.pub.Publisher;
 import com.dabi.habitv.core.dao.DlErrorDAO;
+import com.dabi.habitv.core.dao.DownloadQueueDAO;
 import com.dabi.habitv.core.dao.DownloadedDAO;
+import com.dabi.habitv.core.dao.DownloadedStores;
 import com.dabi.habitv.core.dao.EpisodeExportState;
 import com.dabi.habitv.core.dao.ExportDAO;
+import com.dabi.habitv.core.dao.HistoryDAO;
+import com.dabi.habitv.core.dao.QueuedDownload;
 import com.dabi.habitv.core.event.EpisodeStateEnum;
 import com.dabi.habitv.core.event.RetreiveEvent;
 import com.dabi.habitv.core.event.SearchEvent;
 import com.dabi.habitv.core.event.SearchStateEnum;
+import com.dabi.habitv.core.task.BandwidthBudget;
+import com.dabi.habitv.core.task.DownloadConcurrencyController;
+import com.dabi.habitv.core.task.DownloadDeduplicator;
+import com.dabi.habitv.core.task.DownloadWindowScheduler;
+import com.dabi.habitv.core.task.DownloadWindows;
 import com.dabi.habitv.core.task.DownloadTask;
 import com.dabi.habitv.core.task.ExportTask;
 import com.dabi.habitv.core.task.RetrieveTask;
+import com.dabi.habitv.core.task.RetryScheduler;
 import com.dabi.habitv.core.task.SearchTask;
 import com.dabi.habitv.core.task.TaskAdResult;
 import com.dabi.habitv.core.task.TaskAdder;
 import com.dabi.habitv.core.task.TaskListener;
 import com.dabi.habitv.core.task.TaskMgr;
 import com.dabi.habitv.core.task.TaskMgrListener;
+import com.dabi.habitv.core.task.TaskRegistry;
 import com.dabi.habitv.core.task.TaskState;
 import com.dabi.habitv.core.task.TaskTypeEnum;
 
 public final class EpisodeManager extends AbstractManager implements TaskAdder {
 
+	private static final Logger LOG = Logger.getLogger(EpisodeManager.class);
+
 	private final TaskMgr<RetrieveTask, Object> retreiveMgr;
 
 	private final TaskMgr<DownloadTask, Object> downloadMgr;
@@ -53,19 +66,41 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 
 	private final Publisher<SearchEvent> searchPublisher;
 
-	private final Set<Integer> runningRetreiveTasks = new HashSet<>();
+	private final DownloadDeduplicator deduplicator = new DownloadDeduplicator();
 
-	private final Map<EpisodeDTO, Integer> downloadAttempts = new HashMap<>();
+	private final RetryScheduler retryScheduler = new RetryScheduler();
 
 	private final ExportDAO exportDAO;
 
+	private final DownloadQueueDAO downloadQueueDAO;
+
+	private final HistoryDAO historyDAO;
+
+	private final DlErrorDAO dlErrorDAO;
+
+	private final DownloadedStores downloadedStores;
+
 	private final Integer maxAttempts;
 
+	private final DownloadConcurrencyController downloadConcurrencyController;
+
+	private final BandwidthBudget bandwidthBudget;
+
+	private final DownloadWindowScheduler downloadWindowScheduler;
+
+	private volatile boolean draining = false;
+
 	EpisodeManager(final DownloaderPluginHolder downloader, final ExporterPluginHolder exporter,
 			final ProviderPluginHolder providerPluginHolder, final Map<String, Integer> taskName2PoolSize, final Integer maxAttempts,
+			final Integer maxDownloadPoolSize, final Integer bandwidthLimit, final String downloadWindows,
+			final Integer outOfWindowBandwidthLimit, final Integer downloadErrorTtl, final DownloadedStores downloadedStores,
 			String appDir) {
 		super(providerPluginHolder);
 		exportDAO = new ExportDAO(appDir);
+		downloadQueueDAO = new DownloadQueueDAO(appDir);
+		historyDAO = new HistoryDAO(appDir);
+		dlErrorDAO = new DlErrorDAO(appDir, downloadErrorTtl);
+		this.downloadedStores = downloadedStores;
 		// task mgrs
 		retreiveMgr = new TaskMgr<RetrieveTask, Object>(TaskTypeEnum.retreive.getPoolSize(taskName2PoolSize),
 				buildRetreiveTaskMgrListener(), taskName2PoolSize);
@@ -75,6 +110,24 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 				taskName2PoolSize);
 		searchMgr = new TaskMgr<SearchTask, Object>(TaskTypeEnum.search.getPoolSize(taskName2PoolSize), buildSearchTaskMgrListener(),
 				taskName2PoolSize);
+		// no adaptive concurrency without a bound
+		final int downloadPoolSize = TaskTypeEnum.download.getPoolSize(taskName2PoolSize);
+		if (maxDownloadPoolSize != null && maxDownloadPoolSize > downloadPoolSize) {
+			downloadConcurrencyController = new DownloadConcurrencyController(downloadMgr, downloadPoolSize, maxDownloadPoolSize);
+			downloadConcurrencyController.start();
+		} else {
+			downloadConcurrencyController = null;
+		}
+		// KB/s in the configuration
+		bandwidthBudget = new BandwidthBudget(bandwidthLimit == null ? 0 : bandwidthLimit * 1024L, downloadPoolSize);
+		bandwidthBudget.attach(downloadMgr);
+		if (downloadWindows != null && !downloadWindows.trim().isEmpty()) {
+			downloadWindowScheduler = new DownloadWindowScheduler(downloadMgr, bandwidthBudget, new DownloadWindows(downloadWindows),
+					outOfWindowBandwidthLimit == null ? null : outOfWindowBandwidthLimit * 1024L);
+			downloadWindowScheduler.start();
+		} else {
+			downloadWindowScheduler = null;
+		}
 		// publisher
 		retreivePublisher = new Publisher<>();
 		searchPublisher = new Publisher<>();
@@ -93,7 +146,7 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 				final Set<CategoryDTO> categories = categoryPlugin.getSubCategories();
 				if (categories != null && !categories.isEmpty()) {
 					searchMgr.addTask(categories, new SearchTask(provider, categories, this, searchPublisher, retreivePublisher,
-							downloader, exporter));
+							downloader, exporter, dlErrorDAO, downloadedStores));
 					oneTask = true;
 				} else {
 					searchPublisher.addNews(new SearchEvent(provider.getName(), SearchStateEnum.DONE));
@@ -167,58 +220,120 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 
 	@Override
 	public TaskAdResult addDownloadTask(final DownloadTask downloadTask, final String channel) {
-		downloadMgr.addTask(downloadTask.getEpisode(), downloadTask, channel);
+		downloadTask.setBandwidthBudget(bandwidthBudget);
+		downloadTask.setHistoryDAO(historyDAO);
+		downloadTask.setListener(new TaskListener() {
+
+			@Override
+			public void onTaskEnded() {
+				downloadQueueDAO.removeDownload(downloadTask.getEpisode());
+				for (final EpisodeDTO duplicate : deduplicator.downloaded(downloadTask.getEpisode())) {
+					setLinkedDownloaded(duplicate);
+				}
+			}
+
+			@Override
+			public void onTaskFailed(final Throwable cause) {
+
+			}
+		});
+		downloadMgr.addTask(DownloadDeduplicator.getTaskKey(downloadTask.getEpisode()), downloadTask, channel);
 		return new TaskAdResult(TaskState.ADDED);
 	}
 
-	private synchronized boolean isRetreiveTaskAdded(final RetrieveTask retreiveTask) {
-		return runningRetreiveTasks.contains(retreiveTask.getEpisode().hashCode());
+	private void setLinkedDownloaded(final EpisodeDTO episode) {
+		LOG.info(episode + " downloaded with the same media of another category");
+		final DownloadedDAO dlDAO = new DownloadedDAO(episode.getCategory(), downloadedStores);
+		dlDAO.addDownloadedFiles(false, episode);
+		retreivePublisher.addNews(new RetreiveEvent(episode, EpisodeStateEnum.DOWNLOADED));
 	}
 
 	@Override
 	public TaskAdResult addRetreiveTask(final RetrieveTask retreiveTask) {
-		final TaskState state;
-		if (!isRetreiveTaskAdded(retreiveTask)) {
-			final Integer attemptsM = downloadAttempts.get(retreiveTask.getEpisode());
-			final Integer attempts = (attemptsM == null) ? 0 : attemptsM;
+		final QueuedDownload queuedDownload = retreiveTask.isExportOnly() ? null : downloadQueueDAO.getDownload(retreiveTask
+				.getEpisode());
+		if (queuedDownload != null && !retreiveTask.isManual()
+				&& queuedDownload.getNextAttemptTime() > System.currentTimeMillis()) {
+			// the retry scheduler will add it
+			return new TaskAdResult(TaskState.DELAYED);
+		}
+		// a manual retrieve or an export resume is never linked to another
+		// download
+		final boolean linkable = !retreiveTask.isManual() && !retreiveTask.isExportOnly();
+		final TaskState state = deduplicator.add(retreiveTask.getEpisode(), linkable);
+		if (state == TaskState.ADDED) {
+			final int attempts = queuedDownload == null ? 0 : queuedDownload.getAttempts();
 
 			retreiveTask.setListener(new TaskListener() {
 
 				@Override
 				public void onTaskEnded() {
-					runningRetreiveTasks.remove(retreiveTask.getEpisode().hashCode());
-					downloadAttempts.remove(retreiveTask.getEpisode());
+					deduplicator.ended(retreiveTask.getEpisode());
+					downloadQueueDAO.removeDownload(retreiveTask.getEpisode());
 				}
 
 				@Override
-				public void onTaskFailed() {
-					runningRetreiveTasks.remove(retreiveTask.getEpisode().hashCode());
-					int newAttempts = attempts + 1;
-					downloadAttempts.put(retreiveTask.getEpisode(), newAttempts);
-					if (tooManyAttempts(newAttempts)) {
-						// reinit counter
-						downloadAttempts.remove(retreiveTask.getEpisode());
-						(new DlErrorDAO()).addDownloadErrorFiles(retreiveTask.getEpisode().getFullNameNoNum());
-						retreivePublisher.addNews(new RetreiveEvent(retreiveTask.getEpisode(), EpisodeStateEnum.TO_MANY_FAILED));
-					}
+				public void onTaskFailed(final Throwable cause) {
+					deduplicator.ended(retreiveTask.getEpisode());
+					retryLater(retreiveTask.getEpisode(), attempts + 1, cause);
 				}
 			});
-			runningRetreiveTasks.add(retreiveTask.getEpisode().hashCode());
-			retreiveMgr.addTask(retreiveTask.getEpisode(), retreiveTask);
-			state = TaskState.ADDED;
-		} else {
-			state = TaskState.ALREADY_ADD;
+			if (!retreiveTask.isExportOnly()) {
+				downloadQueueDAO.addDownload(retreiveTask.getEpisode(), attempts, retreiveTask.isManual());
+			}
+			retreiveMgr.addTask(DownloadDeduplicator.getTaskKey(retreiveTask.getEpisode()), retreiveTask);
+		} else if (state == TaskState.ALREADY_DOWNLOADED) {
+			setLinkedDownloaded(retreiveTask.getEpisode());
 		}
 		return new TaskAdResult(state);
 	}
 
+	private void retryLater(final EpisodeDTO episode, final int attempts, final Throwable cause) {
+		if (draining) {
+			// stopped by the shutdown, resumed as is at the next start
+			return;
+		}
+		if (downloadQueueDAO.getDownload(episode) == null) {
+			// downloaded, the export steps are resumed by the export DAO
+			return;
+		}
+		final boolean permanent = RetryScheduler.isPermanent(cause);
+		if (permanent || tooManyAttempts(attempts)) {
+			downloadQueueDAO.removeDownload(episode);
+			dlErrorDAO.addDownloadError(episode.getFullNameNoNum(), cause, permanent);
+			retreivePublisher.addNews(new RetreiveEvent(episode, EpisodeStateEnum.TO_MANY_FAILED));
+		} else {
+			final long delay = retryScheduler.getDelay(attempts);
+			LOG.info("Retry of " + episode + " in " + delay / 1000 + "s");
+			if (downloadQueueDAO.delayDownload(episode, attempts, System.currentTimeMillis() + delay)) {
+				scheduleRetry(episode, delay);
+			}
+		}
+	}
+
+	private void scheduleRetry(final EpisodeDTO episode, final long delay) {
+		retryScheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				final QueuedDownload queuedDownload = downloadQueueDAO.getDownload(episode);
+				// not downloaded nor added again by a search in the meantime
+				if (queuedDownload != null && queuedDownload.getNextAttemptTime() > 0
+						&& queuedDownload.getNextAttemptTime() <= System.currentTimeMillis()) {
+					resumeDownload(queuedDownload);
+				}
+			}
+		}, delay);
+	}
+
 	private boolean tooManyAttempts(final Integer attempts) {
 		return maxAttempts != null && attempts >= maxAttempts;
 	}
 
 	@Override
 	public TaskAdResult addExportTask(final ExportTask exportTask, final String category) {
-		exportMgr.addTask(exportTask.getEpisode(), exportTask, category);
+		exportTask.setHistoryDAO(historyDAO);
+		exportMgr.addTask(DownloadDeduplicator.getTaskKey(exportTask.getEpisode()), exportTask, category);
 		final EpisodeExportState episodeExportState = new EpisodeExportState(exportTask.getEpisode(), exportTask.getRank());
 		exportDAO.addExportStep(episodeExportState);
 		exportTask.setListener(new TaskListener() {
@@ -229,7 +344,7 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 			}
 
 			@Override
-			public void onTaskFailed() {
+			public void onTaskFailed(final Throwable cause) {
 
 			}
 		});
@@ -244,12 +359,47 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 		return searchPublisher;
 	}
 
+	/**
+	 * Stop the searches and every task not started yet, the running
+	 * downloads and exports are finished until the timeout. The pending
+	 * downloads stay in the download queue to be resumed at the next start.
+	 * 
+	 * @return true if no task was interrupted
+	 */
+	boolean drain(final long timeoutMs) {
+		draining = true;
+		final long deadline = System.currentTimeMillis() + timeoutMs;
+		stopSchedulers();
+		searchMgr.drain(0);
+		// no new step : a running retrieve ends with its running step
+		retreiveMgr.close();
+		downloadMgr.close();
+		exportMgr.close();
+		boolean drained = downloadMgr.drain(timeoutMs);
+		drained &= exportMgr.drain(Math.max(0, deadline - System.currentTimeMillis()));
+		drained &= retreiveMgr.drain(Math.max(0, deadline - System.currentTimeMillis()));
+		forceEnd();
+		return drained;
+	}
+
 	void forceEnd() {
+		stopSchedulers();
+		downloadMgr.shutdownNow();
 		exportMgr.shutdownNow();
 		retreiveMgr.shutdownNow();
 		searchMgr.shutdownNow();
 	}
 
+	private void stopSchedulers() {
+		retryScheduler.stop();
+		if (downloadConcurrencyController != null) {
+			downloadConcurrencyController.stop();
+		}
+		if (downloadWindowScheduler != null) {
+			downloadWindowScheduler.stop();
+		}
+	}
+
 	void reTryExport() {
 		reTryExport(null);
 	}
@@ -263,7 +413,7 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 			final String channel = episodeExportState.getEpisode().getCategory().getPlugin();
 
 			if (pluginList == null || pluginList.isEmpty() || pluginList.contains(channel)) {
-				final DownloadedDAO dlDAO = new DownloadedDAO(episodeExportState.getEpisode().getCategory(), downloader.getIndexDir());
+				final DownloadedDAO dlDAO = new DownloadedDAO(episodeExportState.getEpisode().getCategory(), downloadedStores);
 				final RetrieveTask retreiveTask = new RetrieveTask(episodeExportState.getEpisode(), retreivePublisher, this, exporter,
 						getProviderPluginHolder().getPlugin(channel), downloader, dlDAO, false);
 				retreiveTask.setEpisodeExportState(episodeExportState);
@@ -272,6 +422,35 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 		}
 	}
 
+	/**
+	 * Queue again the downloads interrupted by the last stop, the providers
+	 * are not searched.
+	 */
+	void resumeDownloads() {
+		final long now = System.currentTimeMillis();
+		for (final QueuedDownload queuedDownload : downloadQueueDAO.loadDownloads()) {
+			if (queuedDownload.getNextAttemptTime() > now) {
+				scheduleRetry(queuedDownload.getEpisode(), queuedDownload.getNextAttemptTime() - now);
+			} else {
+				resumeDownload(queuedDownload);
+			}
+		}
+	}
+
+	private void resumeDownload(final QueuedDownload queuedDownload) {
+		final PluginProviderInterface provider = getProviderPluginHolder().getPlugin(queuedDownload.getPlugin(),
+				(PluginProviderInterface) null);
+		final EpisodeDTO episode = queuedDownload.getEpisode();
+		if (provider == null) {
+			LOG.warn("Provider " + queuedDownload.getPlugin() + " not found, " + episode + " removed from the download queue");
+			downloadQueueDAO.removeDownload(episode);
+		} else {
+			final DownloadedDAO dlDAO = new DownloadedDAO(episode.getCategory(), downloadedStores);
+			addRetreiveTask(new RetrieveTask(episode, retreivePublisher, this, exporter, provider, downloader, dlDAO,
+					queuedDownload.isManual()));
+		}
+	}
+
 	public boolean hasExportToResume() {
 		return !exportDAO.loadExportStep().isEmpty();
 	}
@@ -281,13 +460,31 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 	}
 
 	public void setDownloaded(EpisodeDTO episode) {
-		final DownloadedDAO dlDAO = new DownloadedDAO(episode.getCategory(), downloader.getIndexDir());
+		final DownloadedDAO dlDAO = new DownloadedDAO(episode.getCategory(), downloadedStores);
 		dlDAO.addDownloadedFiles(true, episode);
 	}
 
+	public void setNotDownloaded(EpisodeDTO episode) {
+		final DownloadedDAO dlDAO = new DownloadedDAO(episode.getCategory(), downloadedStores);
+		dlDAO.removeDownloadedFiles(episode);
+	}
+
+	public void resetIndex(CategoryDTO category) {
+		final DownloadedDAO dlDAO = new DownloadedDAO(category, downloadedStores);
+		dlDAO.resetIndex();
+	}
+
+	public void clearErrors() {
+		dlErrorDAO.clearErrors();
+	}
+
+	public String exportErrors() {
+		return dlErrorDAO.exportErrors();
+	}
+
 	public void restart(EpisodeDTO episode, boolean exportOnly) {
 		if (episode != null) {
-			final DownloadedDAO dlDAO = new DownloadedDAO(episode.getCategory(), downloader.getIndexDir());
+			final DownloadedDAO dlDAO = new DownloadedDAO(episode.getCategory(), downloadedStores);
 			final RetrieveTask retreiveTask = new RetrieveTask(episode, retreivePublisher, this, exporter, getProviderPluginHolder()
 					.getPlugin(episode.getCategory().getPlugin(), (PluginProviderInterface) null), downloader, dlDAO, true);
 			if (exportOnly) {
@@ -305,13 +502,37 @@ public final class EpisodeManager extends AbstractManager implements TaskAdder {
 	}
 
 	public Set<String> findDownloadedEpisodes(CategoryDTO category) {
-		final DownloadedDAO dlDAO = new DownloadedDAO(category, downloader.getIndexDir());
+		final DownloadedDAO dlDAO = new DownloadedDAO(category, downloadedStores);
 		return dlDAO.findDownloadedFiles();
 	}
 
 	public void cancelTask(EpisodeDTO episode) {
-		retreiveMgr.cancelTask(episode);
-		downloadMgr.cancelTask(episode);
-		exportMgr.cancelTask(episode);
+		downloadQueueDAO.removeDownload(episode);
+		final String taskKey = DownloadDeduplicator.getTaskKey(episode);
+		retreiveMgr.cancelTask(taskKey);
+		downloadMgr.cancelTask(taskKey);
+		exportMgr.cancelTask(taskKey);
+	}
+
+	TaskRegistry<?> getTaskRegistry(final TaskTypeEnum taskType) {
+		final TaskRegistry<?> registry;
+		switch (taskType) {
+		case retreive:
+			registry = retreiveMgr.getRegistry();
+			break;
+		case download:
+			registry = downloadMgr.getRegistry();
+			break;
+		case export:
+			registry = exportMgr.getRegistry();
+			break;
+		case search:
+			registry = searchMgr.getRegistry();
+			break;
+		default:
+			registry = null;
+			break;
+		}
+		return registry;
 	}
 }
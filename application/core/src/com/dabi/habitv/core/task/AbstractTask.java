@@ -1,8 +1,11 @@
 package com.dabi.habitv.core.task;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 import org.apache.log4j.Logger;
 
@@ -16,63 +19,169 @@ abstract class AbstractTask<R> implements Callable<R> {
 
 	private TaskListener listener;
 
-	private Future<R> future;
+	private CompletableFuture<R> future;
 
-	private boolean running = false;
+	private volatile boolean running = false;
 
-	private boolean canceled = false;
+	private volatile boolean canceled = false;
+
+	private volatile Thread runningThread;
+
+	// guarded by this
+	private boolean stopRequested = false;
+
+	private boolean terminating = false;
+
+	private boolean stopped = false;
+
+	private TaskPriorityEnum priority = TaskPriorityEnum.AUTOMATIC;
 
 	@Override
 	public final R call() { // NO_UCD (test only)
-		if (!canceled) {
-			R result;
-			running = true;
-			try {
-				started();
-				Thread.currentThread().setName(toString());
-				result = doCall();
-				if (listener != null) {
-					listener.onTaskEnded();
-				}
-				ended();
-			} catch (final Throwable e) {
-				if (listener != null) {
-					listener.onTaskFailed();
-				}
-				failed(e);
-				throw new TaskFailedException(e);
-			} finally {
-				running = false;
-				if (canceled){
-					canceled();
-				}
+		try {
+			return callAsync().toCompletableFuture().get();
+		} catch (final InterruptedException e) {
+			throw new TechnicalException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
 			}
-			return result;
-		} else {
+			throw new TaskFailedException(e.getCause());
+		}
+	}
+
+	/**
+	 * Start the task on the current thread, the returned stage is completed
+	 * when the task and the tasks it is waiting for are over.
+	 */
+	final CompletionStage<R> callAsync() {
+		if (canceled) {
 			canceled();
-			return null;
+			return CompletableFuture.completedFuture(null);
+		}
+		synchronized (this) {
+			terminating = false;
+			stopped = false;
+		}
+		running = true;
+		CompletionStage<R> stage;
+		runningThread = Thread.currentThread();
+		try {
+			started();
+			Thread.currentThread().setName(toString());
+			stage = doCallAsync();
+		} catch (final Throwable e) {
+			final CompletableFuture<R> failedStage = new CompletableFuture<>();
+			failedStage.completeExceptionally(e);
+			stage = failedStage;
+		} finally {
+			runningThread = null;
+		}
+		return stage.handle(new BiFunction<R, Throwable, R>() {
+
+			@Override
+			public R apply(final R result, final Throwable e) {
+				return terminate(result, e);
+			}
+		});
+	}
+
+	private R terminate(final R result, final Throwable error) {
+		Throwable cause = unwrap(error);
+		final boolean restart;
+		synchronized (this) {
+			terminating = true;
+			restart = stopRequested && cause != null;
+			stopRequested = false;
+			stopped = restart;
+		}
+		try {
+			if (restart) {
+				// neither ended nor failed, the task manager starts it again
+				LOG.info(this + " stopped to be restarted");
+				return null;
+			}
+			if (cause == null) {
+				try {
+					if (listener != null) {
+						listener.onTaskEnded();
+					}
+					ended();
+					return result;
+				} catch (final Throwable e) {
+					cause = e;
+				}
+			}
+			if (listener != null) {
+				listener.onTaskFailed(cause);
+			}
+			failed(cause);
+			throw new TaskFailedException(cause);
+		} finally {
+			running = false;
+			if (canceled) {
+				canceled();
+			}
 		}
 	}
 
+	static Throwable unwrap(final Throwable error) {
+		Throwable cause = error;
+		while (cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+
 	protected abstract void adding();// appelé avant le démarrage du thread
 
 	protected abstract void failed(Throwable e);
 
 	protected abstract void ended();
-	
+
 	protected abstract void canceled();
 
 	protected abstract void started();
 
 	protected abstract R doCall() throws Exception;
 
-	final void addedTo(final String category, final Future<R> future) {
+	/**
+	 * Stop the running task so that it can be started again, called at most
+	 * once by run.
+	 *
+	 * @return false if the task can't be stopped, it goes on then
+	 */
+	protected boolean stop() {
+		return false;
+	}
+
+	/**
+	 * By default the task is over when {@link #doCall()} returns, a task
+	 * delegating its work to other task managers returns a stage instead of
+	 * holding its thread.
+	 */
+	protected CompletionStage<R> doCallAsync() throws Exception {
+		return CompletableFuture.completedFuture(doCall());
+	}
+
+	final void addedTo(final String category, final CompletableFuture<R> future) {
 		this.category = category;
 		this.future = future;
 	}
 
-	void waitEndOfTreatment() {
-		getResult();
+	CompletableFuture<R> getFuture() {
+		return future;
+	}
+
+	/**
+	 * @return stage completed at the end of the task, already completed if the
+	 *         task hasn't been added to a task manager
+	 */
+	CompletionStage<R> whenDone() {
+		if (future == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return future;
 	}
 
 	public R getResult() {
@@ -87,6 +196,14 @@ abstract class AbstractTask<R> implements Callable<R> {
 		return category;
 	}
 
+	public TaskPriorityEnum getPriority() {
+		return priority;
+	}
+
+	void setPriority(final TaskPriorityEnum priority) {
+		this.priority = priority;
+	}
+
 	public void setListener(final TaskListener listener) {
 		this.listener = listener;
 	}
@@ -98,11 +215,53 @@ abstract class AbstractTask<R> implements Callable<R> {
 		return running;
 	}
 
+	protected final boolean isCanceled() {
+		return canceled;
+	}
+
+	protected final synchronized boolean isStopRequested() {
+		return stopRequested;
+	}
+
+	/**
+	 * Stop the task if it is running, its failure is then neither published
+	 * nor reported to the listener.
+	 *
+	 * @return false if the task isn't running or can't be stopped
+	 */
+	final boolean stopToRestart() {
+		synchronized (this) {
+			if (!running || terminating || canceled || stopRequested) {
+				return false;
+			}
+			stopRequested = true;
+		}
+		if (stop()) {
+			return true;
+		}
+		synchronized (this) {
+			stopRequested = false;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the last run has been ended by
+	 *         {@link #stopToRestart()}
+	 */
+	synchronized boolean isStopped() {
+		return stopped;
+	}
+
 	public void cancel() {
 		canceled = true;
 		if (future != null) {
 			future.cancel(true);
 		}
+		final Thread thread = runningThread;
+		if (thread != null) {
+			thread.interrupt();
+		}
 	}
 
 }
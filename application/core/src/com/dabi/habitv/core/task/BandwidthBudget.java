@@ -0,0 +1,139 @@
+package com.dabi.habitv.core.task;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Global download rate shared by the running downloads. A running tool can't
+ * be throttled again, so the rate of a download is fixed when it starts : the
+ * rate not granted yet is split between the downloads starting together and
+ * the slots of the pool still free, a download gives its rate back when it
+ * ends and the next ones share it. The budget gates the dispatch of the
+ * download manager : while nothing is free a download waits in the queue, not
+ * in a thread of the pool, and the queue is dispatched again when a rate is
+ * released or the limit raised. A lower limit only slows down the downloads
+ * starting from then on.
+ */
+public final class BandwidthBudget implements TaskMgr.DispatchGate {
+
+	private long limit;
+
+	private final int shares;
+
+	private long allocated = 0;
+
+	private final Map<Object, Long> holder2Rate = new IdentityHashMap<>();
+
+	private TaskMgr<?, ?> taskMgr = null;
+
+	/**
+	 * @param limit
+	 *            rate in bytes per second, 0 for no limit
+	 * @param shares
+	 *            number of downloads expected to run together, the free rate
+	 *            is kept for the ones not started yet
+	 */
+	public BandwidthBudget(final long limit, final int shares) {
+		super();
+		this.limit = limit;
+		this.shares = Math.max(1, shares);
+	}
+
+	/**
+	 * Gate the dispatch of the manager with the budget.
+	 */
+	public void attach(final TaskMgr<?, ?> downloadMgr) {
+		synchronized (this) {
+			taskMgr = downloadMgr;
+		}
+		downloadMgr.setDispatchGate(this);
+	}
+
+	/**
+	 * Grant its rate to a task about to start.
+	 *
+	 * @param startable
+	 *            number of tasks the manager can start now, this one included
+	 * @return false if the whole rate is granted, the task stays in its queue
+	 */
+	@Override
+	public synchronized boolean admit(final AbstractTask<?> task, final int startable) {
+		return acquire(task, startable) >= 0;
+	}
+
+	@Override
+	public void taskDone(final AbstractTask<?> task) {
+		release(task);
+	}
+
+	/**
+	 * @return rate granted to the holder in bytes per second, 0 for no limit,
+	 *         -1 if nothing is free
+	 */
+	synchronized long acquire(final Object holder, final int startable) {
+		final Long granted = holder2Rate.get(holder);
+		if (granted != null) {
+			return granted;
+		}
+		if (limit <= 0) {
+			return 0;
+		}
+		final long free = limit - allocated;
+		if (free <= 0) {
+			return -1;
+		}
+		final long rate = Math.max(1, free / Math.max(startable, shares - holder2Rate.size()));
+		holder2Rate.put(holder, rate);
+		allocated += rate;
+		return rate;
+	}
+
+	/**
+	 * @return rate granted to the holder at its dispatch, 0 for no limit
+	 */
+	synchronized long getRate(final Object holder) {
+		final Long rate = holder2Rate.get(holder);
+		return rate == null ? 0 : rate;
+	}
+
+	/**
+	 * Give the rate of the holder back, the waiting downloads share it.
+	 */
+	void release(final Object holder) {
+		final TaskMgr<?, ?> downloadMgr;
+		synchronized (this) {
+			final Long rate = holder2Rate.remove(holder);
+			if (rate == null) {
+				return;
+			}
+			allocated -= rate;
+			downloadMgr = taskMgr;
+		}
+		if (downloadMgr != null) {
+			downloadMgr.dispatchWaiting();
+		}
+	}
+
+	public synchronized long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * The new limit applies to the downloads starting from now on, the running
+	 * ones keep their rate until they end or are restarted.
+	 */
+	public void setLimit(final long limit) {
+		final TaskMgr<?, ?> downloadMgr;
+		synchronized (this) {
+			this.limit = limit;
+			downloadMgr = taskMgr;
+		}
+		if (downloadMgr != null) {
+			downloadMgr.dispatchWaiting();
+		}
+	}
+
+	synchronized long getAllocated() {
+		return allocated;
+	}
+}
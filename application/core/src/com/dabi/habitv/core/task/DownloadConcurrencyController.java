@@ -0,0 +1,200 @@
+package com.dabi.habitv.core.task;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Adjust the number of concurrent downloads, per provider and globally, from
+ * the measured throughput : a new download slot is kept only if it brings
+ * more bytes per second, the slots are halved when the throughput collapses.
+ */
+public final class DownloadConcurrencyController {
+
+	private static final Logger LOG = Logger.getLogger(DownloadConcurrencyController.class);
+
+	private static final int SAMPLE_PERIOD_SEC = 20;
+
+	private final TaskMgr<DownloadTask, Object> downloadMgr;
+
+	private final int maxPoolSize;
+
+	private final Climber globalClimber;
+
+	private final Map<String, Climber> category2Climber = new HashMap<>();
+
+	private Map<DownloadTask, Long> task2Bytes = new IdentityHashMap<>();
+
+	private long lastSampleTime;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param poolSize
+	 *            configured pool size, the global pool starts from it and
+	 *            climbs up to the max pool size
+	 */
+	public DownloadConcurrencyController(final TaskMgr<DownloadTask, Object> downloadMgr, final int poolSize,
+			final int maxPoolSize) {
+		super();
+		this.downloadMgr = downloadMgr;
+		this.maxPoolSize = maxPoolSize;
+		globalClimber = new Climber(1, maxPoolSize);
+		downloadMgr.setGlobalPoolSize(poolSize);
+	}
+
+	public synchronized void start() {
+		if (scheduler == null) {
+			lastSampleTime = System.nanoTime();
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "DownloadConcurrencyController");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleAtFixedRate(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						adjust();
+					} catch (final RuntimeException e) {
+						LOG.error("Download concurrency adjustment failed", e);
+					}
+				}
+			}, SAMPLE_PERIOD_SEC, SAMPLE_PERIOD_SEC, TimeUnit.SECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	synchronized void adjust() {
+		final long now = System.nanoTime();
+		final double elapsedSec = (now - lastSampleTime) / 1e9;
+		lastSampleTime = now;
+		if (elapsedSec <= 0) {
+			return;
+		}
+		final Map<String, Long> category2Bytes = new HashMap<>();
+		final Map<DownloadTask, Long> newTask2Bytes = new IdentityHashMap<>();
+		long totalBytes = 0;
+		final TaskRegistry<DownloadTask> registry = downloadMgr.getRegistry();
+		for (final DownloadTask task : registry.getTasks()) {
+			if (task.isRunning()) {
+				final long bytes = task.getDownloadedBytes();
+				final Long previousBytes = task2Bytes.get(task);
+				// the first sample of a task is only the start point, a resumed
+				// or preallocated file isn't downloaded during this period
+				final long delta = previousBytes == null ? 0 : Math.max(0, bytes - previousBytes);
+				newTask2Bytes.put(task, bytes);
+				final Long categoryBytes = category2Bytes.get(task.getCategory());
+				category2Bytes.put(task.getCategory(), (categoryBytes == null ? 0 : categoryBytes) + delta);
+				totalBytes += delta;
+			}
+		}
+		task2Bytes = newTask2Bytes;
+
+		for (final String category : registry.getCategories()) {
+			final long running = registry.getRunningCount(category);
+			Climber climber = category2Climber.get(category);
+			if (climber == null) {
+				climber = new Climber(1, maxPoolSize);
+				category2Climber.put(category, climber);
+			}
+			if (running == 0) {
+				climber.reset();
+			} else {
+				final Long bytes = category2Bytes.get(category);
+				final int poolSize = downloadMgr.getPoolSize(category);
+				final boolean saturated = registry.getQueuedCount(category) > 0 && running >= poolSize;
+				final int newPoolSize = climber.next(poolSize, (bytes == null ? 0 : bytes) / elapsedSec, saturated);
+				if (newPoolSize != poolSize) {
+					LOG.info("Download pool size of " + category + " : " + poolSize + " -> " + newPoolSize);
+					downloadMgr.setPoolSize(category, newPoolSize);
+				}
+			}
+		}
+
+		final long running = registry.getRunningCount();
+		if (running == 0) {
+			globalClimber.reset();
+		} else {
+			final int poolSize = downloadMgr.getGlobalPoolSize();
+			final boolean saturated = registry.getQueuedCount() > 0 && running >= poolSize;
+			final int newPoolSize = globalClimber.next(poolSize, totalBytes / elapsedSec, saturated);
+			if (newPoolSize != poolSize) {
+				LOG.info("Global download pool size : " + poolSize + " -> " + newPoolSize);
+				downloadMgr.setGlobalPoolSize(newPoolSize);
+			}
+		}
+	}
+
+	/**
+	 * Hill climbing on the pool size : add a slot while the pool is saturated,
+	 * step back if the added slot didn't increase the throughput and wait
+	 * before probing again, halve the pool on a throughput collapse.
+	 */
+	static final class Climber {
+
+		private static final double MIN_GAIN = 0.05;
+
+		private static final double COLLAPSE_RATIO = 0.5;
+
+		private static final int HOLD_PERIODS = 10;
+
+		private final int minPoolSize;
+
+		private final int maxPoolSize;
+
+		private double lastThroughput = -1;
+
+		private boolean increased = false;
+
+		private int hold = 0;
+
+		Climber(final int minPoolSize, final int maxPoolSize) {
+			this.minPoolSize = minPoolSize;
+			this.maxPoolSize = maxPoolSize;
+		}
+
+		int next(final int poolSize, final double throughput, final boolean saturated) {
+			int newPoolSize = poolSize;
+			if (increased && throughput < lastThroughput * (1 + MIN_GAIN)) {
+				// the link is saturated, the new slot only splits the bandwidth
+				newPoolSize = poolSize - 1;
+				hold = HOLD_PERIODS;
+			} else if (saturated && lastThroughput > 0 && throughput < lastThroughput * COLLAPSE_RATIO) {
+				newPoolSize = poolSize / 2;
+				hold = HOLD_PERIODS;
+			} else if (hold > 0) {
+				hold--;
+			} else if (saturated) {
+				newPoolSize = poolSize + 1;
+			}
+			newPoolSize = Math.max(minPoolSize, Math.min(maxPoolSize, newPoolSize));
+			increased = newPoolSize > poolSize;
+			lastThroughput = throughput;
+			return newPoolSize;
+		}
+
+		void reset() {
+			lastThroughput = -1;
+			increased = false;
+			hold = 0;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.dabi.habitv.core.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
+
+/**
+ * Retrieve each media once whatever the number of categories listing it : the
+ * episodes are keyed by their normalized id, an episode of another category
+ * is linked to the running retrieve and is set as downloaded with it.
+ */
+public final class DownloadDeduplicator {
+
+	/**
+	 * Medias downloaded in the session remembered, the oldest are then
+	 * checked by the downloaded index of their category only.
+	 */
+	private static final int MAX_DOWNLOADED = 10000;
+
+	private final Map<String, InFlight> contentId2InFlight = new HashMap<>();
+
+	private final Map<String, Boolean> downloadedContentIds = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = -3059716340418478372L;
+
+		@Override
+		protected boolean removeEldestEntry(final Entry<String, Boolean> eldest) {
+			return size() > MAX_DOWNLOADED;
+		}
+	};
+
+	/**
+	 * @param linkable
+	 *            false if the episode must be retrieved even if its media has
+	 *            been downloaded for another category
+	 * @return {@link TaskState#ADDED} if the episode has to be retrieved
+	 */
+	public synchronized TaskState add(final EpisodeDTO episode, final boolean linkable) {
+		final String contentId = getContentId(episode);
+		final InFlight inFlight = contentId2InFlight.get(contentId);
+		final TaskState state;
+		if (inFlight != null) {
+			if (!linkable || isSameEpisode(inFlight.episode, episode) || inFlight.isLinked(episode)) {
+				state = TaskState.ALREADY_ADD;
+			} else if (inFlight.downloaded) {
+				state = TaskState.ALREADY_DOWNLOADED;
+			} else {
+				inFlight.duplicates.add(episode);
+				state = TaskState.LINKED;
+			}
+		} else if (linkable && downloadedContentIds.get(contentId) != null) {
+			state = TaskState.ALREADY_DOWNLOADED;
+		} else {
+			contentId2InFlight.put(contentId, new InFlight(episode));
+			state = TaskState.ADDED;
+		}
+		return state;
+	}
+
+	/**
+	 * @return the episodes of the other categories linked to this download
+	 */
+	public synchronized List<EpisodeDTO> downloaded(final EpisodeDTO episode) {
+		final String contentId = getContentId(episode);
+		downloadedContentIds.put(contentId, Boolean.TRUE);
+		final InFlight inFlight = contentId2InFlight.get(contentId);
+		final List<EpisodeDTO> duplicates;
+		if (inFlight != null && isSameEpisode(inFlight.episode, episode)) {
+			inFlight.downloaded = true;
+			duplicates = new ArrayList<>(inFlight.duplicates);
+			inFlight.duplicates.clear();
+		} else {
+			duplicates = Collections.emptyList();
+		}
+		return duplicates;
+	}
+
+	/**
+	 * The retrieve is over, the episodes still linked will be found again by
+	 * the next search if the download failed.
+	 */
+	public synchronized void ended(final EpisodeDTO episode) {
+		final String contentId = getContentId(episode);
+		final InFlight inFlight = contentId2InFlight.get(contentId);
+		if (inFlight != null && isSameEpisode(inFlight.episode, episode)) {
+			contentId2InFlight.remove(contentId);
+		}
+	}
+
+	/**
+	 * @return key of the episode in the task managers, an episode id is
+	 *         unique only in its category
+	 */
+	public static String getTaskKey(final EpisodeDTO episode) {
+		return episode.getCategory().getPlugin() + "/" + episode.getCategory().getId() + "/" + episode.getId();
+	}
+
+	private static String getContentId(final EpisodeDTO episode) {
+		return episode.getId() == null ? episode.getFullNameNoNum() : normalizeContentId(episode.getId());
+	}
+
+	private static boolean isSameEpisode(final EpisodeDTO episode, final EpisodeDTO other) {
+		return episode.equals(other) && episode.getCategory().equals(other.getCategory());
+	}
+
+	/**
+	 * The scheme, the www prefix, the case of the host, the fragment and the
+	 * trailing slash don't identify the media.
+	 */
+	static String normalizeContentId(final String id) {
+		String contentId = id.trim().replaceFirst("^(?i)https?://(www\\.)?", "");
+		final int fragmentIndex = contentId.indexOf('#');
+		if (fragmentIndex >= 0) {
+			contentId = contentId.substring(0, fragmentIndex);
+		}
+		final int pathIndex = contentId.indexOf('/');
+		if (pathIndex > 0) {
+			contentId = contentId.substring(0, pathIndex).toLowerCase(Locale.ENGLISH) + contentId.substring(pathIndex);
+		}
+		while (contentId.endsWith("/")) {
+			contentId = contentId.substring(0, contentId.length() - 1);
+		}
+		return contentId;
+	}
+
+	private static final class InFlight {
+
+		private final EpisodeDTO episode;
+
+		private final List<EpisodeDTO> duplicates = new ArrayList<>();
+
+		private boolean downloaded = false;
+
+		private InFlight(final EpisodeDTO episode) {
+			this.episode = episode;
+		}
+
+		private boolean isLinked(final EpisodeDTO episode) {
+			for (final EpisodeDTO duplicate : duplicates) {
+				if (isSameEpisode(duplicate, episode)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -16,7 +16,9 @@ import com.dabi.habitv.api.plugin.exception.TechnicalException;
 import com.dabi.habitv.api.plugin.holder.DownloaderPluginHolder;
 import com.dabi.habitv.api.plugin.holder.ProcessHolder;
 import com.dabi.habitv.api.plugin.pub.Publisher;
+import com.dabi.habitv.core.dao.DownloadHistory;
 import com.dabi.habitv.core.dao.DownloadedDAO;
+import com.dabi.habitv.core.dao.HistoryDAO;
 import com.dabi.habitv.core.event.EpisodeStateEnum;
 import com.dabi.habitv.core.event.RetreiveEvent;
 import com.dabi.habitv.core.token.TokenReplacer;
@@ -36,6 +38,29 @@ public class DownloadTask extends AbstractEpisodeTask {
 
 	private boolean manual;
 
+	private volatile String outputFileName;
+
+	private volatile String outputTmpFileName;
+
+	private volatile ProcessHolder processHolder;
+
+	// last sample of the progress, read by the concurrency controller only
+	private long sampledLength = -1;
+
+	private double sampledProgression = -1;
+
+	private boolean preallocated = false;
+
+	private BandwidthBudget bandwidthBudget;
+
+	private HistoryDAO historyDAO = null;
+
+	private long startTime = 0;
+
+	private volatile String downloaderName;
+
+	private long outputBytes = 0;
+
 	public DownloadTask(final EpisodeDTO episode,
 			final PluginProviderInterface provider,
 			final DownloaderPluginHolder downloaders,
@@ -47,6 +72,9 @@ public class DownloadTask extends AbstractEpisodeTask {
 		this.publisher = publisher;
 		this.downloadedDAO = downloadedDAO;
 		this.manual = manual;
+		if (manual) {
+			setPriority(TaskPriorityEnum.MANUAL);
+		}
 	}
 
 	@Override
@@ -57,6 +85,7 @@ public class DownloadTask extends AbstractEpisodeTask {
 	@Override
 	protected void failed(final Throwable e) {
 		LOG.error("Download failed for " + getEpisode(), e);
+		addHistory(e);
 		if (e instanceof ExecutorStoppedException) {
 			publisher.addNews(new RetreiveEvent(getEpisode(),
 					EpisodeStateEnum.STOPPED, e, "download"));
@@ -70,6 +99,7 @@ public class DownloadTask extends AbstractEpisodeTask {
 	protected void ended() {
 		LOG.info("Download of " + getEpisode() + " done");
 		downloadedDAO.addDownloadedFiles(manual, getEpisode());
+		addHistory(null);
 		publisher.addNews(new RetreiveEvent(getEpisode(),
 				EpisodeStateEnum.DOWNLOADED));
 	}
@@ -77,6 +107,17 @@ public class DownloadTask extends AbstractEpisodeTask {
 	@Override
 	protected void started() {
 		LOG.info("Download of " + getEpisode() + " is starting");
+		startTime = System.currentTimeMillis();
+	}
+
+	private void addHistory(final Throwable error) {
+		if (startTime == 0 || historyDAO == null) {
+			return;
+		}
+		final CategoryDTO category = getEpisode().getCategory();
+		historyDAO.addHistory(new DownloadHistory(getEpisode().getId(), getEpisode().getName(), category.getPlugin(), category
+				.getName(), DownloadHistory.DOWNLOAD_STEP, downloaderName, startTime, System.currentTimeMillis() - startTime,
+				error == null ? outputBytes : getOutputLength(), error == null ? null : error.toString()));
 	}
 
 	@Override
@@ -86,11 +127,24 @@ public class DownloadTask extends AbstractEpisodeTask {
 				EpisodeStateEnum.STOPPED));
 	}
 
+	/**
+	 * Stop the downloader, the download starts again from scratch.
+	 */
+	@Override
+	protected boolean stop() {
+		final ProcessHolder holder = processHolder;
+		if (holder != null) {
+			holder.stop();
+		}
+		return true;
+	}
+
 	@Override
 	protected Object doCall() throws DownloadFailedException {
 		final String outputFilename = TokenReplacer.replaceAll(
 				downloaders.getDownloadOutput(), getEpisode());
-		final String outputTmpFileName = outputFilename + TMP;
+		outputFileName = outputFilename;
+		outputTmpFileName = outputFilename + TMP;
 		// delete to prevent resuming since most of the download can't resume
 		final File outputFile = new File(outputFilename);
 		// create download dir if doesn't exist
@@ -104,7 +158,13 @@ public class DownloadTask extends AbstractEpisodeTask {
 						+ outputFile.getAbsolutePath());
 			}
 		}
-		download(outputTmpFileName);
+		try {
+			download(outputTmpFileName);
+		} finally {
+			if (bandwidthBudget != null) {
+				bandwidthBudget.release(this);
+			}
+		}
 		File file = new File(outputTmpFileName);
 		if (!file.exists()) {
 			file = findFileWithoutExtension(outputFilename);
@@ -114,9 +174,74 @@ public class DownloadTask extends AbstractEpisodeTask {
 		} catch (IOException e) {
 			throw new TechnicalException(e);
 		}
+		outputBytes = new File(outputFilename).length();
 		return null;
 	}
 
+	/**
+	 * @return bytes downloaded so far, 0 if not started. The size of the file
+	 *         is used unless it has been preallocated : it doesn't grow while
+	 *         the downloader reports a progression, the part of the file
+	 *         given by this progression is then used.
+	 */
+	long getDownloadedBytes() {
+		final long length = getOutputLength();
+		final double progression = getProgression();
+		if (!preallocated && length > 0 && length == sampledLength
+				&& progression > sampledProgression && sampledProgression >= 0) {
+			preallocated = true;
+		}
+		sampledLength = length;
+		sampledProgression = progression;
+		if (preallocated && progression >= 0) {
+			return (long) (length * progression / 100);
+		}
+		return length;
+	}
+
+	private long getOutputLength() {
+		final String tmpFileName = outputTmpFileName;
+		if (tmpFileName == null) {
+			return 0;
+		}
+		final File tmpFile = new File(tmpFileName);
+		if (tmpFile.exists()) {
+			return tmpFile.length();
+		}
+		// renamed by the downloader
+		try {
+			final File file = findFileWithoutExtension(outputFileName);
+			return file == null ? 0 : file.length();
+		} catch (final RuntimeException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return percentage reported by the downloader, -1 if unknown
+	 */
+	private double getProgression() {
+		final ProcessHolder holder = processHolder;
+		final String progression = holder == null ? null : holder
+				.getProgression();
+		if (progression == null) {
+			return -1;
+		}
+		try {
+			return Double.parseDouble(progression.replace("%", "").trim());
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	public void setBandwidthBudget(final BandwidthBudget bandwidthBudget) {
+		this.bandwidthBudget = bandwidthBudget;
+	}
+
+	public void setHistoryDAO(final HistoryDAO historyDAO) {
+		this.historyDAO = historyDAO;
+	}
+
 	static File findFileWithoutExtension(String outputFilename) {
 		int lastIndexOfSlash = outputFilename.lastIndexOf("/");
 		String folder = outputFilename.substring(
@@ -141,6 +266,10 @@ public class DownloadTask extends AbstractEpisodeTask {
 	private ProcessHolder download(final String outputTmpFileName)
 			throws DownloadFailedException {
 		final DownloadParamDTO downloadParam = buildDownloadParam(outputTmpFileName);
+		if (bandwidthBudget != null) {
+			// granted when the task has been dispatched
+			downloadParam.setMaxRate(bandwidthBudget.getRate(this));
+		}
 
 		final PluginDownloaderInterface downloader;
 		if (PluginDownloaderInterface.class.isInstance(provider)) {
@@ -149,14 +278,26 @@ public class DownloadTask extends AbstractEpisodeTask {
 			downloader = DownloadUtils
 					.getDownloader(downloadParam, downloaders);
 		}
+		downloaderName = downloader.getName();
 		ProcessHolder downloadProcessHolder = downloader.download(
 				downloadParam, downloaders);
+		processHolder = downloadProcessHolder;
+		// stopped before the downloader could be
+		checkNotStopped(downloadParam);
 		publisher.addNews(new RetreiveEvent(getEpisode(),
 				EpisodeStateEnum.DOWNLOAD_STARTING, downloadProcessHolder));
 		downloadProcessHolder.start();
+		// the file of a stopped download is incomplete
+		checkNotStopped(downloadParam);
 		return downloadProcessHolder;
 	}
 
+	private void checkNotStopped(final DownloadParamDTO downloadParam) {
+		if (isStopRequested()) {
+			throw new ExecutorStoppedException(downloadParam.getDownloadInput());
+		}
+	}
+
 	private DownloadParamDTO buildDownloadParam(final String outputTmpFileName) {
 		final CategoryDTO category = getEpisode().getCategory();
 		final DownloadParamDTO downloadParam = new DownloadParamDTO(
@@ -0,0 +1,114 @@
+package com.dabi.habitv.core.task;
+
+import java.time.LocalTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Open and close the download windows : in a window the downloads run at the
+ * configured rate, outside they run at the reduced rate if any or wait in the
+ * queue until the next window. A running downloader can't be slowed down, the
+ * downloads running when the window closes are stopped and put back in the
+ * queue, they start again from scratch at the reduced rate or at the next
+ * window. The manual downloads are never held nor stopped.
+ */
+public final class DownloadWindowScheduler {
+
+	private static final Logger LOG = Logger.getLogger(DownloadWindowScheduler.class);
+
+	private static final int CHECK_PERIOD_SEC = 30;
+
+	private final TaskMgr<DownloadTask, Object> downloadMgr;
+
+	private final BandwidthBudget bandwidthBudget;
+
+	private final DownloadWindows windows;
+
+	private final long windowRate;
+
+	private final Long outOfWindowRate;
+
+	private Boolean open = null;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param outOfWindowRate
+	 *            rate in bytes per second outside the windows, null to hold
+	 *            the downloads
+	 */
+	public DownloadWindowScheduler(final TaskMgr<DownloadTask, Object> downloadMgr, final BandwidthBudget bandwidthBudget,
+			final DownloadWindows windows, final Long outOfWindowRate) {
+		super();
+		this.downloadMgr = downloadMgr;
+		this.bandwidthBudget = bandwidthBudget;
+		this.windows = windows;
+		this.windowRate = bandwidthBudget.getLimit();
+		this.outOfWindowRate = outOfWindowRate;
+	}
+
+	public synchronized void start() {
+		if (scheduler == null) {
+			update(LocalTime.now());
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "DownloadWindowScheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			scheduler.scheduleAtFixedRate(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						update(LocalTime.now());
+					} catch (final RuntimeException e) {
+						LOG.error("Download window update failed", e);
+					}
+				}
+			}, CHECK_PERIOD_SEC, CHECK_PERIOD_SEC, TimeUnit.SECONDS);
+		}
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	synchronized void update(final LocalTime time) {
+		final boolean nowOpen = windows.isOpen(time);
+		if (open == null || open != nowOpen) {
+			open = nowOpen;
+			if (nowOpen) {
+				LOG.info("Download window opened");
+				bandwidthBudget.setLimit(windowRate);
+				// the held downloads start at once
+				downloadMgr.resume();
+			} else if (outOfWindowRate == null) {
+				LOG.info("Download window closed, downloads are held");
+				downloadMgr.pause();
+				restartRunning();
+			} else {
+				LOG.info("Download window closed, downloads are slowed down");
+				bandwidthBudget.setLimit(outOfWindowRate);
+				restartRunning();
+			}
+		}
+	}
+
+	private void restartRunning() {
+		final int stopped = downloadMgr.restartRunning();
+		if (stopped > 0) {
+			LOG.info(stopped + " running downloads stopped, they will start again");
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.dabi.habitv.core.task;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+
+/**
+ * Time slots of the day allowed for the automatic downloads, written
+ * "01:00-07:00" or "22:30-06:00,12:00-14:00". A slot can go over midnight.
+ */
+public final class DownloadWindows {
+
+	private final List<LocalTime[]> windows = new ArrayList<>();
+
+	public DownloadWindows(final String windowsDef) {
+		super();
+		for (final String windowDef : windowsDef.split(",")) {
+			final String[] bounds = windowDef.trim().split("-");
+			if (bounds.length != 2) {
+				throw new TechnicalException("invalid download window " + windowDef);
+			}
+			try {
+				windows.add(new LocalTime[] { LocalTime.parse(bounds[0].trim()), LocalTime.parse(bounds[1].trim()) });
+			} catch (final DateTimeParseException e) {
+				throw new TechnicalException(e);
+			}
+		}
+	}
+
+	public boolean isOpen(final LocalTime time) {
+		for (final LocalTime[] window : windows) {
+			final LocalTime start = window[0];
+			final LocalTime end = window[1];
+			final boolean open;
+			if (start.isBefore(end)) {
+				open = !time.isBefore(start) && time.isBefore(end);
+			} else {
+				// over midnight
+				open = !time.isBefore(start) || time.isBefore(end);
+			}
+			if (open) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
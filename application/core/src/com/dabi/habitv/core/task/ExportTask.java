@@ -6,6 +6,8 @@ import com.dabi.habitv.api.plugin.dto.ExportDTO;
 import com.dabi.habitv.api.plugin.exception.ExportFailedException;
 import com.dabi.habitv.api.plugin.holder.ProcessHolder;
 import com.dabi.habitv.api.plugin.pub.Publisher;
+import com.dabi.habitv.core.dao.DownloadHistory;
+import com.dabi.habitv.core.dao.HistoryDAO;
 import com.dabi.habitv.core.event.EpisodeStateEnum;
 import com.dabi.habitv.core.event.RetreiveEvent;
 import com.dabi.habitv.core.token.TokenReplacer;
@@ -20,6 +22,10 @@ public class ExportTask extends AbstractEpisodeTask {
 
 	private final int rank;
 
+	private HistoryDAO historyDAO = null;
+
+	private long startTime = 0;
+
 	public ExportTask(final EpisodeDTO episode, final ExportDTO export,
 			final PluginExporterInterface pluginExporter,
 			final Publisher<RetreiveEvent> publisher, final int rank) {
@@ -42,6 +48,7 @@ public class ExportTask extends AbstractEpisodeTask {
 		LOG.error(
 				"Episode failed to export " + getEpisode() + " "
 						+ export.getName(), e);
+		addHistory(e);
 		publisher.addNews(new RetreiveEvent(getEpisode(),
 				EpisodeStateEnum.EXPORT_FAILED, e, export.getOutput()));
 	}
@@ -50,12 +57,26 @@ public class ExportTask extends AbstractEpisodeTask {
 	protected void ended() {
 		LOG.error("Episode export ended" + getEpisode() + " "
 				+ export.getName());
+		addHistory(null);
 	}
 
 	@Override
 	protected void started() {
 		LOG.error("Episode export starting" + getEpisode() + " "
 				+ export.getName());
+		startTime = System.currentTimeMillis();
+	}
+
+	private void addHistory(final Throwable error) {
+		if (startTime == 0 || historyDAO == null) {
+			return;
+		}
+		historyDAO.addHistory(new DownloadHistory(getEpisode().getId(),
+				getEpisode().getName(), getEpisode().getCategory().getPlugin(),
+				getEpisode().getCategory().getName(), export.getName(),
+				pluginExporter.getName(), startTime,
+				System.currentTimeMillis() - startTime, 0,
+				error == null ? null : error.toString()));
 	}
 
 	@Override
@@ -98,6 +119,10 @@ public class ExportTask extends AbstractEpisodeTask {
 				+ pluginExporter.getName();
 	}
 
+	public void setHistoryDAO(final HistoryDAO historyDAO) {
+		this.historyDAO = historyDAO;
+	}
+
 	public int getRank() {
 		return rank;
 	}
@@ -1,7 +1,10 @@
 package com.dabi.habitv.core.task;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
 import com.dabi.habitv.api.plugin.api.PluginExporterInterface;
 import com.dabi.habitv.api.plugin.api.PluginProviderInterface;
@@ -37,6 +40,11 @@ public class RetrieveTask extends AbstractEpisodeTask {
 
 	private final boolean manual;
 
+	/**
+	 * Download or export currently waited for, canceled with the retrieve.
+	 */
+	private volatile AbstractEpisodeTask currentStep = null;
+
 	public RetrieveTask(final EpisodeDTO episode,
 			final Publisher<RetreiveEvent> publisher,
 			final TaskAdder taskAdder, final ExporterPluginHolder exporter,
@@ -52,6 +60,9 @@ public class RetrieveTask extends AbstractEpisodeTask {
 		this.downloaders = downloaders;
 		this.episodeExportState = null;
 		this.manual = manual;
+		if (manual) {
+			setPriority(TaskPriorityEnum.MANUAL);
+		}
 	}
 
 	@Override
@@ -80,39 +91,80 @@ public class RetrieveTask extends AbstractEpisodeTask {
 
 	@Override
 	protected Object doCall() throws InterruptedException, ExecutionException {
-		if (!exportOnly()) {
+		return doCallAsync().toCompletableFuture().get();
+	}
+
+	/**
+	 * Chain the download and the exports without holding the thread, each
+	 * step is run by the task manager of its type.
+	 */
+	@Override
+	protected CompletionStage<Object> doCallAsync() {
+		final CompletionStage<Object> downloaded;
+		if (isExportOnly()) {
+			downloaded = CompletableFuture.completedFuture(null);
+		} else {
 			check();
-			download();
+			downloaded = download();
 		}
-		export(exporter.getExporterList());
-		return null;
+		return downloaded.thenCompose(new Function<Object, CompletionStage<Object>>() {
+
+			@Override
+			public CompletionStage<Object> apply(final Object result) {
+				return export(exporter.getExporterList());
+			}
+		});
 	}
 
-	private boolean exportOnly() {
+	public boolean isExportOnly() {
 		return episodeExportState != null;
 	}
 
-	private void export(final List<ExportDTO> exporterList)
-			throws InterruptedException, ExecutionException {
+	public boolean isManual() {
+		return manual;
+	}
+
+	private CompletionStage<Object> export(final List<ExportDTO> exporterList) {
+		CompletionStage<Object> stage = CompletableFuture.completedFuture(null);
 		int i = 0;
 		for (final ExportDTO export : exporterList) {
 			if (validCondition(export, getEpisode()) && episodeExportResume(i)) {
-				final PluginExporterInterface pluginexporter = exporter
-						.getPlugin(export.getName(),
-								HabitTvConf.DEFAULT_EXPORTER);
-
-				final ExportTask exportTask = new ExportTask(getEpisode(),
-						export, pluginexporter, retreivePublisher, i);
-				taskAdder.addExportTask(exportTask, export.getName());
-				// wait for the current exportTask before running an other
-				exportTask.waitEndOfTreatment();
-				// sub export tasks are run asynchronously
-				if (!export.getExporter().isEmpty()) {
-					export(export.getExporter());
-				}
+				final int rank = i;
+				// each export waits for the previous one
+				stage = stage.thenCompose(new Function<Object, CompletionStage<Object>>() {
+
+					@Override
+					public CompletionStage<Object> apply(final Object result) {
+						return export(export, rank);
+					}
+				});
 			}
 			i++;
 		}
+		return stage;
+	}
+
+	private CompletionStage<Object> export(final ExportDTO export, final int rank) {
+		final PluginExporterInterface pluginexporter = exporter.getPlugin(
+				export.getName(), HabitTvConf.DEFAULT_EXPORTER);
+
+		final ExportTask exportTask = new ExportTask(getEpisode(), export,
+				pluginexporter, retreivePublisher, rank);
+		exportTask.setPriority(getPriority());
+		currentStep = exportTask;
+		taskAdder.addExportTask(exportTask, export.getName());
+		final CompletionStage<Object> exported = whenStepDone(exportTask);
+		if (export.getExporter().isEmpty()) {
+			return exported;
+		}
+		// sub exports are run when the current export is done
+		return exported.thenCompose(new Function<Object, CompletionStage<Object>>() {
+
+			@Override
+			public CompletionStage<Object> apply(final Object result) {
+				return export(export.getExporter());
+			}
+		});
 	}
 
 	private boolean episodeExportResume(final int i) {
@@ -133,12 +185,28 @@ public class RetrieveTask extends AbstractEpisodeTask {
 		return ret;
 	}
 
-	private void download() {
+	private CompletionStage<Object> download() {
 		final DownloadTask downloadTask = new DownloadTask(getEpisode(),
 				provider, downloaders, retreivePublisher, downloadDAO, manual);
+		downloadTask.setPriority(getPriority());
+		currentStep = downloadTask;
 		taskAdder.addDownloadTask(downloadTask, getEpisode().getCategory()
 				.getPlugin());
-		downloadTask.waitEndOfTreatment();
+		return whenStepDone(downloadTask);
+	}
+
+	/**
+	 * @return stage of the step, canceled with the step if the retrieve has
+	 *         been canceled meanwhile so that the next steps are not added
+	 */
+	private CompletionStage<Object> whenStepDone(final AbstractEpisodeTask step) {
+		if (isCanceled()) {
+			step.cancel();
+			final CompletableFuture<Object> canceled = new CompletableFuture<>();
+			canceled.cancel(false);
+			return canceled;
+		}
+		return step.whenDone();
 	}
 
 	private void check() {
@@ -157,6 +225,18 @@ public class RetrieveTask extends AbstractEpisodeTask {
 	public void setEpisodeExportState(
 			final EpisodeExportState episodeExportState) {
 		this.episodeExportState = episodeExportState;
+		if (!manual) {
+			setPriority(TaskPriorityEnum.RESUME_EXPORT);
+		}
+	}
+
+	@Override
+	public void cancel() {
+		super.cancel();
+		final AbstractEpisodeTask step = currentStep;
+		if (step != null) {
+			step.cancel();
+		}
 	}
 
 	@Override
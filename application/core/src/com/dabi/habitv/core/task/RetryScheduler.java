@@ -0,0 +1,125 @@
+package com.dabi.habitv.core.task;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.dabi.habitv.api.plugin.exception.ExecutorFailedException;
+import com.dabi.habitv.api.plugin.exception.InvalidEpisodeException;
+
+/**
+ * Delay the retries of the failed downloads : the delay doubles at each
+ * attempt with a random part so that the retries of a provider are spread,
+ * the errors meaning the media doesn't exist are never retried.
+ */
+public final class RetryScheduler {
+
+	private static final Logger LOG = Logger.getLogger(RetryScheduler.class);
+
+	private static final long BASE_DELAY_MS = 10 * 60 * 1000L;
+
+	private static final long MAX_DELAY_MS = 24 * 60 * 60 * 1000L;
+
+	// curl, youtube-dl, ffmpeg, aria2 and java.net way to report a missing
+	// media
+	private static final Pattern NOT_FOUND_PATTERN = Pattern.compile(
+			"(?i)(http error|returned error:|server returned|status=|response code:)\\s*(404|410)\\b");
+
+	private final long baseDelay;
+
+	private final long maxDelay;
+
+	private final Random random;
+
+	private ScheduledExecutorService scheduler;
+
+	public RetryScheduler() {
+		this(BASE_DELAY_MS, MAX_DELAY_MS, new Random());
+	}
+
+	RetryScheduler(final long baseDelay, final long maxDelay, final Random random) {
+		super();
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.random = random;
+	}
+
+	/**
+	 * @return true if retrying won't help : invalid episode or media missing
+	 *         on the provider side, a local error such as a file that can't be
+	 *         written is always retried
+	 */
+	public static boolean isPermanent(final Throwable error) {
+		Throwable cause = error;
+		while (cause != null) {
+			if (cause instanceof InvalidEpisodeException) {
+				return true;
+			}
+			if (cause instanceof ExecutorFailedException) {
+				final ExecutorFailedException executorError = (ExecutorFailedException) cause;
+				if (isNotFound(executorError.getLastLine()) || isNotFound(executorError.getFullOuput())) {
+					return true;
+				}
+			} else if (isNotFound(cause.getMessage())) {
+				return true;
+			}
+			cause = cause.getCause() == cause ? null : cause.getCause();
+		}
+		return false;
+	}
+
+	private static boolean isNotFound(final String output) {
+		return output != null && NOT_FOUND_PATTERN.matcher(output).find();
+	}
+
+	/**
+	 * @return delay in ms before the next attempt, between the half and the
+	 *         whole of the exponential delay
+	 */
+	public long getDelay(final int attempts) {
+		long delay = baseDelay;
+		for (int i = 1; i < attempts && delay < maxDelay; i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, maxDelay);
+		final long half = delay / 2;
+		return half + (long) (random.nextDouble() * (delay - half));
+	}
+
+	public synchronized void schedule(final Runnable retry, final long delay) {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "RetryScheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					retry.run();
+				} catch (final RuntimeException e) {
+					LOG.error("Retry failed", e);
+				}
+			}
+		}, Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package com.dabi.habitv.core.task;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -12,6 +14,7 @@ import com.dabi.habitv.api.plugin.holder.DownloaderPluginHolder;
 import com.dabi.habitv.api.plugin.holder.ExporterPluginHolder;
 import com.dabi.habitv.api.plugin.pub.Publisher;
 import com.dabi.habitv.core.dao.DlErrorDAO;
+import com.dabi.habitv.core.dao.DownloadedStores;
 import com.dabi.habitv.core.dao.DownloadedDAO;
 import com.dabi.habitv.core.event.RetreiveEvent;
 import com.dabi.habitv.core.event.SearchEvent;
@@ -34,11 +37,16 @@ public class SearchTask extends AbstractTask<Object> {
 
 	private final ExporterPluginHolder exporter;
 
+	private final DlErrorDAO errorDAO;
+
+	private final DownloadedStores downloadedStores;
+
 	private static final Logger LOG = Logger.getLogger(SearchTask.class);
 
 	public SearchTask(final PluginProviderInterface provider, final Set<CategoryDTO> categoryDTOs, final TaskAdder taskAdder,
 			final Publisher<SearchEvent> searchPublisher, final Publisher<RetreiveEvent> retreivePublisher,
-			final DownloaderPluginHolder downloader, final ExporterPluginHolder exporter) {
+			final DownloaderPluginHolder downloader, final ExporterPluginHolder exporter, final DlErrorDAO errorDAO,
+			final DownloadedStores downloadedStores) {
 		this.provider = provider;
 		this.categoryDTOs = categoryDTOs;
 		this.taskAdder = taskAdder;
@@ -46,6 +54,8 @@ public class SearchTask extends AbstractTask<Object> {
 		this.retreivePublisher = retreivePublisher;
 		this.downloader = downloader;
 		this.exporter = exporter;
+		this.errorDAO = errorDAO;
+		this.downloadedStores = downloadedStores;
 	}
 
 	@Override
@@ -93,10 +103,6 @@ public class SearchTask extends AbstractTask<Object> {
 			final DownloadedDAO dlDAO = buildDownloadDAO(category);
 			final Set<String> dlFiles = dlDAO.findDownloadedFiles();
 			final boolean indexCreated = dlDAO.isIndexCreated();
-			// dao to find error download episodes
-			final DlErrorDAO errorDAO = new DlErrorDAO();
-			final Set<String> errorFiles = errorDAO.findDownloadedErrorFiles();
-
 			// get list of downloadable episodes
 			final Set<EpisodeDTO> episodeList = provider.findEpisode(category);
 			if (!indexCreated && !episodeList.isEmpty()) {
@@ -111,11 +117,12 @@ public class SearchTask extends AbstractTask<Object> {
 			// downloaded
 			boolean isDownloaded;
 			boolean isErrorDownloaded;
+			final List<EpisodeDTO> toIndex = new ArrayList<>();
 			int i = 0;
 			for (final EpisodeDTO episode : episodeList) {
 				episode.setNum(i);
 				isDownloaded = dlFiles.contains(episode.getName());
-				isErrorDownloaded = errorFiles.contains(episode.getFullNameNoNum());
+				isErrorDownloaded = errorDAO.isDownloadError(episode.getFullNameNoNum());
 				if (indexCreated && FilterUtils.filterByIncludeExcludeAndDownloaded(episode, category.getInclude(), category.getExclude())
 						&& !isDownloaded && !isErrorDownloaded) {
 					// producer download the file
@@ -127,11 +134,15 @@ public class SearchTask extends AbstractTask<Object> {
 					// only
 					// fill this file
 					if (!isDownloaded && !isErrorDownloaded) {
-						dlDAO.addDownloadedFiles(false, episode);
+						toIndex.add(episode);
 					}
 				}
 				i++;
 			}
+			// the whole index is written at once
+			if (!toIndex.isEmpty()) {
+				dlDAO.addDownloadedFiles(false, toIndex.toArray(new EpisodeDTO[toIndex.size()]));
+			}
 		} else {
 			LOG.info("La catégorie n'est pas téléchargeable : " + category);
 		}
@@ -143,7 +154,7 @@ public class SearchTask extends AbstractTask<Object> {
 	}
 
 	protected DownloadedDAO buildDownloadDAO(final CategoryDTO category) {
-		return new DownloadedDAO(category, downloader.getIndexDir());
+		return new DownloadedDAO(category, downloadedStores);
 	}
 
 	@Override
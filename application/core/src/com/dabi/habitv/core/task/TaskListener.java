@@ -4,6 +4,6 @@ public interface TaskListener {
 
 	void onTaskEnded();
 
-	void onTaskFailed();
+	void onTaskFailed(Throwable cause);
 
 }
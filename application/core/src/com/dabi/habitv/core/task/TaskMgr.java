@@ -1,23 +1,42 @@
 package com.dabi.habitv.core.task;
 
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
-import com.dabi.habitv.api.plugin.exception.TechnicalException;
-
+/**
+ * Run the tasks on a single shared pool. Each category is capped to its pool
+ * size, the waiting tasks are dispatched by priority lane then round robin
+ * between the categories. The threads are only created for running tasks and
+ * are released as soon as a task returns its completion stage.
+ */
 public class TaskMgr<T extends AbstractTask<R>, R> {
 
 	private static final int DEFAULT_KEEP_ALIVE_TIME_SEC = 10;
 
 	private static final String DEFAULT = "default";
 
-	private final Map<String, ExecutorService> category2ExecutorService = new HashMap<String, ExecutorService>();
+	private static final int QUEUED = 0;
+
+	private static final int STARTED = 1;
+
+	private static final int DONE = 2;
+
+	private final ThreadPoolExecutor executor;
 
 	private final TaskMgrListener taskMgrListener;
 
@@ -25,13 +44,62 @@ public class TaskMgr<T extends AbstractTask<R>, R> {
 
 	private final Map<String, Integer> category2PoolSize;
 
-	private final Map<Object, T> object2Task = new HashMap<>();
+	private final Map<TaskPriorityEnum, LinkedHashMap<String, Deque<QueuedTask>>> priority2Category2Queue = new EnumMap<>(
+			TaskPriorityEnum.class);
+
+	private final Map<String, Integer> category2Running = new HashMap<>();
+
+	private final Map<String, Integer> category2AdjustedPoolSize = new HashMap<>();
+
+	private int runningCount = 0;
+
+	private int globalPoolSize = Integer.MAX_VALUE;
+
+	private boolean paused = false;
+
+	private boolean closed = false;
+
+	private final AtomicInteger notDoneCount = new AtomicInteger();
+
+	private final Object doneLock = new Object();
+
+	private final TaskRegistry<T> registry = new TaskRegistry<>();
+
+	private final Set<QueuedTask> startedTasks = new HashSet<>();
+
+	private DispatchGate gate = null;
+
+	/**
+	 * Admission of the waiting tasks, checked when they are dispatched so
+	 * that a task never waits for a resource in a thread of the pool.
+	 */
+	interface DispatchGate {
+
+		/**
+		 * @param startable
+		 *            number of tasks the manager can start now, this one
+		 *            included
+		 * @return false to leave the task in its queue until
+		 *         {@link TaskMgr#dispatchWaiting()}
+		 */
+		boolean admit(AbstractTask<?> task, int startable);
+
+		/**
+		 * The task is over, whether it has been admitted or not.
+		 */
+		void taskDone(AbstractTask<?> task);
+	}
 
 	public TaskMgr(final int defaultPoolSize, final TaskMgrListener taskMgrListener, final Map<String, Integer> category2PoolSize) {
 		super();
 		this.defaultPoolSize = defaultPoolSize;
 		this.taskMgrListener = taskMgrListener;
 		this.category2PoolSize = category2PoolSize;
+		for (final TaskPriorityEnum priority : TaskPriorityEnum.values()) {
+			priority2Category2Queue.put(priority, new LinkedHashMap<String, Deque<QueuedTask>>());
+		}
+		executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, DEFAULT_KEEP_ALIVE_TIME_SEC, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>());
 	}
 
 	public void addTask(final Object object, final T task) {
@@ -40,42 +108,244 @@ public class TaskMgr<T extends AbstractTask<R>, R> {
 
 	public synchronized void addTask(final Object object, final T task, final String category) {
 		task.adding();
-		ExecutorService executorService = category2ExecutorService.get(category);
-		if (executorService == null) {
-			executorService = initExecutor(category);
-			category2ExecutorService.put(category, executorService);
+		final CompletableFuture<R> future = new CompletableFuture<>();
+		task.addedTo(category, future);
+		registry.queued(object, task, category);
+		notDoneCount.incrementAndGet();
+		final AtomicInteger state = new AtomicInteger(QUEUED);
+		future.whenComplete(new BiConsumer<R, Throwable>() {
+
+			@Override
+			public void accept(final R result, final Throwable e) {
+				final boolean started = state.getAndSet(DONE) == STARTED;
+				done(object, task, category, started, e != null && !future.isCancelled());
+			}
+		});
+		if (closed || executor.isShutdown()) {
+			// no more task admitted
+			future.cancel(false);
+		} else {
+			getQueue(task.getPriority(), category).add(new QueuedTask(task, state));
+			dispatch();
 		}
-		task.addedTo(category, executorService.submit(task));
-		object2Task.put(object, task);
 	}
 
-	private ExecutorService initExecutor(final String category) {
-		final int poolSize = findPoolSizeByCategory(category);
-		final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, DEFAULT_KEEP_ALIVE_TIME_SEC, TimeUnit.SECONDS,
-		        new LinkedBlockingQueue<Runnable>()) {
+	private Deque<QueuedTask> getQueue(final TaskPriorityEnum priority, final String category) {
+		final LinkedHashMap<String, Deque<QueuedTask>> category2Queue = priority2Category2Queue.get(priority);
+		Deque<QueuedTask> queue = category2Queue.get(category);
+		if (queue == null) {
+			queue = new LinkedList<>();
+			category2Queue.put(category, queue);
+		}
+		return queue;
+	}
 
-			@Override
-			public void afterExecute(final Runnable r, final Throwable t) {
-				super.afterExecute(r, t);
-				if (getActiveCount() <= 1) {
-					taskMgrListener.onAllTreatmentDone();
+	private void dispatch() {
+		for (final Entry<TaskPriorityEnum, LinkedHashMap<String, Deque<QueuedTask>>> lane : priority2Category2Queue.entrySet()) {
+			final LinkedHashMap<String, Deque<QueuedTask>> category2Queue = lane.getValue();
+			// a paused manager still runs the manual tasks
+			final boolean held = paused && lane.getKey() != TaskPriorityEnum.MANUAL;
+			boolean dispatched = !held;
+			while (dispatched) {
+				dispatched = false;
+				final Iterator<Entry<String, Deque<QueuedTask>>> it = category2Queue.entrySet().iterator();
+				while (!dispatched && it.hasNext()) {
+					final Entry<String, Deque<QueuedTask>> entry = it.next();
+					final String category = entry.getKey();
+					if (runningCount < globalPoolSize && getRunning(category) < findPoolSizeByCategory(category)) {
+						final QueuedTask queuedTask = peekNotCanceled(entry.getValue());
+						if (queuedTask == null) {
+							it.remove();
+						} else if (gate == null || gate.admit(queuedTask.task, countStartable())) {
+							entry.getValue().poll();
+							it.remove();
+							// the category goes at the end of the round robin
+							if (!entry.getValue().isEmpty()) {
+								category2Queue.put(category, entry.getValue());
+							}
+							execute(category, queuedTask);
+							dispatched = true;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private QueuedTask peekNotCanceled(final Deque<QueuedTask> queue) {
+		while (!queue.isEmpty() && queue.peek().task.getFuture().isDone()) {
+			queue.poll();
+		}
+		return queue.peek();
+	}
+
+	/**
+	 * @return number of waiting tasks that the pools can start now
+	 */
+	private int countStartable() {
+		final Map<String, Integer> category2Waiting = new HashMap<>();
+		for (final Entry<TaskPriorityEnum, LinkedHashMap<String, Deque<QueuedTask>>> lane : priority2Category2Queue.entrySet()) {
+			if (paused && lane.getKey() != TaskPriorityEnum.MANUAL) {
+				continue;
+			}
+			for (final Entry<String, Deque<QueuedTask>> entry : lane.getValue().entrySet()) {
+				int waiting = category2Waiting.containsKey(entry.getKey()) ? category2Waiting.get(entry.getKey()) : 0;
+				for (final QueuedTask queuedTask : entry.getValue()) {
+					if (!queuedTask.task.getFuture().isDone()) {
+						waiting++;
+					}
 				}
+				category2Waiting.put(entry.getKey(), waiting);
+			}
+		}
+		int startable = 0;
+		for (final Entry<String, Integer> entry : category2Waiting.entrySet()) {
+			startable += Math.max(0, Math.min(entry.getValue(), findPoolSizeByCategory(entry.getKey()) - getRunning(entry.getKey())));
+		}
+		return Math.max(1, Math.min(startable, globalPoolSize - runningCount));
+	}
+
+	private void execute(final String category, final QueuedTask queuedTask) {
+		final T task = queuedTask.task;
+		category2Running.put(category, getRunning(category) + 1);
+		runningCount++;
+		executor.execute(new Runnable() {
 
-				Iterator<Entry<Object, T>> it = object2Task.entrySet().iterator();
-				while (it.hasNext()) {
-					if (!it.next().getValue().isRunning()) {
-						it.remove();
+			@Override
+			public void run() {
+				try {
+					if (queuedTask.state.compareAndSet(QUEUED, STARTED)) {
+						registry.started(category);
+						setStarted(queuedTask, true);
+						task.callAsync().whenComplete(new BiConsumer<R, Throwable>() {
+
+							@Override
+							public void accept(final R result, final Throwable e) {
+								setStarted(queuedTask, false);
+								if (task.isStopped()) {
+									requeue(category, queuedTask);
+								} else if (e == null) {
+									task.getFuture().complete(result);
+								} else {
+									task.getFuture().completeExceptionally(AbstractTask.unwrap(e));
+								}
+							}
+						});
+					} else {
+						// canceled once admitted
+						final DispatchGate taskGate = getGate();
+						if (taskGate != null) {
+							taskGate.taskDone(task);
+						}
 					}
+				} finally {
+					// the thread is free even if the task is waiting for others
+					release(category);
+				}
+			}
+		});
+	}
+
+	private synchronized void setStarted(final QueuedTask queuedTask, final boolean started) {
+		if (started) {
+			startedTasks.add(queuedTask);
+		} else {
+			startedTasks.remove(queuedTask);
+		}
+	}
+
+	/**
+	 * Put a stopped task back at the head of its queue, its gate admission is
+	 * given back and it is admitted again at its next dispatch.
+	 */
+	private synchronized void requeue(final String category, final QueuedTask queuedTask) {
+		// canceled while stopping
+		if (!queuedTask.state.compareAndSet(STARTED, QUEUED)) {
+			return;
+		}
+		registry.requeued(category);
+		if (gate != null) {
+			gate.taskDone(queuedTask.task);
+		}
+		if (closed || executor.isShutdown()) {
+			queuedTask.task.getFuture().cancel(false);
+		} else {
+			getQueue(queuedTask.task.getPriority(), category).addFirst(queuedTask);
+			dispatch();
+		}
+	}
+
+	/**
+	 * Stop the running tasks and start them again from their queue, when the
+	 * pools, the gate and the pause let them, except the manual ones. The
+	 * tasks that can't be stopped go on.
+	 *
+	 * @return number of tasks stopped
+	 */
+	synchronized int restartRunning() {
+		int stopped = 0;
+		for (final QueuedTask queuedTask : new ArrayList<>(startedTasks)) {
+			if (queuedTask.task.getPriority() != TaskPriorityEnum.MANUAL && queuedTask.task.stopToRestart()) {
+				stopped++;
+			}
+		}
+		return stopped;
+	}
+
+	private synchronized void release(final String category) {
+		final int running = getRunning(category) - 1;
+		if (running > 0) {
+			category2Running.put(category, running);
+		} else {
+			category2Running.remove(category);
+		}
+		runningCount--;
+		if (!executor.isShutdown()) {
+			dispatch();
+		}
+	}
+
+	private void done(final Object object, final T task, final String category, final boolean started, final boolean failed) {
+		registry.done(object, task, category, started, failed);
+		final DispatchGate taskGate = getGate();
+		if (taskGate != null) {
+			taskGate.taskDone(task);
+		}
+		if (notDoneCount.decrementAndGet() == 0) {
+			taskMgrListener.onAllTreatmentDone();
+			synchronized (doneLock) {
+				doneLock.notifyAll();
+			}
+		}
+	}
+
+	private boolean awaitAllDone(final long timeoutMs) {
+		final long deadline = System.currentTimeMillis() + timeoutMs;
+		synchronized (doneLock) {
+			long remaining = timeoutMs;
+			while (notDoneCount.get() > 0 && remaining > 0) {
+				try {
+					doneLock.wait(remaining);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
 				}
+				remaining = deadline - System.currentTimeMillis();
 			}
-		};
-		threadPoolExecutor.allowCoreThreadTimeOut(true);
-		return threadPoolExecutor;
+			return notDoneCount.get() == 0;
+		}
+	}
+
+	private int getRunning(final String category) {
+		final Integer running = category2Running.get(category);
+		return running == null ? 0 : running;
 	}
 
 	private int findPoolSizeByCategory(final String category) {
 		Integer ret;
-		if (DEFAULT.equals(category) || category2PoolSize == null || !category2PoolSize.containsKey(category)) {
+		if (category2AdjustedPoolSize.containsKey(category)) {
+			ret = category2AdjustedPoolSize.get(category);
+		} else if (DEFAULT.equals(category) || category2PoolSize == null || !category2PoolSize.containsKey(category)) {
 			ret = defaultPoolSize;
 		} else {
 			ret = category2PoolSize.get(category);
@@ -83,27 +353,144 @@ public class TaskMgr<T extends AbstractTask<R>, R> {
 		return ret;
 	}
 
+	synchronized void setDispatchGate(final DispatchGate gate) {
+		this.gate = gate;
+	}
+
+	private synchronized DispatchGate getGate() {
+		return gate;
+	}
+
+	/**
+	 * Dispatch the tasks left in their queues by the gate.
+	 */
+	synchronized void dispatchWaiting() {
+		if (!executor.isShutdown()) {
+			dispatch();
+		}
+	}
+
+	synchronized int getPoolSize(final String category) {
+		return findPoolSizeByCategory(category);
+	}
+
+	/**
+	 * Override the pool size of a category, the waiting tasks are dispatched at
+	 * once if the pool grows, the running ones are never interrupted.
+	 */
+	synchronized void setPoolSize(final String category, final int poolSize) {
+		category2AdjustedPoolSize.put(category, poolSize);
+		if (!executor.isShutdown()) {
+			dispatch();
+		}
+	}
+
+	synchronized int getGlobalPoolSize() {
+		return globalPoolSize;
+	}
+
+	/**
+	 * Cap the number of running tasks whatever their category.
+	 */
+	synchronized void setGlobalPoolSize(final int globalPoolSize) {
+		this.globalPoolSize = globalPoolSize;
+		if (!executor.isShutdown()) {
+			dispatch();
+		}
+	}
+
+	/**
+	 * Hold the waiting tasks until {@link #resume()}, except the manual ones.
+	 */
+	synchronized void pause() {
+		paused = true;
+	}
+
+	synchronized void resume() {
+		paused = false;
+		if (!executor.isShutdown()) {
+			dispatch();
+		}
+	}
+
+	/**
+	 * Refuse the new tasks and wait for the end of the added ones, the waiting
+	 * tasks included. The tasks still waiting at the timeout are canceled.
+	 */
 	void shutdown(final int timeoutMs) {
-		for (final ExecutorService executorService : category2ExecutorService.values()) {
-			try {
-				executorService.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
-			} catch (final InterruptedException e) {
-				throw new TechnicalException(e);
+		synchronized (this) {
+			closed = true;
+		}
+		if (!awaitAllDone(timeoutMs)) {
+			synchronized (this) {
+				cancelWaitingTasks();
 			}
 		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Refuse the new tasks and cancel the waiting ones, the running ones go
+	 * on.
+	 */
+	public synchronized void close() {
+		closed = true;
+		cancelWaitingTasks();
+	}
+
+	/**
+	 * Refuse the new tasks, cancel the waiting ones and let the running ones
+	 * finish until the timeout.
+	 * 
+	 * @return true if no task is still running
+	 */
+	public boolean drain(final long timeoutMs) {
+		close();
+		final boolean drained = awaitAllDone(timeoutMs);
+		executor.shutdown();
+		return drained;
 	}
 
 	public void shutdownNow() {
-		for (final ExecutorService executorService : category2ExecutorService.values()) {
-			executorService.shutdownNow();
+		synchronized (this) {
+			closed = true;
+			cancelWaitingTasks();
+		}
+		executor.shutdownNow();
+	}
+
+	private void cancelWaitingTasks() {
+		for (final Map<String, Deque<QueuedTask>> category2Queue : priority2Category2Queue.values()) {
+			for (final Deque<QueuedTask> queue : category2Queue.values()) {
+				for (final QueuedTask queuedTask : queue) {
+					queuedTask.task.getFuture().cancel(false);
+				}
+			}
+			category2Queue.clear();
 		}
 	}
 
 	public void cancelTask(Object object) {
-		T task = object2Task.get(object);
+		T task = registry.getTask(object);
 		if (task != null) {
 			task.cancel();
 		}
 
 	}
+
+	public TaskRegistry<T> getRegistry() {
+		return registry;
+	}
+
+	private final class QueuedTask {
+
+		private final T task;
+
+		private final AtomicInteger state;
+
+		private QueuedTask(final T task, final AtomicInteger state) {
+			this.task = task;
+			this.state = state;
+		}
+	}
 }
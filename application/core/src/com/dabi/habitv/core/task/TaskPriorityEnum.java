@@ -0,0 +1,8 @@
+package com.dabi.habitv.core.task;
+
+/**
+ * Priority lanes of the task managers, from the most to the less urgent.
+ */
+public enum TaskPriorityEnum {
+	MANUAL, RESUME_EXPORT, AUTOMATIC;
+}
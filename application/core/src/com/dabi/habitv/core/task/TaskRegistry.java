@@ -0,0 +1,128 @@
+package com.dabi.habitv.core.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tasks of a task manager indexed by their key (the episode for the episode
+ * tasks). Each state transition is in constant time and the counters can be
+ * read at any time without locking the task manager.
+ */
+public final class TaskRegistry<T extends AbstractTask<?>> {
+
+	private final ConcurrentMap<Object, T> object2Task = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, TaskCounters> category2Counters = new ConcurrentHashMap<>();
+
+	TaskRegistry() {
+		super();
+	}
+
+	void queued(final Object object, final T task, final String category) {
+		object2Task.put(object, task);
+		getCounters(category).queued.increment();
+	}
+
+	void started(final String category) {
+		final TaskCounters counters = getCounters(category);
+		counters.queued.decrement();
+		counters.running.increment();
+	}
+
+	void requeued(final String category) {
+		final TaskCounters counters = getCounters(category);
+		counters.running.decrement();
+		counters.queued.increment();
+	}
+
+	void done(final Object object, final T task, final String category, final boolean started, final boolean failed) {
+		object2Task.remove(object, task);
+		final TaskCounters counters = getCounters(category);
+		if (started) {
+			counters.running.decrement();
+		} else {
+			counters.queued.decrement();
+		}
+		if (failed) {
+			counters.failed.increment();
+		}
+	}
+
+	private TaskCounters getCounters(final String category) {
+		TaskCounters counters = category2Counters.get(category);
+		if (counters == null) {
+			counters = new TaskCounters();
+			final TaskCounters previous = category2Counters.putIfAbsent(category, counters);
+			if (previous != null) {
+				counters = previous;
+			}
+		}
+		return counters;
+	}
+
+	public T getTask(final Object object) {
+		return object2Task.get(object);
+	}
+
+	public Collection<T> getTasks() {
+		return new ArrayList<>(object2Task.values());
+	}
+
+	public Set<String> getCategories() {
+		return Collections.unmodifiableSet(category2Counters.keySet());
+	}
+
+	public long getQueuedCount(final String category) {
+		final TaskCounters counters = category2Counters.get(category);
+		return counters == null ? 0 : counters.queued.sum();
+	}
+
+	public long getRunningCount(final String category) {
+		final TaskCounters counters = category2Counters.get(category);
+		return counters == null ? 0 : counters.running.sum();
+	}
+
+	public long getFailedCount(final String category) {
+		final TaskCounters counters = category2Counters.get(category);
+		return counters == null ? 0 : counters.failed.sum();
+	}
+
+	public long getQueuedCount() {
+		long count = 0;
+		for (final TaskCounters counters : category2Counters.values()) {
+			count += counters.queued.sum();
+		}
+		return count;
+	}
+
+	public long getRunningCount() {
+		long count = 0;
+		for (final TaskCounters counters : category2Counters.values()) {
+			count += counters.running.sum();
+		}
+		return count;
+	}
+
+	public long getFailedCount() {
+		long count = 0;
+		for (final TaskCounters counters : category2Counters.values()) {
+			count += counters.failed.sum();
+		}
+		return count;
+	}
+
+	private static final class TaskCounters {
+
+		private final LongAdder queued = new LongAdder();
+
+		private final LongAdder running = new LongAdder();
+
+		private final LongAdder failed = new LongAdder();
+
+	}
+}
@@ -1,6 +1,6 @@
 package com.dabi.habitv.core.task;
 
 public enum TaskState{
-	ADDED, ALREADY_ADD, TO_MANY_FAILED, ERROR;
+	ADDED, ALREADY_ADD, LINKED, ALREADY_DOWNLOADED, DELAYED, TO_MANY_FAILED, ERROR;
 }
 
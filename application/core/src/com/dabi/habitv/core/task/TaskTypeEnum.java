@@ -3,7 +3,7 @@ package com.dabi.habitv.core.task;
 import java.util.Map;
 
 public enum TaskTypeEnum {
-	category(5), export(2), retreive(50), search(5), download(2); //FIXME en conf
+	category(5), export(2), retreive(5), search(5), download(2); //FIXME en conf
 
 	private final int defaultPoolsize;
 
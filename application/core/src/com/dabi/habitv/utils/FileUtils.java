@@ -1,17 +1,12 @@
 package com.dabi.habitv.utils;
 
-import java.io.InputStream;
 import java.text.Normalizer;
 
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
-import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
-import org.xml.sax.SAXException;
-
-import com.dabi.habitv.api.plugin.exception.TechnicalException;
+import com.dabi.habitv.framework.plugin.utils.JAXBUtils;
 
 public final class FileUtils {
 
@@ -50,20 +45,6 @@ public final class FileUtils {
 	}
 
 	private static Schema buildSchema(final String xsdFile) {
-		final SchemaFactory schemaFactory = SchemaFactory
-				.newInstance(javax.xml.XMLConstants.W3C_XML_SCHEMA_NS_URI);
-		final Schema schema;
-		try {
-			schema = schemaFactory.newSchema(new StreamSource(
-					getInputFileInClasspath(xsdFile)));
-		} catch (final SAXException e) {
-			throw new TechnicalException(e);
-		}
-		return schema;
-	}
-
-	private static InputStream getInputFileInClasspath(final String file) {
-		return Thread.currentThread().getContextClassLoader()
-				.getResourceAsStream(file);
+		return JAXBUtils.getSchema(xsdFile);
 	}
 }
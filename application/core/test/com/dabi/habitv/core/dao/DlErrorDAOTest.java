@@ -0,0 +1,76 @@
+package com.dabi.habitv.core.dao;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DlErrorDAOTest {
+
+	private static final long HOUR_MS = 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder appDir = new TemporaryFolder();
+
+	@Test
+	public final void testErrorExpires() {
+		final DlErrorDAO dao = new DlErrorDAO(appDir.getRoot().getPath(), 1);
+		final String name = "expiring";
+		dao.addDownloadError(name, new IllegalStateException("provider down"), false);
+		final long now = System.currentTimeMillis();
+		assertTrue(dao.isDownloadError(name, now));
+		assertTrue(dao.findDownloadedErrorFiles().contains(name));
+		assertFalse(dao.isDownloadError(name, now + 2 * HOUR_MS));
+	}
+
+	@Test
+	public final void testPermanentErrorNeverExpires() throws IOException {
+		final DlErrorDAO dao = new DlErrorDAO(appDir.getRoot().getPath(), 1);
+		final String name = "permanent";
+		dao.addDownloadErrorFiles(name);
+		dao.addDownloadError(name, null, true);
+		assertTrue(dao.isDownloadError(name, System.currentTimeMillis() + 1000 * HOUR_MS));
+
+		final DlErrorDAO neverRetried = new DlErrorDAO(appDir.newFolder().getPath(), 0);
+		final String other = "kept";
+		neverRetried.addDownloadErrorFiles(other);
+		assertTrue(neverRetried.isDownloadError(other, System.currentTimeMillis() + 1000 * HOUR_MS));
+	}
+
+	@Test
+	public final void testExpiredErrorsDroppedAtCheckpoint() {
+		final File file = new File(appDir.getRoot(), "dlError.journal");
+		final RecordJournal.Expiry<DownloadError> expiry = new RecordJournal.Expiry<DownloadError>() {
+
+			@Override
+			public boolean isExpired(final DownloadError error, final long now) {
+				return now - error.getLastTime() >= HOUR_MS;
+			}
+		};
+		final RecordJournal<String, DownloadError> journal = new RecordJournal<>(file, expiry);
+		journal.put("old", new DownloadError("old", null, 0, 0, 1, false));
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			journal.put("recent", new DownloadError("recent", null, now, now, i + 1, false));
+		}
+		final RecordJournal<String, DownloadError> reloaded = new RecordJournal<>(file, expiry);
+		assertNull(reloaded.get("old"));
+		assertTrue(reloaded.get("recent") != null);
+	}
+
+	@Test
+	public final void testClearErrors() {
+		final DlErrorDAO dao = new DlErrorDAO(appDir.getRoot().getPath(), null);
+		final String name = "cleared";
+		dao.addDownloadError(name, null, true);
+		dao.clearErrors();
+		assertFalse(dao.isDownloadError(name));
+		assertTrue(new DlErrorDAO(appDir.getRoot().getPath(), null).findDownloadedErrorFiles().isEmpty());
+	}
+}
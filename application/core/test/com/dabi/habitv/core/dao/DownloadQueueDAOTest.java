@@ -0,0 +1,108 @@
+package com.dabi.habitv.core.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
+
+public class DownloadQueueDAOTest {
+
+	private static final File QUEUE_FILE = new File(".", "download.queue");
+
+	private final CategoryDTO category = new CategoryDTO("channel", "name", "id", "ext");
+
+	@Before
+	public void setUp() throws Exception {
+		QUEUE_FILE.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		QUEUE_FILE.delete();
+	}
+
+	@Test
+	public final void testReplayQueue() {
+		final EpisodeDTO episode1 = new EpisodeDTO(category, "episode1", "url1");
+		final EpisodeDTO episode2 = new EpisodeDTO(category, "episode2", "url2");
+		DownloadQueueDAO dao = new DownloadQueueDAO(".");
+		dao.addDownload(episode1, 0, false);
+		dao.addDownload(episode2, 0, true);
+		dao.delayDownload(episode2, 2, 1000L);
+		dao.removeDownload(episode1);
+
+		// restart
+		dao = new DownloadQueueDAO(".");
+		final List<QueuedDownload> downloads = new ArrayList<>(dao.loadDownloads());
+		assertEquals(1, downloads.size());
+		assertEquals(episode2, downloads.get(0).getEpisode());
+		assertEquals(2, downloads.get(0).getAttempts());
+		assertTrue(downloads.get(0).isManual());
+		assertEquals(1000L, downloads.get(0).getNextAttemptTime());
+	}
+
+	@Test
+	public final void testKeepOnlyEpisodeKeys() {
+		final CategoryDTO plugin = new CategoryDTO("channel", "channel", "channel", null);
+		category.addParameter("param", "value");
+		plugin.addSubCategory(category);
+		for (int i = 0; i < 1000; i++) {
+			plugin.addSubCategory(new CategoryDTO("channel", "other" + i, "other" + i, "ext"));
+		}
+		final EpisodeDTO episode = new EpisodeDTO(category, "episode", "url");
+		episode.setNum(3);
+		new DownloadQueueDAO(".").addDownload(episode, 0, false);
+		// the category tree is not written
+		assertTrue(QUEUE_FILE.length() < 2000);
+
+		final EpisodeDTO resumed = new DownloadQueueDAO(".").loadDownloads().iterator().next().getEpisode();
+		assertEquals("episode", resumed.getName());
+		assertEquals("url", resumed.getId());
+		assertEquals(3, resumed.getNum());
+		assertEquals("channel", resumed.getCategory().getPlugin());
+		assertEquals("id", resumed.getCategory().getId());
+		assertEquals("name", resumed.getCategory().getName());
+		assertEquals("ext", resumed.getCategory().getExtension());
+		assertEquals("value", resumed.getCategory().getParameters().get("param"));
+	}
+
+	@Test
+	public final void testDropTruncatedRecord() throws IOException {
+		final EpisodeDTO episode1 = new EpisodeDTO(category, "episode1", "url1");
+		new DownloadQueueDAO(".").addDownload(episode1, 0, false);
+		// crash while writing a record
+		try (final FileOutputStream out = new FileOutputStream(QUEUE_FILE, true)) {
+			out.write(new byte[] { 0, 0, 1, 0, 42 });
+		}
+		final long length = QUEUE_FILE.length();
+		final DownloadQueueDAO dao = new DownloadQueueDAO(".");
+		assertEquals(1, dao.loadDownloads().size());
+		assertEquals(length - 5, QUEUE_FILE.length());
+	}
+
+	@Test
+	public final void testCheckpoint() {
+		final DownloadQueueDAO dao = new DownloadQueueDAO(".");
+		for (int i = 0; i < 200; i++) {
+			final EpisodeDTO episode = new EpisodeDTO(category, "episode" + i, "url" + i);
+			dao.addDownload(episode, 0, false);
+			dao.removeDownload(episode);
+		}
+		final EpisodeDTO last = new EpisodeDTO(category, "last", "urlLast");
+		dao.addDownload(last, 0, false);
+		final long length = QUEUE_FILE.length();
+		assertTrue(length < 64 * 2 * 1000);
+		assertEquals(1, new DownloadQueueDAO(".").loadDownloads().size());
+	}
+}
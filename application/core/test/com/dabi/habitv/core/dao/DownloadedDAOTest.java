@@ -4,8 +4,13 @@
 package com.dabi.habitv.core.dao;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.After;
@@ -25,6 +30,7 @@ public class DownloadedDAOTest {
 
 	private DownloadedDAO dao;
 	private CategoryDTO category;
+	private DownloadedStores stores;
 
 	/**
 	 * @throws java.lang.Exception
@@ -46,6 +52,7 @@ public class DownloadedDAOTest {
 	 */
 	@Before
 	public void setUp() throws Exception {
+		stores = new DownloadedStores(".", DownloadedStoreConfig.DEFAULT);
 		initDAO();
 	}
 
@@ -54,11 +61,12 @@ public class DownloadedDAOTest {
 	 */
 	@After
 	public void tearDown() throws Exception {
+		stores.close();
 	}
 
 	private void initDAO() {
 		category = new CategoryDTO("channel", "tvshow", "channel", "mp4");
-		dao = new DownloadedDAO(category, ".");
+		dao = new DownloadedDAO(category, stores);
 	}
 
 	@Test
@@ -85,4 +93,72 @@ public class DownloadedDAOTest {
 		assertTrue(toTest.isEmpty());
 	}
 
+	@Test
+	public final void migrateToPluginDirectories() {
+		final File indexDir = new File("shardTest");
+		final DownloadedStores shardStores = new DownloadedStores(indexDir.getPath(), DownloadedStoreConfig.DEFAULT);
+		final DownloadedStore flatStore = new DownloadedStore(indexDir, DownloadedStoreConfig.DEFAULT);
+		flatStore.add("channel_tvshow", false, Arrays.asList("ep1", "ep2"));
+		flatStore.add("channel_other_show", true, Arrays.asList("ep3"));
+		flatStore.add("channel_other_show2", false, Arrays.asList("ep4"));
+		flatStore.commit();
+
+		DownloadedDAO.migrateToShards(shardStores, Arrays.asList("channel", "channel_other"));
+		assertFalse(new File(indexDir, "downloaded.store").exists());
+		assertTrue(shardStores.getShardDir("channel_other").isDirectory());
+
+		final DownloadedDAO tvshowDAO = new DownloadedDAO(category, shardStores);
+		assertTrue(tvshowDAO.isIndexCreated());
+		assertArrayEquals(new String[] { "ep1", "ep2" }, tvshowDAO.findDownloadedFiles().toArray());
+		final DownloadedDAO otherDAO = new DownloadedDAO(new CategoryDTO("channel_other", "show", "id", "mp4"), shardStores);
+		assertFalse(otherDAO.isIndexCreated());
+		assertTrue(otherDAO.isManualIndexCreated());
+		assertTrue(otherDAO.findDownloadedFiles().contains("ep3"));
+		assertTrue(new DownloadedDAO(new CategoryDTO("channel_other", "show2", "id", "mp4"), shardStores)
+				.findDownloadedFiles().contains("ep4"));
+		shardStores.close();
+	}
+
+	@Test
+	public final void compactIndexesDropsDeletedCategories() {
+		final DownloadedStores compactStores = new DownloadedStores("compactTest", DownloadedStoreConfig.DEFAULT);
+		final CategoryDTO deleted = new CategoryDTO("channel", "deleted", "deleted", "mp4");
+		deleted.setDeleted(true);
+		new DownloadedDAO(deleted, compactStores).addDownloadedFiles(false, new EpisodeDTO(deleted, "ep1", "ep1"));
+		// store of a plugin not used by this process
+		final DownloadedStore otherStore = new DownloadedStore(compactStores.getShardDir("other"), DownloadedStoreConfig.DEFAULT);
+		otherStore.add("other_show", false, Arrays.asList("ep2"));
+		otherStore.commit();
+		final CategoryDTO channel = new CategoryDTO("channel", "channel", "channel", null);
+		channel.addSubCategory(deleted);
+		final Map<String, CategoryDTO> plugin2Categories = new HashMap<>();
+		plugin2Categories.put("channel", channel);
+
+		DownloadedDAO.compactIndexes(compactStores, plugin2Categories);
+		assertFalse(new DownloadedDAO(deleted, compactStores).isIndexCreated());
+		assertTrue(new DownloadedDAO(new CategoryDTO("other", "show", "show", "mp4"), compactStores).findDownloadedFiles()
+				.contains("ep2"));
+		compactStores.close();
+	}
+
+	@Test
+	public final void removeDownloadedFilesAndResetIndex() {
+		final EpisodeDTO[] toAdd = new EpisodeDTO[] {
+				new EpisodeDTO(category, "test1", "test1"),
+				new EpisodeDTO(category, "test2", "test2"),
+				new EpisodeDTO(category, "test3", "test3") };
+		dao.resetIndex();
+		dao.addDownloadedFiles(false, toAdd);
+		dao.removeDownloadedFiles(toAdd[1]);
+		initDAO();
+		assertTrue(dao.isIndexCreated());
+		assertArrayEquals(new String[] { "test1", "test3" }, dao.findDownloadedFiles().toArray());
+		assertFalse(dao.findDownloadedFiles().contains("test2"));
+
+		dao.resetIndex();
+		initDAO();
+		assertFalse(dao.isIndexCreated());
+		assertTrue(dao.findDownloadedFiles().isEmpty());
+	}
+
 }
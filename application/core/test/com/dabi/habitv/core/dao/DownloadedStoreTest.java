@@ -0,0 +1,262 @@
+package com.dabi.habitv.core.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DownloadedStoreTest {
+
+	private static final File INDEX_DIR = new File("downloadedStoreTest");
+
+	// each store stands for a process, its appends are flushed at once
+	private DownloadedStoreConfig config = new DownloadedStoreConfig(0, false, null);
+
+	@Before
+	public void setUp() throws Exception {
+		tearDown();
+		INDEX_DIR.mkdir();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		final File[] files = INDEX_DIR.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		INDEX_DIR.delete();
+	}
+
+	@Test
+	public final void testMigrateIndexFiles() throws IOException {
+		writeLines(new File(INDEX_DIR, "channel_show.index"), "ep1", "ep2");
+		writeLines(new File(INDEX_DIR, "channel_show_manual.index"), "ep3");
+		writeLines(new File(INDEX_DIR, "channel_other_manual.index"), "ep4");
+
+		DownloadedStore store = open();
+		assertFalse(new File(INDEX_DIR, "channel_show.index").exists());
+		assertTrue(store.isIndexCreated("channel_show"));
+		assertArrayEquals(new String[] { "ep1", "ep2", "ep3" }, store.findDownloaded("channel_show").toArray());
+		assertFalse(store.isIndexCreated("channel_other"));
+		assertTrue(store.isManualIndexCreated("channel_other"));
+
+		// the first automatic download creates the index with the manual ones
+		store.add("channel_other", false, Arrays.asList("ep5"));
+		store = open();
+		assertTrue(store.isIndexCreated("channel_other"));
+		assertFalse(store.isManualIndexCreated("channel_other"));
+		assertArrayEquals(new String[] { "ep4", "ep5" }, store.findDownloaded("channel_other").toArray());
+	}
+
+	@Test
+	public final void testDropTruncatedRecord() throws IOException {
+		open().add("channel_show", false, Arrays.asList("ep1"));
+		// crash while writing a record
+		try (final FileOutputStream out = new FileOutputStream(new File(INDEX_DIR, "downloaded.store"), true)) {
+			out.write(new byte[] { 0, 0, 0, 50, 0 });
+		}
+		final DownloadedStore store = open();
+		assertArrayEquals(new String[] { "ep1" }, store.findDownloaded("channel_show").toArray());
+		store.add("channel_show", false, Arrays.asList("ep2"));
+		assertEquals(2, open().findDownloaded("channel_show").size());
+	}
+
+	@Test
+	public final void testCompaction() {
+		final DownloadedStore store = open();
+		for (int i = 0; i < 1000; i++) {
+			store.add("channel_show", false, Arrays.asList("ep" + i));
+			store.initIndex("channel_show");
+		}
+		store.add("channel_show", false, Arrays.asList("last"));
+		assertTrue(new File(INDEX_DIR, "downloaded.store").length() < 1024 * 32);
+		assertArrayEquals(new String[] { "last" }, open().findDownloaded("channel_show").toArray());
+	}
+
+	@Test
+	public final void testReadEvictedCategory() {
+		final DownloadedStore store = open();
+		for (int i = 0; i < 600; i++) {
+			store.add("channel_show" + i, false, Arrays.asList("ep" + i));
+		}
+		store.add("channel_show0", true, Arrays.asList("manual"));
+		assertArrayEquals(new String[] { "ep0", "manual" }, store.findDownloaded("channel_show0").toArray());
+		assertTrue(store.isIndexCreated("channel_show1"));
+		assertArrayEquals(new String[] { "ep1" }, store.findDownloaded("channel_show1").toArray());
+	}
+
+	@Test
+	public final void testReloadChangedByAnotherProcess() {
+		final DownloadedStore store = open();
+		store.add("channel_show", false, Arrays.asList("ep1"));
+		open().add("channel_show", false, Arrays.asList("ep2"));
+		store.reloadIfChanged();
+		assertArrayEquals(new String[] { "ep1", "ep2" }, store.findDownloaded("channel_show").toArray());
+	}
+
+	@Test
+	public final void testAppendAfterCompactionByAnotherProcess() {
+		final DownloadedStore store = open();
+		final DownloadedStore other = open();
+		store.add("channel_show", false, Arrays.asList("ep1"));
+		other.add("channel_show", false, Arrays.asList("ep2"));
+		assertTrue(other.contains("channel_show", "ep1"));
+		other.compact();
+		store.add("channel_show", false, Arrays.asList("ep3"));
+		other.add("channel_show", false, Arrays.asList("ep4"));
+		assertArrayEquals(new String[] { "ep1", "ep2", "ep3", "ep4" }, open().findDownloaded("channel_show")
+				.toArray());
+		assertTrue(store.contains("channel_show", "ep2"));
+	}
+
+	@Test
+	public final void testCompactOnlyWhenLocked() {
+		final DownloadedStore store = new DownloadedStore(INDEX_DIR, new DownloadedStoreConfig(0, false, 3));
+		final DownloadedStore other = open();
+		other.add("channel_show", false, Arrays.asList("ep1", "ep2", "ep3", "ep4"));
+		final File storeFile = new File(INDEX_DIR, "downloaded.store");
+		final long length = storeFile.length();
+		// the records of the other process make the category large
+		store.reloadIfChanged();
+		store.commit();
+		assertEquals(length, storeFile.length());
+		assertEquals(0, countTables());
+		// compacted by the next write, under the lock
+		store.add("channel_show", false, Arrays.asList("ep5"));
+		assertEquals(1, countTables());
+		assertArrayEquals(new String[] { "ep1", "ep2", "ep3", "ep4", "ep5" }, open().findDownloaded(
+				"channel_show").toArray());
+	}
+
+	private static int countTables() {
+		return INDEX_DIR.list(new FilenameFilter() {
+
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(".names");
+			}
+		}).length;
+	}
+
+	@Test
+	public final void testFilterMembership() {
+		DownloadedStore store = open();
+		final List<String> names = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			names.add("ep" + i);
+		}
+		store.add("channel_show", false, names);
+		store.add("channel_other", true, Arrays.asList("manual"));
+		assertTrue(store.contains("channel_show", "ep4999"));
+		assertFalse(store.contains("channel_show", "ep5000"));
+		assertTrue(store.contains("channel_other", "manual"));
+		assertFalse(store.contains("channel_missing", "ep1"));
+
+		// restart from the side file and the records appended since
+		store.compact();
+		store.add("channel_show", false, Arrays.asList("last"));
+		store = open();
+		assertTrue(store.contains("channel_show", "ep0"));
+		assertTrue(store.contains("channel_show", "last"));
+		assertFalse(store.contains("channel_show", "ep5000"));
+		assertEquals(5001, store.findDownloaded("channel_show").size());
+	}
+
+	@Test
+	public final void testGroupCommit() {
+		final DownloadedStore store = new DownloadedStore(INDEX_DIR, new DownloadedStoreConfig(60000, false, null));
+		store.add("channel_show", false, Arrays.asList("ep1"));
+		store.add("channel_show", false, Arrays.asList("ep2"));
+		assertTrue(open().findDownloaded("channel_show").isEmpty());
+
+		store.commit();
+		assertArrayEquals(new String[] { "ep1", "ep2" }, open().findDownloaded("channel_show").toArray());
+		assertTrue(store.contains("channel_show", "ep2"));
+	}
+
+	@Test
+	public final void testLargeCategoryTable() {
+		config = new DownloadedStoreConfig(0, false, 100);
+		DownloadedStore store = open();
+		final List<String> names = new ArrayList<>();
+		for (int i = 0; i < 150; i++) {
+			names.add("ep" + i);
+		}
+		store.add("channel_show", false, names);
+		store.add("channel_small", false, Arrays.asList("small"));
+		// compacted with a table at the first flush above the size
+		assertEquals(1, INDEX_DIR.list(new FilenameFilter() {
+
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(".names");
+			}
+		}).length);
+		store.add("channel_show", true, Arrays.asList("manual"));
+
+		store = open();
+		assertTrue(store.contains("channel_show", "ep0"));
+		assertTrue(store.contains("channel_show", "ep149"));
+		assertTrue(store.contains("channel_show", "manual"));
+		assertFalse(store.contains("channel_show", "ep150"));
+		assertTrue(store.contains("channel_small", "small"));
+		assertEquals(151, store.findDownloaded("channel_show").size());
+		assertEquals(151, store.count("channel_show"));
+		assertEquals(0, store.count("channel_unknown"));
+		assertEquals("ep0", store.findDownloaded("channel_show").iterator().next());
+
+		// the names of the table are dropped with the index
+		store.initIndex("channel_show");
+		store.add("channel_show", false, Arrays.asList("new"));
+		store = open();
+		assertFalse(store.contains("channel_show", "ep0"));
+		assertTrue(store.contains("channel_show", "new"));
+	}
+
+	@Test
+	public final void testCheckAndCompact() throws IOException {
+		final DownloadedStore store = open();
+		for (int i = 0; i < 10; i++) {
+			store.add("channel_show", false, Arrays.asList("ep1", "ep2"));
+		}
+		store.add("channel_deleted", false, Arrays.asList("ep3"));
+		// crash while writing a record
+		try (final FileOutputStream out = new FileOutputStream(new File(INDEX_DIR, "downloaded.store"), true)) {
+			out.write(new byte[] { 0, 0, 0, 50, 0 });
+		}
+
+		assertTrue(store.checkAndCompact(Arrays.asList("channel_deleted")) > 0);
+		final DownloadedStore reloaded = open();
+		assertArrayEquals(new String[] { "ep1", "ep2" }, reloaded.findDownloaded("channel_show").toArray());
+		assertFalse(reloaded.isIndexCreated("channel_deleted"));
+		assertEquals(0, store.checkAndCompact(Arrays.<String> asList()));
+	}
+
+	private DownloadedStore open() {
+		return new DownloadedStore(INDEX_DIR, config);
+	}
+
+	private static void writeLines(final File file, final String... lines) throws IOException {
+		try (final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+			for (final String line : lines) {
+				writer.println(line);
+			}
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package com.dabi.habitv.core.dao;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
@@ -54,4 +56,44 @@ public class ExportDAOTest {
 		assertTrue(exportStep.contains(episodeExportState1));
 		assertTrue(exportStep.contains(episodeExportState2));
 	}
+
+	@Test
+	public final void testReplayAfterRestart() {
+		final CategoryDTO category = new CategoryDTO("channel", "name", "id", "ext");
+		final EpisodeDTO episode1 = new EpisodeDTO(category, "episode1", "url1");
+		final EpisodeDTO episode2 = new EpisodeDTO(category, "episode2", "url2");
+		dao.init();
+		final EpisodeExportState episodeExportState1 = new EpisodeExportState(episode1, 0);
+		dao.addExportStep(episodeExportState1);
+		dao.addExportStep(episodeExportState1);
+		final EpisodeExportState episodeExportState2 = new EpisodeExportState(episode2, 1);
+		dao.addExportStep(episodeExportState2);
+		dao.removeExportStep(episodeExportState1);
+
+		final Collection<EpisodeExportState> exportStep = new ExportDAO(".").loadExportStep();
+		assertEquals(1, exportStep.size());
+		assertFalse(exportStep.contains(episodeExportState1));
+		assertTrue(exportStep.contains(episodeExportState2));
+		dao.init();
+	}
+
+	@Test
+	public final void testKeepOnlyEpisodeKeys() {
+		final CategoryDTO category = new CategoryDTO("channel", "name", "id", "ext");
+		category.addParameter("param", "value");
+		final EpisodeDTO episode = new EpisodeDTO(category, "episode", "url");
+		episode.setNum(4);
+		dao.init();
+		dao.addExportStep(new EpisodeExportState(episode, 2));
+
+		final EpisodeExportState reloaded = new ExportDAO(".").loadExportStep().iterator().next();
+		assertEquals(Integer.valueOf(2), reloaded.getState());
+		assertEquals("episode", reloaded.getEpisode().getName());
+		assertEquals("url", reloaded.getEpisode().getId());
+		assertEquals(4, reloaded.getEpisode().getNum());
+		assertEquals("channel", reloaded.getEpisode().getCategory().getPlugin());
+		assertEquals("ext", reloaded.getEpisode().getCategory().getExtension());
+		assertEquals("value", reloaded.getEpisode().getCategory().getParameters().get("param"));
+		dao.init();
+	}
 }
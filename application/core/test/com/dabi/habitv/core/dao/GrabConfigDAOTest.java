@@ -45,6 +45,10 @@ public class GrabConfigDAOTest {
 	@Before
 	public void setUp() throws Exception {
 		(new File(XML_FILE)).delete();
+		for (final LoadModeEnum loadMode : LoadModeEnum.values()) {
+			GrabConfigSnapshot.getSnapshotFile(new File(XML_FILE), loadMode)
+					.delete();
+		}
 		dao = new GrabConfigDAO(XML_FILE);
 	}
 
@@ -93,6 +97,95 @@ public class GrabConfigDAOTest {
 		assertTrue(category.getSubCategories().iterator().next().getName().equals("sub"));
 	}
 
+	@Test
+	public final void testLoadToDownloadOnly() {
+		final Map<String, CategoryDTO> channel2Categories = buildChannelMap(
+				true, false);
+		final CategoryDTO cat1 = channel2Categories.get("channel1")
+				.getSubCategories().iterator().next();
+		cat1.getSubCategories().iterator().next().setSelected(true);
+		cat1.addParameter("downloader", "curl");
+		dao.saveGrabConfig(channel2Categories);
+
+		final Map<String, CategoryDTO> channel2CategoriesTotest = dao
+				.load(LoadModeEnum.TO_DOWNLOAD_ONLY);
+		assertEquals(1, channel2CategoriesTotest.size());
+		final Set<CategoryDTO> categories = channel2CategoriesTotest.get(
+				"channel1").getSubCategories();
+		assertEquals(1, categories.size());
+		final CategoryDTO category = categories.iterator().next();
+		assertEquals("cat1", category.getName());
+		assertFalse(category.isSelected());
+		assertEquals("curl", category.getParameter("downloader"));
+		assertEquals(Arrays.asList("inc1", "inc2"), category.getInclude());
+		assertTrue(category.getSubCategories().iterator().next().isSelected());
+		assertEquals(channel2Categories, dao.load(LoadModeEnum.ALL));
+	}
+
+	@Test
+	public final void testSaveOnlyChangedPlugins() {
+		final Map<String, CategoryDTO> channel2Categories = buildChannelMap(
+				false, false);
+		dao.saveGrabConfig(channel2Categories);
+		final CategoryDTO cat1 = channel2Categories.get("channel1")
+				.getSubCategories().iterator().next();
+		final CategoryDTO cat3 = channel2Categories.get("channel2")
+				.getSubCategories().iterator().next();
+		cat1.setSelected(true);
+		// not marked, the section of channel2 is reused as it was
+		cat3.getInclude().add("inc3");
+		dao.saveGrabConfig(channel2Categories);
+		assertTrue(dao.exist());
+
+		Map<String, CategoryDTO> channel2CategoriesTotest = dao
+				.load(LoadModeEnum.ALL);
+		assertTrue(channel2CategoriesTotest.get("channel1").getSubCategories()
+				.iterator().next().isSelected());
+		assertTrue(channel2CategoriesTotest.get("channel2").getSubCategories()
+				.iterator().next().getInclude().isEmpty());
+
+		cat3.markDirty();
+		dao.saveGrabConfig(channel2Categories);
+		channel2CategoriesTotest = dao.load(LoadModeEnum.ALL);
+		assertEquals(Arrays.asList("inc3"), channel2CategoriesTotest
+				.get("channel2").getSubCategories().iterator().next()
+				.getInclude());
+	}
+
+	@Test
+	public final void testLoadFromSnapshot() throws IOException {
+		final Map<String, CategoryDTO> channel2Categories = buildChannelMap(
+				true, false);
+		channel2Categories.get("channel1").getSubCategories().iterator()
+				.next().addParameter("downloader", "curl");
+		dao.saveGrabConfig(channel2Categories);
+		final Map<String, CategoryDTO> parsed = dao.load(LoadModeEnum.ALL);
+		final File snapshotFile = GrabConfigSnapshot.getSnapshotFile(new File(
+				XML_FILE), LoadModeEnum.ALL);
+		assertTrue(snapshotFile.exists());
+
+		final Map<String, CategoryDTO> fromSnapshot = dao
+				.load(LoadModeEnum.ALL);
+		assertEquals(parsed, fromSnapshot);
+		final CategoryDTO category = fromSnapshot.get("channel1")
+				.getSubCategories().iterator().next();
+		assertEquals("curl", category.getParameter("downloader"));
+		assertEquals(Arrays.asList("inc1", "inc2"), category.getInclude());
+		assertEquals("sub", category.getSubCategories().iterator().next()
+				.getName());
+		assertFalse(category.hasDirtyCategory());
+
+		// an outdated snapshot is ignored
+		category.setSelected(true);
+		dao.saveGrabConfig(fromSnapshot);
+		assertTrue(dao.load(LoadModeEnum.ALL).get("channel1")
+				.getSubCategories().iterator().next().isSelected());
+
+		// as a corrupted one
+		Files.write(snapshotFile.toPath(), new byte[] { 0, 0, 0, 1, 2 });
+		assertEquals(parsed, dao.load(LoadModeEnum.ALL));
+	}
+
 	private Map<String, CategoryDTO> buildChannelMap(final boolean inc,
 			final boolean sup) {
 		final Map<String, CategoryDTO> channel2Categories = new HashMap<>();
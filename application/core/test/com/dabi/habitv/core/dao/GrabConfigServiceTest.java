@@ -0,0 +1,124 @@
+package com.dabi.habitv.core.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.core.dao.GrabConfigDAO.LoadModeEnum;
+import com.dabi.habitv.core.dao.GrabConfigService.SelectionListener;
+
+public class GrabConfigServiceTest {
+
+	private static final String XML_FILE = "testGrabConfigService.xml";
+
+	private GrabConfigDAO dao;
+
+	@Before
+	public void setUp() {
+		(new File(XML_FILE)).delete();
+		for (final LoadModeEnum loadMode : LoadModeEnum.values()) {
+			GrabConfigSnapshot.getSnapshotFile(new File(XML_FILE), loadMode)
+					.delete();
+		}
+		dao = new GrabConfigDAO(XML_FILE);
+	}
+
+	@Test
+	public final void testReloadOnlyWhenChanged() {
+		final Map<String, CategoryDTO> channel2Categories = buildChannelMap();
+		dao.saveGrabConfig(channel2Categories);
+		final GrabConfigService service = new GrabConfigService(dao);
+		final Map<String, CategoryDTO> categories = service.getCategories();
+		assertEquals(1, categories.get("channel1").getSubCategories().size());
+		assertSame(categories, service.getCategories());
+
+		final CategoryDTO cat2 = findCategory(channel2Categories, "cat2");
+		cat2.setSelected(true);
+		cat2.addParameter("changed", "length");
+		dao.saveGrabConfig(channel2Categories);
+		dao.flush();
+		final Map<String, CategoryDTO> reloaded = service.getCategories();
+		assertEquals(2, reloaded.get("channel1").getSubCategories().size());
+
+		final Map<String, CategoryDTO> newSelection = GrabConfigService
+				.findNewSelection(categories, reloaded);
+		assertEquals(1, newSelection.size());
+		final Set<CategoryDTO> selected = newSelection.get("channel1")
+				.getSubCategories();
+		assertEquals(1, selected.size());
+		assertEquals("cat2", selected.iterator().next().getName());
+		assertSame(reloaded.get("channel1"), selected.iterator().next()
+				.getFatherCategory());
+		assertTrue(GrabConfigService.findNewSelection(reloaded, reloaded)
+				.isEmpty());
+	}
+
+	@Test
+	public final void testNewSelectionOnEdit() throws InterruptedException {
+		final Map<String, CategoryDTO> channel2Categories = buildChannelMap();
+		dao.saveGrabConfig(channel2Categories);
+		final GrabConfigService service = new GrabConfigService(dao);
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Map<String, CategoryDTO>> selection = new AtomicReference<>();
+		service.start(new SelectionListener() {
+
+			@Override
+			public void onNewSelection(
+					final Map<String, CategoryDTO> plugin2Categories) {
+				selection.set(plugin2Categories);
+				latch.countDown();
+			}
+		});
+		try {
+			findCategory(channel2Categories, "cat2").setSelected(true);
+			dao.saveGrabConfig(channel2Categories);
+			dao.flush();
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+		} finally {
+			service.stop();
+		}
+		final Set<CategoryDTO> selected = selection.get().get("channel1")
+				.getSubCategories();
+		assertEquals(1, selected.size());
+		assertEquals("cat2", selected.iterator().next().getName());
+		assertEquals(2, service.getCategories().get("channel1")
+				.getSubCategories().size());
+	}
+
+	private static CategoryDTO findCategory(
+			final Map<String, CategoryDTO> channel2Categories, final String name) {
+		for (final CategoryDTO category : channel2Categories.get("channel1")
+				.getSubCategories()) {
+			if (name.equals(category.getName())) {
+				return category;
+			}
+		}
+		return null;
+	}
+
+	private static Map<String, CategoryDTO> buildChannelMap() {
+		final Set<CategoryDTO> categories = new LinkedHashSet<>();
+		final CategoryDTO cat1 = new CategoryDTO("channel1", "cat1", "cat1I",
+				"ext");
+		cat1.setSelected(true);
+		categories.add(cat1);
+		categories.add(new CategoryDTO("channel1", "cat2", "cat2I", "ext"));
+		final Map<String, CategoryDTO> channel2Categories = new HashMap<>();
+		channel2Categories.put("channel1", new CategoryDTO("channel1",
+				categories));
+		return channel2Categories;
+	}
+}
@@ -0,0 +1,63 @@
+package com.dabi.habitv.core.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HistoryDAOTest {
+
+	private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder appDir = new TemporaryFolder();
+
+	@Test
+	public final void testFindByProviderAndTime() {
+		final HistoryDAO dao = new HistoryDAO(appDir.getRoot().getPath());
+		final String provider = "provider";
+		final long now = System.currentTimeMillis();
+		dao.addHistory(new DownloadHistory("id1", "episode1", provider, "category", DownloadHistory.DOWNLOAD_STEP, "curl",
+				now - 3000, 1000, 4000, null));
+		dao.addHistory(new DownloadHistory("id2", "episode2", provider, "category", DownloadHistory.DOWNLOAD_STEP, "ffmpeg",
+				now - 2000, 1000, 1000, "timeout"));
+		dao.addHistory(new DownloadHistory("id1", "episode1", provider, "category", "tag", "cmd", now - 1000, 500, 0, null));
+		dao.addHistory(new DownloadHistory("id3", "episode3", provider + "other", "category", DownloadHistory.DOWNLOAD_STEP,
+				"curl", now - 1000, 1000, 8000, null));
+
+		final List<DownloadHistory> histories = dao.findHistory(provider, now - 2500, now);
+		assertEquals(2, histories.size());
+		assertEquals("id2", histories.get(0).getEpisodeId());
+		assertEquals("tag", histories.get(1).getStep());
+		assertEquals(3, dao.findHistory(provider, 0, now).size());
+		assertTrue(dao.findHistory(provider, now, Long.MAX_VALUE).isEmpty());
+
+		final Map<String, Long> throughputs = dao.getThroughputByProvider(now - 3000, now);
+		assertEquals(Long.valueOf(4000), throughputs.get(provider));
+		assertEquals(Long.valueOf(8000), throughputs.get(provider + "other"));
+	}
+
+	@Test
+	public final void testDropEntriesOlderThanAYear() {
+		final HistoryDAO dao = new HistoryDAO(appDir.getRoot().getPath());
+		final long now = System.currentTimeMillis();
+		dao.addHistory(new DownloadHistory("id1", "episode1", "provider", "category", DownloadHistory.DOWNLOAD_STEP, "curl",
+				now - 364 * DAY_MS, 1000, 4000, null));
+		// dropped by the running DAO, not only at the next load
+		dao.addHistory(new DownloadHistory("id2", "episode2", "provider", "category", DownloadHistory.DOWNLOAD_STEP, "curl",
+				now - 400 * DAY_MS, 1000, 4000, null));
+		assertEquals(1, dao.findHistory(0, Long.MAX_VALUE).size());
+		assertEquals(1, dao.findHistory("provider", 0, Long.MAX_VALUE).size());
+
+		final List<DownloadHistory> histories = new HistoryDAO(appDir.getRoot().getPath()).findHistory("provider", 0,
+				Long.MAX_VALUE);
+		assertEquals(1, histories.size());
+		assertEquals("id1", histories.get(0).getEpisodeId());
+	}
+
+}
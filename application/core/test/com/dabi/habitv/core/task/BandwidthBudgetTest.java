@@ -0,0 +1,136 @@
+package com.dabi.habitv.core.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class BandwidthBudgetTest {
+
+	@Test
+	public void shareBudgetBetweenDownloads() {
+		final BandwidthBudget budget = new BandwidthBudget(1000, 2);
+		final Object dl1 = new Object();
+		final Object dl2 = new Object();
+		final Object dl3 = new Object();
+		assertEquals(500, budget.acquire(dl1, 1));
+		assertEquals(500, budget.acquire(dl2, 1));
+		// nothing free
+		assertEquals(-1, budget.acquire(dl3, 1));
+		budget.release(dl1);
+		assertEquals(500, budget.getAllocated());
+		// the released rate goes to the next download
+		assertEquals(500, budget.acquire(dl3, 1));
+		assertEquals(1000, budget.getAllocated());
+		budget.release(dl2);
+		budget.release(dl3);
+		assertEquals(0, budget.getAllocated());
+	}
+
+	@Test
+	public void splitFreeRateBetweenStartingDownloads() {
+		final BandwidthBudget budget = new BandwidthBudget(1200, 1);
+		assertEquals(400, budget.acquire(new Object(), 3));
+		assertEquals(400, budget.acquire(new Object(), 2));
+		assertEquals(400, budget.acquire(new Object(), 1));
+		// the rate added to the limit goes to the next download
+		final Object dl = new Object();
+		budget.setLimit(2000);
+		assertEquals(800, budget.acquire(dl, 1));
+		assertEquals(800, budget.getRate(dl));
+	}
+
+	@Test
+	public void neverGrantMoreThanTheFreeRate() {
+		final BandwidthBudget budget = new BandwidthBudget(1000, 2);
+		assertEquals(500, budget.acquire(new Object(), 1));
+		budget.setLimit(600);
+		assertEquals(100, budget.acquire(new Object(), 1));
+		assertEquals(600, budget.getAllocated());
+	}
+
+	@Test
+	public void waitInTheQueueWhenNothingIsFree() throws Exception {
+		final BandwidthBudget budget = new BandwidthBudget(1000, 1);
+		final TaskMgr<AbstractTask<Object>, Object> taskMgr = new TaskMgr<AbstractTask<Object>, Object>(2,
+				new TaskMgrListener() {
+
+					@Override
+					public void onFailed(final Throwable throwable) {
+					}
+
+					@Override
+					public void onAllTreatmentDone() {
+					}
+				}, null);
+		budget.attach(taskMgr);
+		final CountDownLatch firstStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicLong firstRate = new AtomicLong();
+		final AtomicLong secondRate = new AtomicLong();
+		final CountDownLatch secondDone = new CountDownLatch(1);
+		final AbstractTask<Object> first = new AbstractTaskForTest() {
+
+			@Override
+			protected Object doCall() throws Exception {
+				firstRate.set(budget.getRate(this));
+				firstStarted.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return null;
+			}
+
+			@Override
+			protected void failed(final Throwable e) {
+			}
+
+			@Override
+			public String toString() {
+				return "first";
+			}
+		};
+		final AbstractTask<Object> second = new AbstractTaskForTest() {
+
+			@Override
+			protected Object doCall() {
+				secondRate.set(budget.getRate(this));
+				secondDone.countDown();
+				return null;
+			}
+
+			@Override
+			protected void failed(final Throwable e) {
+			}
+
+			@Override
+			public String toString() {
+				return "second";
+			}
+		};
+		try {
+			taskMgr.addTask(first, first);
+			taskMgr.addTask(second, second);
+			assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+			// the pool has room but the whole rate is granted
+			assertEquals(1, taskMgr.getRegistry().getQueuedCount());
+			assertEquals(1000, budget.getAllocated());
+			release.countDown();
+			assertTrue(secondDone.await(5, TimeUnit.SECONDS));
+			assertEquals(1000, firstRate.get());
+			assertEquals(1000, secondRate.get());
+		} finally {
+			release.countDown();
+			taskMgr.shutdownNow();
+		}
+	}
+
+	@Test
+	public void noLimit() {
+		final BandwidthBudget budget = new BandwidthBudget(0, 2);
+		assertEquals(0, budget.acquire(new Object(), 1));
+		assertEquals(0, budget.getAllocated());
+	}
+}
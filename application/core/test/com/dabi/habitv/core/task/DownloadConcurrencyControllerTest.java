@@ -0,0 +1,42 @@
+package com.dabi.habitv.core.task;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.dabi.habitv.core.task.DownloadConcurrencyController.Climber;
+
+public class DownloadConcurrencyControllerTest {
+
+	@Test
+	public void addSlotWhileThroughputGrows() {
+		final Climber climber = new Climber(1, 4);
+		assertEquals(3, climber.next(2, 100, true));
+		assertEquals(4, climber.next(3, 150, true));
+		// bounded
+		assertEquals(4, climber.next(4, 200, true));
+	}
+
+	@Test
+	public void stepBackWhenSlotDoesNotHelp() {
+		final Climber climber = new Climber(1, 8);
+		assertEquals(3, climber.next(2, 100, true));
+		assertEquals(2, climber.next(3, 101, true));
+		// hold before probing again
+		assertEquals(2, climber.next(2, 100, true));
+	}
+
+	@Test
+	public void halveOnThroughputCollapse() {
+		final Climber climber = new Climber(1, 8);
+		assertEquals(6, climber.next(6, 100, false));
+		assertEquals(3, climber.next(6, 20, true));
+	}
+
+	@Test
+	public void keepSizeWhenNotSaturated() {
+		final Climber climber = new Climber(1, 8);
+		assertEquals(2, climber.next(2, 100, false));
+		assertEquals(2, climber.next(2, 100, false));
+	}
+}
@@ -0,0 +1,73 @@
+package com.dabi.habitv.core.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.dabi.habitv.api.plugin.dto.CategoryDTO;
+import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
+
+public class DownloadDeduplicatorTest {
+
+	private final CategoryDTO show = new CategoryDTO("canal", "show", "show", "mp4");
+
+	private final CategoryDTO channel = new CategoryDTO("canal", "channel", "channel", "mp4");
+
+	@Test
+	public void linkSameMediaOfAnotherCategory() {
+		final DownloadDeduplicator deduplicator = new DownloadDeduplicator();
+		final EpisodeDTO episode = new EpisodeDTO(show, "ep1", "http://www.Canal.fr/video/1/");
+		final EpisodeDTO duplicate = new EpisodeDTO(channel, "ep1", "https://canal.fr/video/1#player");
+		assertEquals(TaskState.ADDED, deduplicator.add(episode, true));
+		assertEquals(TaskState.ALREADY_ADD, deduplicator.add(episode, true));
+		assertEquals(TaskState.LINKED, deduplicator.add(duplicate, true));
+		assertEquals(TaskState.ALREADY_ADD, deduplicator.add(duplicate, true));
+		assertEquals(Arrays.asList(duplicate), deduplicator.downloaded(episode));
+		deduplicator.ended(episode);
+		// downloaded in this session
+		assertEquals(TaskState.ALREADY_DOWNLOADED, deduplicator.add(duplicate, true));
+		assertEquals(TaskState.ADDED, deduplicator.add(duplicate, false));
+	}
+
+	@Test
+	public void dropLinksOfFailedDownload() {
+		final DownloadDeduplicator deduplicator = new DownloadDeduplicator();
+		final EpisodeDTO episode = new EpisodeDTO(show, "ep1", "http://canal.fr/video/1");
+		final EpisodeDTO duplicate = new EpisodeDTO(channel, "ep1", "http://canal.fr/video/1");
+		assertEquals(TaskState.ADDED, deduplicator.add(episode, true));
+		assertEquals(TaskState.LINKED, deduplicator.add(duplicate, true));
+		deduplicator.ended(episode);
+		assertEquals(TaskState.ADDED, deduplicator.add(duplicate, true));
+		assertTrue(deduplicator.downloaded(episode).isEmpty());
+	}
+
+	@Test
+	public void forgetOldestDownloadedMedias() {
+		final DownloadDeduplicator deduplicator = new DownloadDeduplicator();
+		final EpisodeDTO first = new EpisodeDTO(show, "ep0", "http://canal.fr/video/0");
+		deduplicator.downloaded(first);
+		for (int i = 1; i <= 10000; i++) {
+			deduplicator.downloaded(new EpisodeDTO(show, "ep" + i, "http://canal.fr/video/" + i));
+		}
+		assertEquals(TaskState.ADDED, deduplicator.add(new EpisodeDTO(channel, "ep0", "http://canal.fr/video/0"), true));
+		assertEquals(TaskState.ALREADY_DOWNLOADED,
+				deduplicator.add(new EpisodeDTO(channel, "ep10000", "http://canal.fr/video/10000"), true));
+	}
+
+	@Test
+	public void taskKeyOfSameIdInOtherCategory() {
+		final EpisodeDTO episode = new EpisodeDTO(show, "ep1", "http://canal.fr/video/1");
+		final EpisodeDTO other = new EpisodeDTO(channel, "ep1", "http://canal.fr/video/1");
+		assertFalse(DownloadDeduplicator.getTaskKey(episode).equals(DownloadDeduplicator.getTaskKey(other)));
+	}
+
+	@Test
+	public void normalizeContentId() {
+		assertEquals("canal.fr/Video/1?id=A", DownloadDeduplicator.normalizeContentId(" HTTPS://www.CANAL.fr/Video/1?id=A/ "));
+		assertEquals("rtmp://host/app", DownloadDeduplicator.normalizeContentId("rtmp://host/app"));
+	}
+}
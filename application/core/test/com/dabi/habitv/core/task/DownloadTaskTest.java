@@ -9,6 +9,9 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.After;
@@ -30,6 +33,8 @@ import com.dabi.habitv.api.plugin.holder.ProcessHolder;
 import com.dabi.habitv.api.plugin.pub.Publisher;
 import com.dabi.habitv.api.plugin.pub.Subscriber;
 import com.dabi.habitv.core.dao.DownloadedDAO;
+import com.dabi.habitv.core.dao.DownloadedStoreConfig;
+import com.dabi.habitv.core.dao.DownloadedStores;
 import com.dabi.habitv.core.event.EpisodeStateEnum;
 import com.dabi.habitv.core.event.RetreiveEvent;
 
@@ -39,6 +44,8 @@ public class DownloadTaskTest {
 
 	private boolean downloaded = false;
 
+	private final DownloadedStores stores = new DownloadedStores(".", DownloadedStoreConfig.DEFAULT);
+
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
 	}
@@ -53,6 +60,7 @@ public class DownloadTaskTest {
 
 	@After
 	public void tearDown() throws Exception {
+		stores.close();
 	}
 
 	final ExecutorFailedException executorFailedException = new ExecutorFailedException(
@@ -173,7 +181,7 @@ public class DownloadTaskTest {
 			}
 		};
 		publisher.attach(subscriber);
-		final DownloadedDAO downloadedDAO = new DownloadedDAO(category, ".") {
+		final DownloadedDAO downloadedDAO = new DownloadedDAO(category, stores) {
 
 			@Override
 			public void addDownloadedFiles(final boolean manual,
@@ -204,6 +212,82 @@ public class DownloadTaskTest {
 		assertFalse(downloaded);
 	}
 
+	@Test
+	public final void testDownloadedBytesOfPreallocatedFile() {
+		final CategoryDTO category = new CategoryDTO("channel", "category",
+				"identifier", "extension");
+		final EpisodeDTO episode = new EpisodeDTO(category, "preallocated",
+				"videoUrl");
+		final List<Long> samples = new ArrayList<>();
+		final PluginProviderDownloaderInterface provider = new PluginProviderDownloaderInterface() {
+
+			@Override
+			public String getName() {
+				return "provider";
+			}
+
+			@Override
+			public Set<EpisodeDTO> findEpisode(final CategoryDTO category) {
+				return null;
+			}
+
+			@Override
+			public Set<CategoryDTO> findCategory() {
+				return null;
+			}
+
+			@Override
+			public ProcessHolder download(final DownloadParamDTO downloadParam,
+					final DownloaderPluginHolder downloaders)
+					throws DownloadFailedException {
+				return new MockProcessHolder() {
+
+					@Override
+					public void start() {
+						// whole file allocated before downloading
+						try (FileOutputStream fileOutputStream = new FileOutputStream(
+								downloadParam.getDownloadOutput())) {
+							fileOutputStream.write(new byte[1000]);
+						} catch (final IOException e) {
+							throw new TechnicalException(e);
+						}
+						for (final String progression : new String[] { "10",
+								"30", "60" }) {
+							setProgression(progression);
+							samples.add(task.getDownloadedBytes());
+						}
+					}
+				};
+			}
+
+			@Override
+			public DownloadableState canDownload(final String downloadInput) {
+				return DownloadableState.IMPOSSIBLE;
+			}
+		};
+		final DownloaderPluginHolder downloader = new DownloaderPluginHolder(
+				null, null, null, "#EPISODE_NAME#_#EXTENSION#", "indexDir",
+				"bin", "plugins");
+		task = new DownloadTask(episode, provider, downloader,
+				new Publisher<RetreiveEvent>(), new DownloadedDAO(category,
+						stores) {
+
+					@Override
+					public void addDownloadedFiles(final boolean manual,
+							final EpisodeDTO... episodes) {
+					}
+
+				}, false);
+		task.addedTo("download", null);
+		try {
+			task.call();
+		} finally {
+			new File("preallocated_extension").delete();
+		}
+		// the file doesn't grow, the progression is used from the 2nd sample
+		assertEquals(Arrays.asList(1000L, 300L, 600L), samples);
+	}
+
 	// @Test
 	// public final void testDownloadRemovePreviousFile() throws IOException {
 	// final String filename =
@@ -0,0 +1,36 @@
+package com.dabi.habitv.core.task;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalTime;
+
+import org.junit.Test;
+
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+
+public class DownloadWindowsTest {
+
+	@Test
+	public void openInsideWindow() {
+		final DownloadWindows windows = new DownloadWindows("01:00-07:00");
+		assertTrue(windows.isOpen(LocalTime.of(1, 0)));
+		assertTrue(windows.isOpen(LocalTime.of(6, 59)));
+		assertFalse(windows.isOpen(LocalTime.of(7, 0)));
+		assertFalse(windows.isOpen(LocalTime.of(0, 59)));
+	}
+
+	@Test
+	public void openOverMidnight() {
+		final DownloadWindows windows = new DownloadWindows("22:30-06:00, 12:00-14:00");
+		assertTrue(windows.isOpen(LocalTime.of(23, 0)));
+		assertTrue(windows.isOpen(LocalTime.of(2, 0)));
+		assertTrue(windows.isOpen(LocalTime.of(13, 0)));
+		assertFalse(windows.isOpen(LocalTime.of(8, 0)));
+	}
+
+	@Test(expected = TechnicalException.class)
+	public void invalidWindow() {
+		new DownloadWindows("01:00");
+	}
+}
@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -31,6 +32,8 @@ import com.dabi.habitv.api.plugin.holder.ProcessHolder;
 import com.dabi.habitv.api.plugin.pub.Publisher;
 import com.dabi.habitv.api.plugin.pub.Subscriber;
 import com.dabi.habitv.core.dao.DownloadedDAO;
+import com.dabi.habitv.core.dao.DownloadedStoreConfig;
+import com.dabi.habitv.core.dao.DownloadedStores;
 import com.dabi.habitv.core.event.EpisodeStateEnum;
 import com.dabi.habitv.core.event.RetreiveEvent;
 
@@ -40,6 +43,8 @@ public class RetreiveTaskTest {
 
 	private boolean retreived;
 
+	private final DownloadedStores stores = new DownloadedStores(".", DownloadedStoreConfig.DEFAULT);
+
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
 	}
@@ -55,6 +60,7 @@ public class RetreiveTaskTest {
 
 	@After
 	public void tearDown() throws Exception {
+		stores.close();
 	}
 
 	public void init(final boolean toFail) {
@@ -133,7 +139,7 @@ public class RetreiveTaskTest {
 		};
 		publisher.attach(subscriber);
 		final DownloadedDAO downloadedDAO = new DownloadedDAO(
-				episode.getCategory(), ".");
+				episode.getCategory(), stores);
 
 		final Map<String, PluginExporterInterface> exporterName2exporter = new HashMap<>();
 		final PluginExporterInterface pluginExporter = new PluginExporterInterface() {
@@ -224,4 +230,51 @@ public class RetreiveTaskTest {
 		task.call();
 	}
 
+	@Test
+	public final void testCancelRetreiveCancelsDownload() {
+		final CategoryDTO category = new CategoryDTO("channel", "category",
+				"identifier", "extension");
+		final EpisodeDTO episode = new EpisodeDTO(category, "episode",
+				"videoUrl");
+		final List<ExportDTO> exporterList = new ArrayList<>();
+		exporterList.add(new ExportDTO(null, null, "export1", "export1Out",
+				null, "cmd 1", null));
+		final List<DownloadTask> downloadTasks = new ArrayList<>();
+		final TaskAdder taskAdder = new TaskAdder() {
+
+			@Override
+			public TaskAdResult addRetreiveTask(final RetrieveTask retreiveTask) {
+				return new TaskAdResult(TaskState.ADDED);
+			}
+
+			@Override
+			public TaskAdResult addExportTask(final ExportTask exportTask,
+					final String category) {
+				fail("export added after cancel");
+				return null;
+			}
+
+			@Override
+			public TaskAdResult addDownloadTask(
+					final DownloadTask downloadTask, final String channel) {
+				// queued, never started
+				downloadTask.addedTo(channel, new CompletableFuture<Object>());
+				downloadTasks.add(downloadTask);
+				return new TaskAdResult(TaskState.ADDED);
+			}
+
+		};
+		task = new RetrieveTask(episode, new Publisher<RetreiveEvent>(),
+				taskAdder, new ExporterPluginHolder(
+						new HashMap<String, PluginExporterInterface>(),
+						exporterList), null, null, null, false);
+		task.addedTo("retreive", null);
+		final CompletableFuture<Object> retreived = task.callAsync()
+				.toCompletableFuture();
+		assertEquals(1, downloadTasks.size());
+		task.cancel();
+		assertTrue(downloadTasks.get(0).getFuture().isCancelled());
+		assertTrue(retreived.isCompletedExceptionally());
+	}
+
 }
@@ -0,0 +1,46 @@
+package com.dabi.habitv.core.task;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.dabi.habitv.api.plugin.exception.DownloadFailedException;
+import com.dabi.habitv.api.plugin.exception.ExecutorFailedException;
+import com.dabi.habitv.api.plugin.exception.InvalidEpisodeException;
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+
+public class RetrySchedulerTest {
+
+	@Test
+	public void delayDoublesUpToMax() {
+		final RetryScheduler retryScheduler = new RetryScheduler(1000L, 10000L, new Random(1));
+		for (int attempts = 1; attempts <= 10; attempts++) {
+			final long full = Math.min(1000L << (attempts - 1), 10000L);
+			final long delay = retryScheduler.getDelay(attempts);
+			assertTrue(delay >= full / 2);
+			assertTrue(delay <= full);
+		}
+	}
+
+	@Test
+	public void classifyPermanentErrors() {
+		final ExecutorFailedException notFound = new ExecutorFailedException("curl", "curl: (22) The requested URL returned error: 404",
+				"curl: (22) The requested URL returned error: 404", null);
+		assertTrue(RetryScheduler.isPermanent(new DownloadFailedException(notFound)));
+		assertTrue(RetryScheduler.isPermanent(new TechnicalException(new IOException(
+				"Server returned HTTP response code: 410 for URL: http://provider/video"))));
+		assertTrue(RetryScheduler.isPermanent(new TechnicalException(new InvalidEpisodeException("", InvalidEpisodeException.CauseField.URL))));
+
+		final ExecutorFailedException timeout = new ExecutorFailedException("curl", "curl: (28) Operation timed out",
+				"curl: (28) Operation timed out", null);
+		assertFalse(RetryScheduler.isPermanent(new DownloadFailedException(timeout)));
+		// local disk error
+		assertFalse(RetryScheduler.isPermanent(new TechnicalException(new FileNotFoundException("video.mp4 (Permission denied)"))));
+		assertFalse(RetryScheduler.isPermanent(null));
+	}
+}
@@ -17,7 +17,9 @@ import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.dabi.habitv.api.plugin.api.PluginExporterInterface;
 import com.dabi.habitv.api.plugin.api.PluginProviderDownloaderInterface;
@@ -33,7 +35,10 @@ import com.dabi.habitv.api.plugin.holder.ExporterPluginHolder;
 import com.dabi.habitv.api.plugin.holder.ProcessHolder;
 import com.dabi.habitv.api.plugin.pub.Publisher;
 import com.dabi.habitv.api.plugin.pub.Subscriber;
+import com.dabi.habitv.core.dao.DlErrorDAO;
 import com.dabi.habitv.core.dao.DownloadedDAO;
+import com.dabi.habitv.core.dao.DownloadedStoreConfig;
+import com.dabi.habitv.core.dao.DownloadedStores;
 import com.dabi.habitv.core.event.RetreiveEvent;
 import com.dabi.habitv.core.event.SearchEvent;
 import com.dabi.habitv.core.event.SearchStateEnum;
@@ -44,6 +49,11 @@ public class SearchTaskTest {
 
 	private boolean done;
 
+	@Rule
+	public TemporaryFolder appDir = new TemporaryFolder();
+
+	private DownloadedStores stores;
+
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
 	}
@@ -55,10 +65,12 @@ public class SearchTaskTest {
 	@Before
 	public void setUp() throws Exception {
 		done = false;
+		stores = new DownloadedStores(appDir.getRoot().getPath(), DownloadedStoreConfig.DEFAULT);
 	}
 
 	@After
 	public void tearDown() throws Exception {
+		stores.close();
 	}
 
 	public void init(final boolean toFail) {
@@ -231,7 +243,8 @@ public class SearchTaskTest {
 		categories.add(category1);
 		categories.add(category2);
 		categories.add(category3);
-		task = new SearchTask(provider, categories, taskAdder, searchPublisher, retreivePublisher, downloader, exporter) {
+		task = new SearchTask(provider, categories, taskAdder, searchPublisher, retreivePublisher, downloader, exporter,
+				new DlErrorDAO(appDir.getRoot().getPath(), null), stores) {
 
 			@Override
 			protected DownloadedDAO buildDownloadDAO(final CategoryDTO category) {
@@ -246,7 +259,7 @@ public class SearchTaskTest {
 	}
 
 	private DownloadedDAO buildDLDAO(final CategoryDTO category) {
-		final DownloadedDAO dao = new DownloadedDAO(category, ".") {
+		final DownloadedDAO dao = new DownloadedDAO(category, stores) {
 
 			@Override
 			public Set<String> findDownloadedFiles() {
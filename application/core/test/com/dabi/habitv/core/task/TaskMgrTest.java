@@ -5,8 +5,18 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -242,6 +252,7 @@ public class TaskMgrTest {
 		buildSimultaneousTaskWithError(2, null, null);
 		assertEquals(0, test2);
 		assertEquals(0, test1);
+		assertTrue(taskMgr.getRegistry().getFailedCount("default") >= 1);
 	}
 
 	@Test
@@ -256,4 +267,301 @@ public class TaskMgrTest {
 		assertTrue(allTreatmentDone);
 		taskMgr.shutdown(0);
 	}
+
+	private static final int TIMEOUT = 5000;
+
+	private static final TaskMgrListener NO_LISTENER = new TaskMgrListener() {
+
+		@Override
+		public void onAllTreatmentDone() {
+		}
+
+		@Override
+		public void onFailed(final Throwable throwable) {
+		}
+	};
+
+	/**
+	 * @param started
+	 *            counted down when the task is running, may be null
+	 * @param gate
+	 *            awaited by the task before it ends, may be null
+	 */
+	private AbstractTask<Object> buildOrderedTask(final String name, final List<String> runOrder, final TaskPriorityEnum priority,
+			final CountDownLatch started, final CountDownLatch gate) {
+		final AbstractTask<Object> task = new AbstractTaskForTest() {
+
+			@Override
+			protected Object doCall() throws InterruptedException {
+				runOrder.add(name);
+				if (started != null) {
+					started.countDown();
+				}
+				if (gate != null && !gate.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+					fail("gate of " + name + " never opened");
+				}
+				return null;
+			}
+
+			@Override
+			protected void failed(final Throwable e) {
+				throw new TechnicalException(e);
+			}
+
+			@Override
+			public String toString() {
+				return name;
+			}
+		};
+		task.setPriority(priority);
+		return task;
+	}
+
+	private AbstractTask<Object> buildOrderedTask(final String name, final List<String> runOrder, final TaskPriorityEnum priority) {
+		return buildOrderedTask(name, runOrder, priority, null, null);
+	}
+
+	private static void await(final CountDownLatch latch) throws InterruptedException {
+		assertTrue(latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	private static void waitDone(final AbstractTask<Object> task) throws Exception {
+		task.getFuture().get(TIMEOUT, TimeUnit.MILLISECONDS);
+	}
+
+	private void awaitRunningCount(final int expected) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (taskMgr.getRegistry().getRunningCount("default") != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, taskMgr.getRegistry().getRunningCount("default"));
+	}
+
+	@Test
+	public final void runManualTaskBeforeAutomaticTasks() throws Exception {
+		taskMgr = new TaskMgr<AbstractTask<Object>, Object>(1, NO_LISTENER, null);
+		final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final AbstractTask<Object> first = buildOrderedTask("first", runOrder, TaskPriorityEnum.AUTOMATIC, started, gate);
+		taskMgr.addTask(first, first, "cat");
+		// the other tasks are queued while the first one holds the slot
+		await(started);
+		final AbstractTask<Object> automatic = buildOrderedTask("automatic", runOrder, TaskPriorityEnum.AUTOMATIC);
+		taskMgr.addTask(automatic, automatic, "cat");
+		final AbstractTask<Object> export = buildOrderedTask("export", runOrder, TaskPriorityEnum.RESUME_EXPORT);
+		taskMgr.addTask(export, export, "cat");
+		final AbstractTask<Object> manual = buildOrderedTask("manual", runOrder, TaskPriorityEnum.MANUAL);
+		taskMgr.addTask(manual, manual, "cat");
+		gate.countDown();
+		waitDone(automatic);
+		assertEquals(Arrays.asList("first", "manual", "export", "automatic"), runOrder);
+		taskMgr.shutdown(TIMEOUT);
+	}
+
+	@Test
+	public final void holdAutomaticTasksWhilePaused() throws Exception {
+		taskMgr = new TaskMgr<AbstractTask<Object>, Object>(2, NO_LISTENER, null);
+		final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+		taskMgr.pause();
+		final AbstractTask<Object> automatic = buildOrderedTask("automatic", runOrder, TaskPriorityEnum.AUTOMATIC);
+		taskMgr.addTask(automatic, automatic, "cat");
+		final AbstractTask<Object> manual = buildOrderedTask("manual", runOrder, TaskPriorityEnum.MANUAL);
+		taskMgr.addTask(manual, manual, "cat");
+		waitDone(manual);
+		assertEquals(Arrays.asList("manual"), runOrder);
+		assertFalse(automatic.getFuture().isDone());
+		taskMgr.resume();
+		waitDone(automatic);
+		assertEquals(Arrays.asList("manual", "automatic"), runOrder);
+		taskMgr.shutdown(TIMEOUT);
+	}
+
+	@Test
+	public final void restartStoppedTasksFromTheQueue() throws Exception {
+		taskMgr = new TaskMgr<AbstractTask<Object>, Object>(1, NO_LISTENER, null);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch stopped = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final AbstractTask<Object> task = new AbstractTaskForTest() {
+
+			@Override
+			protected Object doCall() throws Exception {
+				if (runs.incrementAndGet() == 1) {
+					started.countDown();
+					stopped.await(TIMEOUT, TimeUnit.MILLISECONDS);
+					throw new TechnicalException("stopped");
+				}
+				return null;
+			}
+
+			@Override
+			protected boolean stop() {
+				stopped.countDown();
+				return true;
+			}
+
+			@Override
+			protected void failed(final Throwable e) {
+				failures.incrementAndGet();
+			}
+
+			@Override
+			public String toString() {
+				return "restarted";
+			}
+		};
+		taskMgr.addTask(task, task, "cat");
+		await(started);
+		taskMgr.pause();
+		assertEquals(1, taskMgr.restartRunning());
+		// back in its queue and held
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (taskMgr.getRegistry().getQueuedCount("cat") != 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, taskMgr.getRegistry().getQueuedCount("cat"));
+		assertEquals(0, taskMgr.getRegistry().getRunningCount("cat"));
+		assertFalse(task.getFuture().isDone());
+		taskMgr.resume();
+		waitDone(task);
+		assertEquals(2, runs.get());
+		assertEquals(0, failures.get());
+		assertEquals(0, taskMgr.getRegistry().getFailedCount("cat"));
+		assertEquals(0, taskMgr.restartRunning());
+		taskMgr.shutdown(TIMEOUT);
+	}
+
+	@Test
+	public final void drainLetsRunningTasksFinish() throws Exception {
+		taskMgr = new TaskMgr<AbstractTask<Object>, Object>(1, NO_LISTENER, null);
+		final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final AbstractTask<Object> running = buildOrderedTask("running", runOrder, TaskPriorityEnum.AUTOMATIC, started, gate);
+		taskMgr.addTask(running, running, "cat");
+		await(started);
+		final AbstractTask<Object> waiting = buildOrderedTask("waiting", runOrder, TaskPriorityEnum.AUTOMATIC);
+		taskMgr.addTask(waiting, waiting, "cat");
+		// the running task ends once the drain has canceled the waiting one
+		waiting.getFuture().whenComplete(new BiConsumer<Object, Throwable>() {
+
+			@Override
+			public void accept(final Object result, final Throwable e) {
+				gate.countDown();
+			}
+		});
+		assertTrue(taskMgr.drain(TIMEOUT));
+		final AbstractTask<Object> refused = buildOrderedTask("refused", runOrder, TaskPriorityEnum.MANUAL);
+		taskMgr.addTask(refused, refused, "cat");
+		assertEquals(Arrays.asList("running"), runOrder);
+		assertTrue(running.getFuture().isDone());
+		assertFalse(running.getFuture().isCancelled());
+		assertTrue(waiting.getFuture().isCancelled());
+		assertTrue(refused.getFuture().isCancelled());
+	}
+
+	@Test
+	public final void shutdownCancelsWaitingTasksAtTimeout() throws Exception {
+		taskMgr = new TaskMgr<AbstractTask<Object>, Object>(1, NO_LISTENER, null);
+		final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final AbstractTask<Object> running = buildOrderedTask("running", runOrder, TaskPriorityEnum.AUTOMATIC, started, gate);
+		taskMgr.addTask(running, running, "cat");
+		await(started);
+		final AbstractTask<Object> waiting = buildOrderedTask("waiting", runOrder, TaskPriorityEnum.AUTOMATIC);
+		taskMgr.addTask(waiting, waiting, "cat");
+		taskMgr.shutdown(100);
+		assertTrue(waiting.getFuture().isCancelled());
+		gate.countDown();
+		waitDone(running);
+		assertEquals(Arrays.asList("running"), runOrder);
+	}
+
+	@Test
+	public final void shareSlotsRoundRobinBetweenCategories() throws Exception {
+		taskMgr = new TaskMgr<AbstractTask<Object>, Object>(1, NO_LISTENER, null);
+		final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final List<AbstractTask<Object>> aTasks = new ArrayList<>();
+		aTasks.add(buildOrderedTask("a1", runOrder, TaskPriorityEnum.AUTOMATIC, started, gate));
+		aTasks.add(buildOrderedTask("a2", runOrder, TaskPriorityEnum.AUTOMATIC));
+		aTasks.add(buildOrderedTask("a3", runOrder, TaskPriorityEnum.AUTOMATIC));
+		for (final AbstractTask<Object> task : aTasks) {
+			taskMgr.addTask(task, task, "a");
+		}
+		await(started);
+		final AbstractTask<Object> task = buildOrderedTask("b1", runOrder, TaskPriorityEnum.AUTOMATIC);
+		taskMgr.addTask(task, task, "b");
+		// b is not waiting for all the a tasks
+		waitDone(task);
+		assertEquals(Arrays.asList("a1", "b1"), runOrder);
+		gate.countDown();
+		for (final AbstractTask<Object> aTask : aTasks) {
+			waitDone(aTask);
+		}
+		assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), runOrder);
+		taskMgr.shutdown(TIMEOUT);
+	}
+
+	@Test
+	public final void asyncTaskDoesNotHoldItsThread() throws Exception {
+		final CountDownLatch allDone = new CountDownLatch(1);
+		taskMgr = new TaskMgr<AbstractTask<Object>, Object>(1, new TaskMgrListener() {
+
+			@Override
+			public void onAllTreatmentDone() {
+				allDone.countDown();
+			}
+
+			@Override
+			public void onFailed(final Throwable throwable) {
+			}
+		}, null);
+		final CompletableFuture<Object> waited = new CompletableFuture<>();
+		final AbstractTask<Object> asyncTask = new AbstractTaskForTest() {
+
+			@Override
+			protected Object doCall() {
+				return null;
+			}
+
+			@Override
+			protected CompletionStage<Object> doCallAsync() {
+				return waited;
+			}
+
+			@Override
+			protected void failed(final Throwable e) {
+				throw new TechnicalException(e);
+			}
+
+			@Override
+			public String toString() {
+				return "async";
+			}
+		};
+		taskMgr.addTask(asyncTask, asyncTask);
+		final List<String> runOrder = Collections.synchronizedList(new ArrayList<String>());
+		final AbstractTask<Object> task = buildOrderedTask("task", runOrder, TaskPriorityEnum.AUTOMATIC);
+		taskMgr.addTask(task, task);
+		// the single slot has been released by the async task
+		waitDone(task);
+		assertEquals(Arrays.asList("task"), runOrder);
+		assertTrue(asyncTask.isRunning());
+		// the registry is updated once the future of the task is completed
+		awaitRunningCount(1);
+		assertEquals(1, allDone.getCount());
+		assertEquals(asyncTask, taskMgr.getRegistry().getTask(asyncTask));
+		waited.complete(null);
+		waitDone(asyncTask);
+		assertFalse(asyncTask.isRunning());
+		await(allDone);
+		assertEquals(0, taskMgr.getRegistry().getRunningCount("default"));
+		assertEquals(0, taskMgr.getRegistry().getQueuedCount());
+		assertTrue(taskMgr.getRegistry().getTasks().isEmpty());
+	}
 }
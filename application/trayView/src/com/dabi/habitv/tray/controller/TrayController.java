@@ -136,9 +136,16 @@ public class TrayController implements CoreSubscriber {
 	}
 
 	public void stop() {
-		getModel().forceEnd();
-		ProcessingThreads.killAllProcessing();
-		System.exit(0);
+		// the UI is not held while the running downloads are finished
+		new Thread("HabitvStop") {
+
+			@Override
+			public void run() {
+				getModel().drain();
+				ProcessingThreads.killAllProcessing();
+				System.exit(0);
+			}
+		}.start();
 	}
 
 	public void clear() {
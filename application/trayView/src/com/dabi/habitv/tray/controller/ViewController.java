@@ -22,13 +22,11 @@ import com.dabi.habitv.api.plugin.dto.EpisodeDTO;
 import com.dabi.habitv.api.plugin.exception.TechnicalException;
 import com.dabi.habitv.api.plugin.pub.UpdatablePluginEvent;
 import com.dabi.habitv.core.config.UserConfig;
-import com.dabi.habitv.core.dao.DownloadedDAO;
 import com.dabi.habitv.core.event.EpisodeStateEnum;
 import com.dabi.habitv.core.event.RetreiveEvent;
 import com.dabi.habitv.core.event.SearchCategoryEvent;
 import com.dabi.habitv.core.event.SearchEvent;
 import com.dabi.habitv.core.event.UpdatePluginEvent;
-import com.dabi.habitv.framework.FrameworkConf;
 import com.dabi.habitv.framework.plugin.utils.ProcessingThreads;
 import com.dabi.habitv.tray.Popin;
 import com.dabi.habitv.tray.model.HabitTvViewManager;
@@ -167,9 +165,16 @@ public class ViewController implements CoreSubscriber {
 	}
 
 	public void stop() {
-		getManager().forceEnd();
-		ProcessingThreads.killAllProcessing();
-		System.exit(0);
+		// the UI is not held while the running downloads are finished
+		new Thread("HabitvStop") {
+
+			@Override
+			public void run() {
+				getManager().drain();
+				ProcessingThreads.killAllProcessing();
+				System.exit(0);
+			}
+		}.start();
 	}
 
 	public void clear() {
@@ -206,12 +211,20 @@ public class ViewController implements CoreSubscriber {
 	}
 
 	public void openErrorFile() {
-		open(FrameworkConf.ERROR_FILE);
+		open(getManager().exportErrors());
+	}
+
+	public void clearErrors() {
+		try {
+			getManager().clearErrors();
+		} catch (Exception e) {
+			LOG.error("", e);
+			Popin.error(e.getMessage());
+		}
 	}
 
 	public void openIndexDir() {
-		final UserConfig config = getManager().getUserConfig();
-		open(config.getIndexDir());
+		open(getManager().exportIndexes());
 	}
 
 	private static void open(final String toOpen) {
@@ -299,9 +312,26 @@ public class ViewController implements CoreSubscriber {
 		}
 	}
 
+	public void setNotDownloaded(EpisodeDTO episode) {
+		try {
+			getManager().setNotDownloaded(episode);
+		} catch (Exception e) {
+			LOG.error("", e);
+			Popin.error(e.getMessage());
+		}
+	}
+
+	public void resetIndex(CategoryDTO category) {
+		try {
+			getManager().resetIndex(category);
+		} catch (Exception e) {
+			LOG.error("", e);
+			Popin.error(e.getMessage());
+		}
+	}
+
 	public void openIndex(CategoryDTO category) {
-		final UserConfig config = getManager().getUserConfig();
-		open(DownloadedDAO.getFileIndex(config.getIndexDir(), category));
+		open(getManager().exportIndex(category));
 	}
 
 	public void restart(EpisodeDTO episode, boolean exportOnly) {
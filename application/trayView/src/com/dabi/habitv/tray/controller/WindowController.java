@@ -4,7 +4,6 @@ import java.awt.AWTException;
 import java.awt.SystemTray;
 import java.io.IOException;
 
-import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
@@ -173,7 +172,7 @@ public class WindowController {
 
 					@Override
 					public void handle(WindowEvent t) {
-						Platform.exit();
+						controller.stop();
 					}
 
 				});
@@ -199,7 +199,7 @@ public class DownloadController extends BaseController implements
 						"Ouvrir le répertoire contenant les index des épisodes marqués comme déjà téléchargés."));
 		this.errorBUtton
 				.setTooltip(new Tooltip(
-						"Ouvrir le fichier contenant les téléchargements notés en erreur qui ne seront pas retentés."));
+						"Ouvrir le fichier contenant les téléchargements notés en erreur qui ne seront pas retentés, clic droit pour les vider."));
 	}
 
 	private void addFilesAndFoldersActions() {
@@ -226,6 +226,18 @@ public class DownloadController extends BaseController implements
 				getController().openErrorFile();
 			}
 		});
+
+		final ContextMenu errorMenu = new ContextMenu();
+		final MenuItem clearErrorsMenu = new MenuItem("Vider les erreurs");
+		clearErrorsMenu.setOnAction(new EventHandler<ActionEvent>() {
+
+			@Override
+			public void handle(ActionEvent event) {
+				getController().clearErrors();
+			}
+		});
+		errorMenu.getItems().add(clearErrorsMenu);
+		errorBUtton.setContextMenu(errorMenu);
 	}
 
 	private void addExportActions() {
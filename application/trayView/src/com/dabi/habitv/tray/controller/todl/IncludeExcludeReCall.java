@@ -31,6 +31,7 @@ public class IncludeExcludeReCall extends HBox {
 				} else {
 					category.getExclude().remove(pattern);
 				}
+				category.markDirty();
 
 				if (deleteHandler != null) {
 					deleteHandler.handle(event);
@@ -154,6 +154,7 @@ public class ToDownloadController extends BaseController implements CoreSubscrib
 					} else {
 						category.getExclude().add(toRegExp(episodeFilter.getText()));
 					}
+					category.markDirty();
 					episodeFilter.clear();
 					saveTree();
 					fillIncludeExcludePatterns(category);
@@ -264,6 +265,16 @@ public class ToDownloadController extends BaseController implements CoreSubscrib
 			});
 			contextMenu.getItems().add(indexMenu);
 
+			MenuItem resetIndexMenu = new MenuItem("Réinitialiser l'index");
+			resetIndexMenu.setOnAction(new EventHandler<ActionEvent>() {
+
+				@Override
+				public void handle(ActionEvent event) {
+					getController().resetIndex(category);
+				}
+			});
+			contextMenu.getItems().add(resetIndexMenu);
+
 			MenuItem supprimerMenu = new MenuItem("Supprimer");
 			supprimerMenu.setOnAction(new EventHandler<ActionEvent>() {
 
@@ -485,14 +496,27 @@ public class ToDownloadController extends BaseController implements CoreSubscrib
 			@Override
 			public void handle(ActionEvent event) {
 				EpisodeDTO episode = episodeListView.getSelectionModel().getSelectedItem();
+				// the downloaded episodes are read from the index
 				getController().setDownloaded(episode);
 				filterEpisodeListView(episodeFilter.getText());
-				downloadedEpisodes.add(episode.getName());
 			}
 		});
 
 		contextMenu.getItems().add(marquerTelecharger);
 
+		MenuItem marquerNonTelecharger = new MenuItem("Marquer comme non téléchargé");
+		marquerNonTelecharger.setOnAction(new EventHandler<ActionEvent>() {
+
+			@Override
+			public void handle(ActionEvent event) {
+				EpisodeDTO episode = episodeListView.getSelectionModel().getSelectedItem();
+				getController().setNotDownloaded(episode);
+				filterEpisodeListView(episodeFilter.getText());
+			}
+		});
+
+		contextMenu.getItems().add(marquerNonTelecharger);
+
 		return contextMenu;
 	}
 
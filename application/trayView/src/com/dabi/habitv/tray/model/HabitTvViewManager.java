@@ -16,6 +16,8 @@ import com.dabi.habitv.core.config.UserConfig;
 import com.dabi.habitv.core.config.XMLUserConfig;
 import com.dabi.habitv.core.dao.GrabConfigDAO;
 import com.dabi.habitv.core.dao.GrabConfigDAO.LoadModeEnum;
+import com.dabi.habitv.core.dao.GrabConfigService;
+import com.dabi.habitv.core.dao.GrabConfigService.SelectionListener;
 import com.dabi.habitv.core.event.SearchEvent;
 import com.dabi.habitv.core.event.SearchStateEnum;
 import com.dabi.habitv.core.mgr.CoreManager;
@@ -40,6 +42,8 @@ public class HabitTvViewManager extends Observable {
 
 	private final GrabConfigDAO grabConfigDAO;
 
+	private final GrabConfigService grabConfigService;
+
 	public HabitTvViewManager() {
 		this(XMLUserConfig.initConfig());
 	}
@@ -48,6 +52,7 @@ public class HabitTvViewManager extends Observable {
 		super();
 		this.userConfig = userConfig;
 		grabConfigDAO = new GrabConfigDAO(DirUtils.getGrabConfigPath());
+		grabConfigService = new GrabConfigService(grabConfigDAO);
 		coreManager = new CoreManager(userConfig);
 		progressionModel = new ProgressionModel();
 	}
@@ -81,6 +86,7 @@ public class HabitTvViewManager extends Observable {
 	}
 
 	public void startDownloadCheckDemon() {
+		coreManager.resumeDownloads();
 
 		demonThread = new Thread() {
 			@Override
@@ -90,26 +96,32 @@ public class HabitTvViewManager extends Observable {
 				confDemonTime = userConfig.getDemonCheckTime();
 				final long demonTime = confDemonTime * 1000L;
 				boolean still = true;
+				try {
+					if (!grabConfigDAO.exist()) {
+						grabConfigDAO.saveGrabConfig(findCategories());
+					}
+					grabConfigService.start(new SelectionListener() {
+
+						@Override
+						public void onNewSelection(
+								Map<String, CategoryDTO> plugin2Categories) {
+							coreManager.retreiveEpisode(plugin2Categories);
+						}
+					});
+				} catch (final Exception e) {
+					publishError(e);
+					still = false;
+				}
 				// demon mode
 				while (still) {
 					if (interrupted) {
 						interrupted = false;
 					} else {
 						try {
-							if (grabConfigDAO.exist()) {
-								coreManager.retreiveEpisode(grabConfigDAO
-										.load());
-							} else {
-								grabConfigDAO.saveGrabConfig(findCategories());
-							}
+							coreManager.retreiveEpisode(grabConfigService
+									.getCategories());
 						} catch (final Exception e) {
-							LOG.error("", e);
-							coreManager
-									.getEpisodeManager()
-									.getSearchPublisher()
-									.addNews(
-											new SearchEvent(
-													SearchStateEnum.ERROR, e));
+							publishError(e);
 							still = false;
 						}
 					}
@@ -129,6 +141,12 @@ public class HabitTvViewManager extends Observable {
 		demonThread.start();
 	}
 
+	private void publishError(final Exception e) {
+		LOG.error("", e);
+		coreManager.getEpisodeManager().getSearchPublisher()
+				.addNews(new SearchEvent(SearchStateEnum.ERROR, e));
+	}
+
 	public void startDownloadCheck() {
 
 		demonThread.interrupt();
@@ -141,8 +159,14 @@ public class HabitTvViewManager extends Observable {
 		}).start();
 	}
 
-	public void forceEnd() {
-		coreManager.forceEnd();
+	/**
+	 * Graceful stop, the running downloads are finished until the drain
+	 * timeout.
+	 */
+	public void drain() {
+		grabConfigDAO.flush();
+		grabConfigService.stop();
+		coreManager.drain();
 	}
 
 	public void clear() {
@@ -212,6 +236,30 @@ public class HabitTvViewManager extends Observable {
 		coreManager.setDownloaded(episode);
 	}
 
+	public void setNotDownloaded(EpisodeDTO episode) {
+		coreManager.setNotDownloaded(episode);
+	}
+
+	public void resetIndex(CategoryDTO category) {
+		coreManager.resetIndex(category);
+	}
+
+	public void clearErrors() {
+		coreManager.clearErrors();
+	}
+
+	public String exportErrors() {
+		return coreManager.exportErrors();
+	}
+
+	public String exportIndexes() {
+		return coreManager.exportIndexes();
+	}
+
+	public String exportIndex(CategoryDTO category) {
+		return coreManager.exportIndex(category);
+	}
+
 	public void restart(EpisodeDTO episode, boolean exportOnly) {
 		coreManager.restart(episode, exportOnly);
 	}
@@ -47,6 +47,8 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 
 	private boolean downloadable;
 
+	private transient boolean dirty = true;
+
 	/**
 	 * Full Constructor
 	 * 
@@ -164,6 +166,7 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 		}
 		subCategory.setFatherCategory(this);
 		subCategories.add(subCategory);
+		dirty = true;
 	}
 
 	/**
@@ -180,6 +183,7 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 			subCategory.setFatherCategory(this);
 		}
 		subCategories.addAll(categoryListDTO);
+		dirty = true;
 	}
 
 	/**
@@ -286,6 +290,7 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 
 	public void addParameter(final String key, final String value) {
 		this.parameters.put(key, value);
+		dirty = true;
 	}
 
 	public String getParameter(final String downloaderParam) {
@@ -301,7 +306,10 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 	}
 
 	public void setSelected(boolean selected) {
-		this.selected = selected;
+		if (this.selected != selected) {
+			this.selected = selected;
+			dirty = true;
+		}
 	}
 
 	public boolean isTemplate() {
@@ -309,7 +317,10 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 	}
 
 	public void setTemplate(boolean template) {
-		this.template = template;
+		if (this.template != template) {
+			this.template = template;
+			dirty = true;
+		}
 	}
 
 	public boolean hasTemplates() {
@@ -328,9 +339,12 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 	}
 
 	public void setDeleted(boolean deleted) {
-		this.deleted = deleted;
+		if (this.deleted != deleted) {
+			this.deleted = deleted;
+			dirty = true;
+		}
 		if (deleted) {
-			this.selected = false;
+			setSelected(false);
 			if (subCategories != null) {
 				for (CategoryDTO categoryDTO : subCategories) {
 					categoryDTO.setSelected(false);
@@ -344,7 +358,10 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 	}
 
 	public void setState(StatusEnum state) {
-		this.state = state;
+		if (this.state != state) {
+			this.state = state;
+			dirty = true;
+		}
 	}
 
 	public boolean isDownloadable() {
@@ -352,7 +369,54 @@ public class CategoryDTO implements Comparable<CategoryDTO>, Serializable {
 	}
 
 	public void setDownloadable(boolean downloadable) {
-		this.downloadable = downloadable;
+		if (this.downloadable != downloadable) {
+			this.downloadable = downloadable;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return true if the category changed since it was loaded or saved
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * To call after editing the include or exclude patterns, the setters
+	 * already mark the category.
+	 */
+	public void markDirty() {
+		dirty = true;
+	}
+
+	/**
+	 * @return true if the category or one of its sub categories changed
+	 */
+	public boolean hasDirtyCategory() {
+		if (dirty) {
+			return true;
+		}
+		if (subCategories != null) {
+			for (CategoryDTO subCategory : subCategories) {
+				if (subCategory.hasDirtyCategory()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mark the category and its sub categories as saved.
+	 */
+	public void clearDirty() {
+		dirty = false;
+		if (subCategories != null) {
+			for (CategoryDTO subCategory : subCategories) {
+				subCategory.clearDirty();
+			}
+		}
 	}
 
 	public boolean hasSelectedSubCategory() {
@@ -12,6 +12,8 @@ public class DownloadParamDTO {
 
 	private final Map<String, String> params = new HashMap<>();
 
+	private long maxRate = 0;
+
 	public DownloadParamDTO(final String downloadInput,
 			final String downloadOutput, final String extension) {
 		super();
@@ -44,12 +46,24 @@ public class DownloadParamDTO {
 		return params;
 	}
 
+	/**
+	 * @return download rate limit in bytes per second, 0 if unlimited
+	 */
+	public long getMaxRate() {
+		return maxRate;
+	}
+
+	public void setMaxRate(final long maxRate) {
+		this.maxRate = maxRate;
+	}
+
 	public static DownloadParamDTO buildDownloadParam(
 			final DownloadParamDTO downloadParam, final String downloadInput) {
 		final DownloadParamDTO downloadParamDTO = new DownloadParamDTO(
 				downloadInput, downloadParam.getDownloadOutput(),
 				downloadParam.getExtension());
 		downloadParamDTO.getParams().putAll(downloadParam.getParams());
+		downloadParamDTO.setMaxRate(downloadParam.getMaxRate());
 		return downloadParamDTO;
 	}
 
@@ -57,6 +71,7 @@ public class DownloadParamDTO {
 	public String toString() {
 		return "DownloadParamDTO [downloadInput=" + downloadInput
 				+ ", downloadOutput=" + downloadOutput + ", extension="
-				+ extension + ", params=" + params + "]";
+				+ extension + ", params=" + params + ", maxRate=" + maxRate
+				+ "]";
 	}
 }
@@ -0,0 +1,233 @@
+package com.dabi.habitv.framework.plugin.utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+
+import com.dabi.habitv.api.plugin.exception.TechnicalException;
+
+/**
+ * JAXB contexts and compiled schemas built once and shared by the core and
+ * the plugins, the marshallers and unmarshallers aren't thread safe and are
+ * pooled. The contexts of a plugin are cached with its class loader as a weak
+ * key so that they don't keep an unloaded plugin in memory, the cache itself
+ * is softly referenced since its contexts refer to the loader.
+ */
+public final class JAXBUtils {
+
+	private static final int MAX_POOLED = 4;
+
+	private static final ConcurrentMap<String, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+	private static final LoaderCache DEFAULT_CACHE = new LoaderCache();
+
+	private static final Map<ClassLoader, SoftReference<LoaderCache>> LOADER_CACHES = new WeakHashMap<>();
+
+	private JAXBUtils() {
+
+	}
+
+	/**
+	 * @param classLoader
+	 *            loader of the plugin owning the entities, null for the
+	 *            default one
+	 */
+	public static JAXBContext getContext(final String contextPath, final ClassLoader classLoader) {
+		final ConcurrentMap<String, JAXBContext> contexts = getCache(classLoader).contexts;
+		JAXBContext context = contexts.get(contextPath);
+		if (context == null) {
+			try {
+				context = classLoader == null ? JAXBContext.newInstance(contextPath) : JAXBContext.newInstance(contextPath,
+						classLoader);
+			} catch (final JAXBException e) {
+				throw new TechnicalException(e);
+			}
+			final JAXBContext previous = contexts.putIfAbsent(contextPath, context);
+			if (previous != null) {
+				context = previous;
+			}
+		}
+		return context;
+	}
+
+	private static LoaderCache getCache(final ClassLoader classLoader) {
+		if (classLoader == null) {
+			return DEFAULT_CACHE;
+		}
+		synchronized (LOADER_CACHES) {
+			final SoftReference<LoaderCache> reference = LOADER_CACHES.get(classLoader);
+			LoaderCache cache = reference == null ? null : reference.get();
+			if (cache == null) {
+				cache = new LoaderCache();
+				LOADER_CACHES.put(classLoader, new SoftReference<>(cache));
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * @param xsdFile
+	 *            schema in the classpath
+	 */
+	public static Schema getSchema(final String xsdFile) {
+		Schema schema = SCHEMAS.get(xsdFile);
+		if (schema == null) {
+			final SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+			try {
+				schema = schemaFactory.newSchema(new StreamSource(Thread.currentThread().getContextClassLoader()
+						.getResourceAsStream(xsdFile)));
+			} catch (final SAXException e) {
+				throw new TechnicalException(e);
+			}
+			final Schema previous = SCHEMAS.putIfAbsent(xsdFile, schema);
+			if (previous != null) {
+				schema = previous;
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * @param xsdFile
+	 *            schema validating the input, null for no validation
+	 * @return the unmarshalled object to be casted
+	 */
+	public static Object unmarshal(final InputStream input, final String contextPath, final ClassLoader classLoader,
+			final String xsdFile) {
+		return unmarshal(new StreamSource(input), contextPath, classLoader, xsdFile);
+	}
+
+	/**
+	 * @see #unmarshal(InputStream, String, ClassLoader, String) with a reader
+	 */
+	public static Object unmarshal(final Reader input, final String contextPath, final ClassLoader classLoader,
+			final String xsdFile) {
+		return unmarshal(new StreamSource(input), contextPath, classLoader, xsdFile);
+	}
+
+	private static Object unmarshal(final Source source, final String contextPath, final ClassLoader classLoader,
+			final String xsdFile) {
+		final Key key = new Key(contextPath, xsdFile);
+		final Queue<Unmarshaller> pool = getPool(getCache(classLoader).unmarshallers, key);
+		try {
+			Unmarshaller unmarshaller = pool.poll();
+			if (unmarshaller == null) {
+				unmarshaller = getContext(contextPath, classLoader).createUnmarshaller();
+				if (xsdFile != null) {
+					unmarshaller.setSchema(getSchema(xsdFile));
+				}
+			}
+			final Object result = unmarshaller.unmarshal(source);
+			release(pool, unmarshaller);
+			return result;
+		} catch (final JAXBException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	/**
+	 * Write the object with a formatted output.
+	 *
+	 * @param xsdFile
+	 *            schema validating the output, null for no validation
+	 * @param encoding
+	 *            null for the default one
+	 */
+	public static void marshal(final Object object, final OutputStream output, final String contextPath,
+			final String xsdFile, final String encoding) {
+		final Key key = new Key(contextPath + "/" + encoding, xsdFile);
+		final Queue<Marshaller> pool = getPool(DEFAULT_CACHE.marshallers, key);
+		try {
+			Marshaller marshaller = pool.poll();
+			if (marshaller == null) {
+				marshaller = getContext(contextPath, null).createMarshaller();
+				marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+				if (encoding != null) {
+					marshaller.setProperty(Marshaller.JAXB_ENCODING, encoding);
+				}
+				if (xsdFile != null) {
+					marshaller.setSchema(getSchema(xsdFile));
+				}
+			}
+			marshaller.marshal(object, output);
+			release(pool, marshaller);
+		} catch (final JAXBException e) {
+			throw new TechnicalException(e);
+		}
+	}
+
+	private static <T> Queue<T> getPool(final ConcurrentMap<Key, Queue<T>> pools, final Key key) {
+		Queue<T> pool = pools.get(key);
+		if (pool == null) {
+			pool = new ConcurrentLinkedQueue<>();
+			final Queue<T> previous = pools.putIfAbsent(key, pool);
+			if (previous != null) {
+				pool = previous;
+			}
+		}
+		return pool;
+	}
+
+	private static <T> void release(final Queue<T> pool, final T item) {
+		if (pool.size() < MAX_POOLED) {
+			pool.offer(item);
+		}
+	}
+
+	/**
+	 * Contexts and pools of a class loader.
+	 */
+	private static final class LoaderCache {
+
+		private final ConcurrentMap<String, JAXBContext> contexts = new ConcurrentHashMap<>();
+
+		private final ConcurrentMap<Key, Queue<Unmarshaller>> unmarshallers = new ConcurrentHashMap<>();
+
+		private final ConcurrentMap<Key, Queue<Marshaller>> marshallers = new ConcurrentHashMap<>();
+	}
+
+	private static final class Key {
+
+		private final String name;
+
+		private final String xsdFile;
+
+		private Key(final String name, final String xsdFile) {
+			this.name = name;
+			this.xsdFile = xsdFile;
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode() * 31 + (xsdFile == null ? 0 : xsdFile.hashCode());
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return name.equals(other.name) && (xsdFile == null ? other.xsdFile == null : xsdFile.equals(other.xsdFile));
+		}
+	}
+}
@@ -11,9 +11,6 @@ import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-
 import org.jsoup.Jsoup;
 
 import com.dabi.habitv.api.plugin.exception.TechnicalException;
@@ -117,17 +114,7 @@ public final class RetrieverUtils {
 	 * @return the unmarshalled object to be casted
 	 */
 	public static Object unmarshalInputStream(final InputStream input, final String unmarshallerPackage, final ClassLoader classLoader) {
-		try {
-			final JAXBContext context;
-			if (classLoader == null) {
-				context = JAXBContext.newInstance(unmarshallerPackage);
-			} else {
-				context = JAXBContext.newInstance(unmarshallerPackage, classLoader);
-			}
-			return context.createUnmarshaller().unmarshal(input);
-		} catch (final JAXBException e) {
-			throw new TechnicalException(e);
-		}
+		return JAXBUtils.unmarshal(input, unmarshallerPackage, classLoader, null);
 	}
 
 	/**
@@ -206,4 +193,4 @@ public final class RetrieverUtils {
 
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
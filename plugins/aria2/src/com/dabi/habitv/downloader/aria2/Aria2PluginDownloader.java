@@ -50,6 +50,9 @@ public class Aria2PluginDownloader extends BaseUpdatablePlugin implements
 						+ httpProxy.getPort() + "'";
 			}
 		}
+		if (downloadParam.getMaxRate() > 0) {
+			cmd += " --max-download-limit=" + downloadParam.getMaxRate();
+		}
 		cmd = cmd.replaceFirst(FrameworkConf.DOWNLOAD_INPUT,
 				Matcher.quoteReplacement(downloadParam.getDownloadInput()));
 
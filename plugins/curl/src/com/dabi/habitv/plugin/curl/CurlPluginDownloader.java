@@ -40,6 +40,9 @@ public class CurlPluginDownloader extends BaseUpdatablePlugin implements
 				Matcher.quoteReplacement(downloadParam.getDownloadInput()));
 		cmd = cmd.replaceFirst(FrameworkConf.DOWNLOAD_DESTINATION,
 				Matcher.quoteReplacement(downloadParam.getDownloadOutput()));
+		if (downloadParam.getMaxRate() > 0) {
+			cmd += "--limit-rate " + downloadParam.getMaxRate() + " ";
+		}
 
 		if (protocol2proxy != null) {
 			final ProxyDTO httpProxy = protocol2proxy
@@ -20,6 +20,7 @@ public class YoutubeMP3PluginDownloader implements PluginDownloaderInterface {
 		DownloadParamDTO downloadParamMp3 = new DownloadParamDTO(downloadParam.getDownloadInput().replace("mp3:", ""),
 		        downloadParam.getDownloadOutput(), "mp3");
 		downloadParamMp3.getParams().putAll(downloadParam.getParams());
+		downloadParamMp3.setMaxRate(downloadParam.getMaxRate());
 		downloadParamMp3.addParam(FrameworkConf.PARAMETER_ARGS, YoutubeConf.DUMP_CMD_MP3);
 		return DownloadUtils.download(downloadParamMp3, downloaders, YoutubeConf.NAME);
 	}
@@ -33,6 +33,9 @@ public class YoutubePluginDownloader extends BaseUpdatablePlugin implements Plug
 		}
 		cmd = cmd.replaceFirst(FrameworkConf.DOWNLOAD_INPUT, Matcher.quoteReplacement(downloadParam.getDownloadInput()));
 		cmd = cmd.replaceFirst(FrameworkConf.DOWNLOAD_DESTINATION, Matcher.quoteReplacement(downloadParam.getDownloadOutput()));
+		if (downloadParam.getMaxRate() > 0) {
+			cmd += " --limit-rate " + downloadParam.getMaxRate();
+		}
 
 		// if (proxyDTO!=null){
 		// youtube-dl supports downloading videos through a proxy, by